@@ -0,0 +1,43 @@
+package uk.ac.nottingham.cryptography.benchmarks;
+
+/**
+ * Fixed keys, nonces and payloads shared by the benchmarks, built with
+ * the same patterns as the unit tests.
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    static byte[] key(int length) {
+        byte[] key = new byte[length];
+        for (int i = 0; i < length; i++) {
+            key[i] = (byte) (i + 3);
+        }
+        return key;
+    }
+
+    static byte[] nonce() {
+        byte[] nonce = new byte[16];
+        for (int i = 0; i < nonce.length; i++) {
+            nonce[i] = (byte) (i * 3 + 19);
+        }
+        return nonce;
+    }
+
+    static byte[] iv() {
+        byte[] iv = new byte[24];
+        for (int i = 0; i < iv.length; i++) {
+            iv[i] = (byte) (i * 5 + 1);
+        }
+        return iv;
+    }
+
+    static byte[] payload(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (0x1b & (i * 3));
+        }
+        return data;
+    }
+}
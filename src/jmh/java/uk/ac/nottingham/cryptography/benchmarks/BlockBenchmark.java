@@ -0,0 +1,58 @@
+package uk.ac.nottingham.cryptography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.nottingham.cryptography.CAST384;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-block encryption and decryption, and the key schedule. The
+ * warm-key benchmarks reuse one schedule; perMessageKey pays for a fresh
+ * schedule before every block, as a caller with one key per message does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BlockBenchmark {
+
+    @Param({ "16", "48" })
+    public int keySize;
+
+    private final CAST384 cipher = new CAST384();
+    private final byte[] block = BenchmarkData.payload(24);
+    private byte[] key;
+
+    @Setup
+    public void setup() {
+        key = BenchmarkData.key(keySize);
+        cipher.initialise(key);
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        cipher.encrypt(block);
+        return block;
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        cipher.decrypt(block);
+        return block;
+    }
+
+    @Benchmark
+    public CAST384 initialise() {
+        cipher.initialise(key);
+        return cipher;
+    }
+
+    @Benchmark
+    public byte[] perMessageKey() {
+        cipher.initialise(key);
+        cipher.encrypt(block);
+        return block;
+    }
+}
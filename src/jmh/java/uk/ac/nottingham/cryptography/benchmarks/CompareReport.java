@@ -0,0 +1,169 @@
+package uk.ac.nottingham.cryptography.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Summarises ComparativeBenchmark results as a table of throughput and
+ * cycles per byte for each engine and payload size, relative to AES.
+ * Used by the jmhCompare Gradle task:
+ * <pre>
+ *     CompareReport results.json report.txt [ghz]
+ * </pre>
+ * Cycles come from the perfnorm profiler's cycles counter when the run
+ * had it; otherwise they are estimated from the time and ghz, the core's
+ * sustained clock, and left out when neither is available. Estimates
+ * are only as good as the clock given, so prefer perfnorm where perf
+ * works.
+ */
+public final class CompareReport {
+
+    private static final String CYCLES_METRIC = "cycles";
+    private static final String BENCHMARK = "ComparativeBenchmark.";
+
+    private CompareReport() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("usage: CompareReport results.json report.txt [ghz]");
+            System.exit(2);
+        }
+
+        Path resultFile = Paths.get(args[0]);
+        Path reportFile = Paths.get(args[1]);
+        double ghz = args.length == 3 && !args[2].isEmpty() ? Double.parseDouble(args[2]) : Double.NaN;
+
+        String report = report(load(resultFile), ghz);
+        Files.createDirectories(reportFile.toAbsolutePath().getParent());
+        Files.writeString(reportFile, report, StandardCharsets.UTF_8);
+        System.out.print(report);
+    }
+
+    static String report(Map<String, Map<Integer, Result>> results, double ghz) {
+        StringBuilder report = new StringBuilder();
+        Map<Integer, Result> aes = results.getOrDefault("message/AES", Map.of());
+
+        report.append(String.format(Locale.ROOT, "%-10s %10s %12s %10s %12s %10s%n",
+                "engine", "bytes", "ns/msg", "MiB/s", "cycles/B", "time/AES"));
+        for (Map.Entry<String, Map<Integer, Result>> entry : results.entrySet()) {
+            if (!entry.getKey().startsWith("message/")) {
+                continue;
+            }
+            String engine = entry.getKey().substring("message/".length());
+            for (Map.Entry<Integer, Result> size : entry.getValue().entrySet()) {
+                Result result = size.getValue();
+                double cyclesPerByte = result.cycles(ghz) / size.getKey();
+                Result baseline = aes.get(size.getKey());
+                double relative = baseline == null ? Double.NaN : result.nanos / baseline.nanos;
+
+                report.append(String.format(Locale.ROOT, "%-10s %10d %12.1f %10.1f %12.2f %10.2f%n",
+                        engine, size.getKey(), result.nanos,
+                        size.getKey() / result.nanos * 1e9 / (1 << 20), cyclesPerByte, relative));
+            }
+        }
+
+        report.append(String.format(Locale.ROOT, "%n%-10s %12s %12s%n", "engine", "ns/key", "cycles/key"));
+        for (Map.Entry<String, Map<Integer, Result>> entry : results.entrySet()) {
+            if (!entry.getKey().startsWith("keySetup/")) {
+                continue;
+            }
+            // key setup does not depend on the payload, so average the sizes
+            double nanos = 0;
+            double cycles = 0;
+            for (Result result : entry.getValue().values()) {
+                nanos += result.nanos;
+                cycles += result.cycles(ghz);
+            }
+            int count = entry.getValue().size();
+            report.append(String.format(Locale.ROOT, "%-10s %12.1f %12.0f%n",
+                    entry.getKey().substring("keySetup/".length()), nanos / count, cycles / count));
+        }
+
+        if (Double.isNaN(ghz)) {
+            report.append("(cycles from perfnorm where measured; pass a clock in GHz to estimate them otherwise)\n");
+        } else {
+            report.append(String.format(Locale.ROOT,
+                    "(cycles from perfnorm where measured, otherwise estimated at %.2f GHz)%n", ghz));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Reads ComparativeBenchmark runs from a JMH JSON result file, keyed by
+     * benchmark/engine and then payload size.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Map<Integer, Result>> load(Path file) throws IOException {
+        Object json = JsonParser.parse(Files.readString(file, StandardCharsets.UTF_8));
+        Map<String, Map<Integer, Result>> results = new TreeMap<>();
+
+        for (Object item : (List<Object>) json) {
+            Map<String, Object> run = (Map<String, Object>) item;
+            String name = (String) run.get("benchmark");
+            int at = name.indexOf(BENCHMARK);
+            if (at < 0) {
+                continue;
+            }
+
+            Map<String, Object> params = (Map<String, Object>) run.get("params");
+            String engine = (String) params.get("engine");
+            int payloadSize = Integer.parseInt((String) params.get("payloadSize"));
+
+            Map<String, Object> primary = (Map<String, Object>) run.get("primaryMetric");
+            double nanos = ((Number) primary.get("score")).doubleValue()
+                    * nanosPerUnit((String) primary.get("scoreUnit"));
+
+            double cycles = Double.NaN;
+            Map<String, Object> secondary = (Map<String, Object>) run.get("secondaryMetrics");
+            if (secondary != null) {
+                for (Map.Entry<String, Object> metric : secondary.entrySet()) {
+                    // older JMH versions prefix profiler metrics with a dot
+                    if (metric.getKey().replace("·", "").equals(CYCLES_METRIC)) {
+                        cycles = ((Number) ((Map<String, Object>) metric.getValue()).get("score")).doubleValue();
+                    }
+                }
+            }
+
+            String key = name.substring(at + BENCHMARK.length()) + "/" + engine;
+            results.computeIfAbsent(key, k -> new TreeMap<>()).put(payloadSize, new Result(nanos, cycles));
+        }
+        return results;
+    }
+
+    private static double nanosPerUnit(String unit) {
+        switch (unit) {
+            case "ns/op":
+                return 1;
+            case "us/op":
+                return 1e3;
+            case "ms/op":
+                return 1e6;
+            case "s/op":
+                return 1e9;
+            default:
+                throw new IllegalArgumentException("Expected an average time result, got " + unit);
+        }
+    }
+
+    static final class Result {
+        final double nanos;
+        final double measuredCycles;
+
+        Result(double nanos, double measuredCycles) {
+            this.nanos = nanos;
+            this.measuredCycles = measuredCycles;
+        }
+
+        double cycles(double ghz) {
+            return Double.isNaN(measuredCycles) ? nanos * ghz : measuredCycles;
+        }
+    }
+}
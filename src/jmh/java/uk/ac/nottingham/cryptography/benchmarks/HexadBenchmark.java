@@ -0,0 +1,43 @@
+package uk.ac.nottingham.cryptography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.nottingham.cryptography.CAST384;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One forward and one inverse hexad under a real key schedule. The block
+ * is updated in place, so successive calls keep feeding new values.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HexadBenchmark {
+
+    private final CAST384 cipher = new CAST384();
+    private final int[] block = { 0x01234567, 0x89abcdef, 0x02468ace, 0x13579bdf, 0x0f1e2d3c, 0x4b5a6978 };
+    private int[] km;
+    private int[] kr;
+
+    @Setup
+    public void setup() {
+        cipher.initialise(BenchmarkData.key(48));
+        km = cipher.getK().getM();
+        kr = cipher.getK().getR();
+    }
+
+    @Benchmark
+    public int[] hexad() {
+        cipher.hexad(block, km, kr, 0);
+        return block;
+    }
+
+    @Benchmark
+    public int[] hexadInv() {
+        cipher.hexadInv(block, km, kr, 0);
+        return block;
+    }
+}
@@ -0,0 +1,58 @@
+package uk.ac.nottingham.cryptography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.nottingham.cryptography.CAST384;
+import uk.ac.nottingham.cryptography.CTRMode;
+import uk.ac.nottingham.cryptography.KeystreamCache;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk CTRMode.encrypt with and without a KeystreamCache bound. none is
+ * the plain bulk path; miss binds a cache under a fresh key id for every
+ * message, so each block is looked up, generated and stored; hit replays
+ * one message from a cache that already holds all of it. miss against
+ * none is the cost of the cache when it does not help.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeystreamCacheBenchmark {
+
+    @Param({ "none", "miss", "hit" })
+    public String cache;
+
+    @Param({ "4096", "65536", "1048576" })
+    public int payloadSize;
+
+    private final CTRMode mode = new CTRMode();
+    private final byte[] nonce = BenchmarkData.nonce();
+    private KeystreamCache keystreamCache;
+    private byte[] payload;
+    private long keyId;
+
+    @Setup
+    public void setup() {
+        payload = BenchmarkData.payload(payloadSize);
+        mode.initialise(new CAST384(), BenchmarkData.key(48), nonce);
+
+        if (!"none".equals(cache)) {
+            keystreamCache = new KeystreamCache(payloadSize + 24);
+            mode.setKeystreamCache(keystreamCache, keyId);
+            mode.encrypt(payload.clone());
+        }
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        if ("miss".equals(cache)) {
+            mode.setKeystreamCache(keystreamCache, ++keyId);
+        }
+        mode.reset(nonce);
+        mode.encrypt(payload);
+        return payload;
+    }
+}
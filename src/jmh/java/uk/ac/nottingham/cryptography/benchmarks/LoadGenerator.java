@@ -0,0 +1,468 @@
+package uk.ac.nottingham.cryptography.benchmarks;
+
+import uk.ac.nottingham.cryptography.CAST384;
+import uk.ac.nottingham.cryptography.CTRMode;
+import uk.ac.nottingham.cryptography.LatencyHistogram;
+import uk.ac.nottingham.cryptography.LatencySnapshot;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+
+/**
+ * Replays a workload profile against CAST384/CTRMode from many threads
+ * and reports throughput and latency percentiles, for sizing deployments
+ * from a realistic mix rather than from single-shape microbenchmarks.
+ * <pre>
+ *     LoadGenerator profile.properties
+ * </pre>
+ * A profile is a properties file (see src/jmh/profiles/default.properties):
+ * <ul>
+ *     <li>threads: concurrent senders</li>
+ *     <li>duration, warmup: measured time and unmeasured lead-in, with s,
+ *     m or h suffixes</li>
+ *     <li>sizes: message size histogram as size:weight,...</li>
+ *     <li>keyReuse: probability that a message stays on the sender's
+ *     current key; otherwise the key schedule is rerun for a key drawn
+ *     from a pool of keyPool keys</li>
+ *     <li>seek: probability that a message is a random-access read at a
+ *     random counter of the current stream rather than a new message
+ *     under a fresh nonce</li>
+ *     <li>rate: target messages per second over all threads, or 0 to run
+ *     flat out</li>
+ *     <li>trace: optional recorded workload, a CSV of size,keyId,counter
+ *     lines replayed in a loop instead of drawing from the distributions
+ *     above. keyId indexes the key pool, and a sender rekeys whenever it
+ *     changes; counter is where a random-access read starts, or -1 for a
+ *     new message. Senders take interleaved lines of the trace</li>
+ * </ul>
+ * With a target rate, latency is measured from when each message was due
+ * rather than when it was sent, so a stalled sender shows up as queueing
+ * delay instead of being hidden by coordinated omission.
+ */
+public final class LoadGenerator {
+
+    private static final int NONCE_SIZE = 16;
+    private static final int BLOCK_SIZE = 24;
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("usage: LoadGenerator profile.properties");
+            System.exit(2);
+        }
+
+        Profile profile;
+        try {
+            profile = Profile.load(Paths.get(args[0]));
+        } catch (IllegalArgumentException e) {
+            System.err.println(args[0] + ": " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        System.out.println(profile.describe());
+        Results results = run(profile);
+        System.out.print(results.report());
+    }
+
+    static Results run(Profile profile) throws InterruptedException {
+        byte[][] keys = new byte[profile.keyPool][];
+        SplittableRandom keyRandom = new SplittableRandom(1);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new byte[48];
+            keyRandom.nextBytes(keys[i]);
+        }
+
+        Results warmup = new Results(profile);
+        Sender[] senders = new Sender[profile.threads];
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < profile.threads; t++) {
+            senders[t] = new Sender(profile, keys, t, warmup);
+            Thread thread = new Thread(senders[t], "load-" + t);
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+
+        threads.forEach(Thread::start);
+        Thread.sleep(profile.warmupNanos / 1_000_000);
+
+        // switch every sender to fresh results so warm-up is not reported
+        Results results = new Results(profile);
+        for (Sender sender : senders) {
+            sender.results = results;
+        }
+        long start = System.nanoTime();
+        Thread.sleep(profile.durationNanos / 1_000_000);
+        results.elapsedNanos = System.nanoTime() - start;
+
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return results;
+    }
+
+    /**
+     * One simulated client: its own CTRMode and current key, a private
+     * random stream and preallocated buffers, so the generator itself adds
+     * no contention or allocation.
+     */
+    private static final class Sender implements Runnable {
+        private final Profile profile;
+        private final byte[][] keys;
+        private final SplittableRandom random;
+        private final CTRMode mode = new CTRMode();
+        private final CAST384 cipher = new CAST384();
+        private final byte[] buffer;
+        private final byte[] nonce = new byte[NONCE_SIZE];
+        private final byte[] counter = new byte[8];
+        private final int index;
+        volatile Results results;
+
+        private int traceLine;
+        private int currentKey;
+        private long sequence;
+
+        Sender(Profile profile, byte[][] keys, int index, Results results) {
+            this.profile = profile;
+            this.keys = keys;
+            this.index = index;
+            this.random = new SplittableRandom(index * 0x9E3779B97F4A7C15L);
+            this.results = results;
+            this.buffer = new byte[profile.maxSize];
+            this.traceLine = profile.trace != null ? index % profile.trace.length : 0;
+
+            nonce[0] = (byte) index;
+            currentKey = profile.trace != null ? (int) profile.trace[traceLine % profile.trace.length][1]
+                    : random.nextInt(keys.length);
+            mode.initialise(cipher, keys[currentKey], nonce);
+        }
+
+        @Override
+        public void run() {
+            // with a target rate each sender owns an even share of it
+            long period = profile.rate > 0 ? (long) (1e9 * profile.threads / profile.rate) : 0;
+            long due = System.nanoTime();
+
+            while (!Thread.currentThread().isInterrupted()) {
+                if (period > 0) {
+                    due += period;
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                } else {
+                    due = System.nanoTime();
+                }
+
+                Results current = results;
+                if (profile.trace != null) {
+                    long[] line = profile.trace[traceLine];
+                    traceLine = (traceLine + profile.threads) % profile.trace.length;
+                    send(current, due, (int) line[0], line[1] == currentKey ? -1 : (int) line[1], line[2]);
+                } else {
+                    int size = profile.sizes[pick(profile.cumulativeWeights)];
+                    int keyId = random.nextDouble() < profile.keyReuse ? -1 : random.nextInt(keys.length);
+                    long seekTo = random.nextDouble() < profile.seek
+                            ? random.nextLong(Math.max(1, profile.maxSize / BLOCK_SIZE)) : -1;
+                    send(current, due, size, keyId, seekTo);
+                }
+            }
+        }
+
+        private void send(Results current, long due, int size, int keyId, long seekTo) {
+            boolean rekey = keyId >= 0;
+            if (rekey) {
+                mode.initialise(cipher, keys[keyId], nonce);
+                currentKey = keyId;
+            }
+
+            if (seekTo >= 0) {
+                for (int b = 0; b < 8; b++) {
+                    counter[7 - b] = (byte) (seekTo >>> (8 * b));
+                }
+                mode.seek(counter);
+            } else {
+                sequence++;
+                for (int b = 0; b < 8; b++) {
+                    nonce[NONCE_SIZE - 1 - b] = (byte) (sequence >>> (8 * b));
+                }
+                nonce[0] = (byte) index;
+                mode.reset(nonce);
+            }
+
+            mode.encrypt(buffer, 0, size, buffer, 0);
+            current.record(size, rekey, seekTo >= 0, System.nanoTime() - due);
+        }
+
+        private int pick(int[] cumulativeWeights) {
+            int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            int i = 0;
+            while (cumulativeWeights[i] <= value) {
+                i++;
+            }
+            return i;
+        }
+    }
+
+    static final class Results {
+        private final int[] sizeBounds;
+        private final LatencyHistogram all = new LatencyHistogram();
+        private final LatencyHistogram[] bySize;
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder rekeys = new LongAdder();
+        private final LongAdder seeks = new LongAdder();
+        long elapsedNanos;
+
+        Results(Profile profile) {
+            this.sizeBounds = profile.sizeBounds();
+            this.bySize = new LatencyHistogram[sizeBounds.length];
+            for (int i = 0; i < bySize.length; i++) {
+                bySize[i] = new LatencyHistogram();
+            }
+        }
+
+        void record(int size, boolean rekey, boolean seek, long nanos) {
+            all.record(nanos);
+            int bucket = 0;
+            while (bucket < sizeBounds.length - 1 && size > sizeBounds[bucket]) {
+                bucket++;
+            }
+            bySize[bucket].record(nanos);
+            bytes.add(size);
+            if (rekey) {
+                rekeys.increment();
+            }
+            if (seek) {
+                seeks.increment();
+            }
+        }
+
+        String report() {
+            double seconds = elapsedNanos / 1e9;
+            StringBuilder report = new StringBuilder();
+            report.append(String.format(Locale.ROOT,
+                    "%d messages in %.1f s: %.0f msg/s, %.1f MiB/s, %.0f rekeys/s, %.0f seeks/s%n",
+                    all.getCount(), seconds, all.getCount() / seconds, bytes.sum() / seconds / (1 << 20),
+                    rekeys.sum() / seconds, seeks.sum() / seconds));
+
+            report.append(String.format(Locale.ROOT, "%n%-16s %10s %10s %10s %10s %10s %10s%n",
+                    "size", "messages", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us"));
+            line(report, "all", all.snapshot());
+            int lower = 0;
+            for (int i = 0; i < sizeBounds.length; i++) {
+                if (bySize[i].getCount() > 0) {
+                    line(report, (lower + 1) + "-" + sizeBounds[i], bySize[i].snapshot());
+                }
+                lower = sizeBounds[i];
+            }
+            return report.toString();
+        }
+
+        private static void line(StringBuilder report, String label, LatencySnapshot latency) {
+            report.append(String.format(Locale.ROOT, "%-16s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    label, latency.getCount(), latency.getP50Nanos() / 1e3, latency.getP90Nanos() / 1e3,
+                    latency.getP99Nanos() / 1e3, latency.getP999Nanos() / 1e3, latency.getMaxNanos() / 1e3));
+        }
+    }
+
+    static final class Profile {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long durationNanos = 60_000_000_000L;
+        long warmupNanos = 10_000_000_000L;
+        double keyReuse = 1.0;
+        int keyPool = 1;
+        double seek;
+        double rate;
+        String sizesText = "1024";
+        int[] sizes;
+        int[] cumulativeWeights;
+        long[][] trace;
+        Path traceFile;
+        int maxSize;
+
+        static Profile load(Path file) throws IOException {
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            Path base = file.toAbsolutePath().getParent();
+            return parse(properties, base);
+        }
+
+        static Profile parse(Properties properties, Path base) throws IOException {
+            Profile profile = new Profile();
+            for (String name : properties.stringPropertyNames()) {
+                String value = properties.getProperty(name).trim();
+                try {
+                    switch (name) {
+                        case "threads":
+                            profile.threads = Integer.parseInt(value);
+                            break;
+                        case "duration":
+                            profile.durationNanos = SoakRunner.Options.parseDuration(value);
+                            break;
+                        case "warmup":
+                            profile.warmupNanos = SoakRunner.Options.parseDuration(value);
+                            break;
+                        case "keyReuse":
+                            profile.keyReuse = Double.parseDouble(value);
+                            break;
+                        case "keyPool":
+                            profile.keyPool = Integer.parseInt(value);
+                            break;
+                        case "seek":
+                            profile.seek = Double.parseDouble(value);
+                            break;
+                        case "rate":
+                            profile.rate = Double.parseDouble(value);
+                            break;
+                        case "sizes":
+                            profile.sizesText = value;
+                            break;
+                        case "trace":
+                            profile.traceFile = base == null ? Paths.get(value) : base.resolve(value);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown profile property: " + name);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+                }
+            }
+
+            profile.check();
+            profile.parseSizes();
+            if (profile.traceFile != null) {
+                profile.loadTrace();
+            }
+            profile.maxSize = profile.largestSize();
+            return profile;
+        }
+
+        private void check() {
+            if (threads < 1 || keyPool < 1) {
+                throw new IllegalArgumentException("threads and keyPool must be at least 1");
+            }
+            if (durationNanos <= 0 || warmupNanos < 0) {
+                throw new IllegalArgumentException("duration must be positive and warmup not negative");
+            }
+            if (keyReuse < 0 || keyReuse > 1 || seek < 0 || seek > 1) {
+                throw new IllegalArgumentException("keyReuse and seek are probabilities between 0 and 1");
+            }
+            if (rate < 0) {
+                throw new IllegalArgumentException("rate must not be negative");
+            }
+        }
+
+        private void parseSizes() {
+            String[] entries = sizesText.split(",");
+            sizes = new int[entries.length];
+            cumulativeWeights = new int[entries.length];
+            int total = 0;
+            for (int i = 0; i < entries.length; i++) {
+                String[] parts = entries[i].trim().split(":");
+                int weight;
+                try {
+                    sizes[i] = Integer.parseInt(parts[0]);
+                    weight = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid sizes entry: " + entries[i]);
+                }
+                if (sizes[i] < 1 || weight < 0 || parts.length > 2) {
+                    throw new IllegalArgumentException("Invalid sizes entry: " + entries[i]);
+                }
+                total += weight;
+                cumulativeWeights[i] = total;
+            }
+            if (total < 1) {
+                throw new IllegalArgumentException("sizes weights must add up to at least 1");
+            }
+        }
+
+        private void loadTrace() throws IOException {
+            List<long[]> lines = new ArrayList<>();
+            int number = 0;
+            for (String line : Files.readAllLines(traceFile, StandardCharsets.UTF_8)) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                try {
+                    long[] entry = { Integer.parseInt(fields[0].trim()), Integer.parseInt(fields[1].trim()),
+                            Long.parseLong(fields[2].trim()) };
+                    if (fields.length != 3 || entry[0] < 1 || entry[1] < 0 || entry[1] >= keyPool) {
+                        throw new NumberFormatException();
+                    }
+                    lines.add(entry);
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new IllegalArgumentException(traceFile + " line " + number
+                            + ": expected size,keyId,counter with keyId below keyPool");
+                }
+            }
+            if (lines.isEmpty()) {
+                throw new IllegalArgumentException(traceFile + " has no entries");
+            }
+            trace = lines.toArray(new long[0][]);
+        }
+
+        private int largestSize() {
+            int max = 0;
+            if (trace != null) {
+                for (long[] line : trace) {
+                    max = Math.max(max, (int) line[0]);
+                }
+            } else {
+                for (int size : sizes) {
+                    max = Math.max(max, size);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Upper bounds of the size classes latency is broken down by: the
+         * configured sizes, or powers of four for a trace.
+         */
+        int[] sizeBounds() {
+            if (trace == null) {
+                return IntStream.of(sizes).sorted().distinct().toArray();
+            }
+            List<Integer> bounds = new ArrayList<>();
+            for (long bound = 64; ; bound *= 4) {
+                bounds.add((int) Math.min(bound, maxSize));
+                if (bound >= maxSize) {
+                    break;
+                }
+            }
+            return bounds.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        String describe() {
+            return String.format(Locale.ROOT,
+                    "load: %d threads, %d s after %d s warm-up, %s, key reuse %.2f over %d keys, "
+                            + "seek %.2f, rate %s",
+                    threads, durationNanos / 1_000_000_000L, warmupNanos / 1_000_000_000L,
+                    trace != null ? "trace " + traceFile + " (" + trace.length + " messages)" : "sizes " + sizesText,
+                    keyReuse, keyPool, seek, rate > 0 ? String.format(Locale.ROOT, "%.0f msg/s", rate) : "unbounded");
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package uk.ac.nottingham.cryptography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.nottingham.cryptography.CAST384;
+import uk.ac.nottingham.cryptography.PMAC;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PMAC tags over payloads on either side of the parallel threshold.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PMACBenchmark {
+
+    @Param({ "64", "4096", "65536", "16777216" })
+    public int payloadSize;
+
+    private final PMAC pmac = new PMAC();
+    private byte[] payload;
+
+    @Setup
+    public void setup() {
+        payload = BenchmarkData.payload(payloadSize);
+        pmac.initialise(new CAST384(), BenchmarkData.key(48));
+    }
+
+    @Benchmark
+    public byte[] tag() {
+        pmac.update(payload);
+        return pmac.doFinal();
+    }
+}
@@ -0,0 +1,82 @@
+package uk.ac.nottingham.cryptography.benchmarks;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.*;
+import uk.ac.nottingham.cryptography.CASTProvider;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CTR encryption through javax.crypto.Cipher: our provider against the
+ * BouncyCastle provider's CAST6, for arrays and for heap and direct
+ * ByteBuffers. Shows what the JCA layer costs on top of CTRMode.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProviderBenchmark {
+
+    @Param({ "CAST", "BC" })
+    public String provider;
+
+    @Param({ "64", "4096", "1048576" })
+    public int payloadSize;
+
+    private Cipher cipher;
+    private byte[] payload;
+    private byte[] output;
+    private ByteBuffer heapIn;
+    private ByteBuffer heapOut;
+    private ByteBuffer directIn;
+    private ByteBuffer directOut;
+
+    @Setup
+    public void setup() throws Exception {
+        if ("CAST".equals(provider)) {
+            cipher = Cipher.getInstance("CAST384/CTR/NoPadding", new CASTProvider());
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(BenchmarkData.key(48), "CAST384"),
+                    new IvParameterSpec(BenchmarkData.nonce()));
+        } else {
+            cipher = Cipher.getInstance("CAST6/CTR/NoPadding", new BouncyCastleProvider());
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(BenchmarkData.key(32), "CAST6"),
+                    new IvParameterSpec(BenchmarkData.nonce()));
+        }
+
+        payload = BenchmarkData.payload(payloadSize);
+        output = new byte[payloadSize];
+        heapIn = ByteBuffer.wrap(payload);
+        heapOut = ByteBuffer.allocate(payloadSize);
+        directIn = ByteBuffer.allocateDirect(payloadSize);
+        directIn.put(payload).flip();
+        directOut = ByteBuffer.allocateDirect(payloadSize);
+    }
+
+    @Benchmark
+    public byte[] array() throws Exception {
+        cipher.update(payload, 0, payload.length, output, 0);
+        return output;
+    }
+
+    @Benchmark
+    public ByteBuffer heapBuffer() throws Exception {
+        heapIn.clear();
+        heapOut.clear();
+        cipher.update(heapIn, heapOut);
+        return heapOut;
+    }
+
+    @Benchmark
+    public ByteBuffer directBuffer() throws Exception {
+        directIn.clear();
+        directOut.clear();
+        cipher.update(directIn, directOut);
+        return directOut;
+    }
+}
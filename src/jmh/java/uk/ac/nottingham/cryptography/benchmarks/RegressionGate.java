@@ -0,0 +1,178 @@
+package uk.ac.nottingham.cryptography.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares a JMH JSON result file against a stored baseline and fails when
+ * any benchmark got slower, or allocates more per operation, than the
+ * tolerance allows. Used by the jmhGate Gradle task:
+ * <pre>
+ *     RegressionGate baseline.json results.json report.txt scoreTolerance allocTolerance allocSlack
+ *         allowMissingBaseline
+ * </pre>
+ * Tolerances are fractions, e.g. 0.10 for 10%. Allocation may also grow by
+ * allocSlack bytes per operation, so that a zero baseline does not fail on
+ * JMH's measurement noise. Scores are compared in the direction of the
+ * benchmark mode: higher is better for throughput, lower for time modes.
+ * The report is written to report.txt and printed. Exits with status 1 on
+ * a regression, when a benchmark in the baseline was not run, and on a
+ * missing baseline unless allowMissingBaseline is true, so that the gate
+ * cannot pass by accident: not by comparing against nothing, and not by
+ * a gated benchmark being renamed or filtered out of the run.
+ */
+public final class RegressionGate {
+
+    private static final String ALLOC_METRIC = "gc.alloc.rate.norm";
+
+    private RegressionGate() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 7) {
+            System.err.println("usage: RegressionGate baseline.json results.json report.txt "
+                    + "scoreTolerance allocTolerance allocSlack allowMissingBaseline");
+            System.exit(2);
+        }
+
+        Path baselineFile = Paths.get(args[0]);
+        Path resultFile = Paths.get(args[1]);
+        Path reportFile = Paths.get(args[2]);
+        double scoreTolerance = Double.parseDouble(args[3]);
+        double allocTolerance = Double.parseDouble(args[4]);
+        double allocSlack = Double.parseDouble(args[5]);
+        boolean allowMissingBaseline = Boolean.parseBoolean(args[6]);
+
+        Map<String, Result> current = load(resultFile);
+        StringBuilder report = new StringBuilder();
+        boolean failed;
+
+        if (!Files.exists(baselineFile)) {
+            report.append("No baseline at ").append(baselineFile)
+                    .append("; run the jmhBaseline task to record one")
+                    .append(allowMissingBaseline ? ".\n" : ", or pass -Pgate.allowMissingBaseline to skip the comparison.\n");
+            failed = !allowMissingBaseline;
+        } else {
+            failed = compare(load(baselineFile), current, scoreTolerance, allocTolerance, allocSlack, report);
+        }
+
+        Files.createDirectories(reportFile.toAbsolutePath().getParent());
+        Files.writeString(reportFile, report, StandardCharsets.UTF_8);
+        System.out.print(report);
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    static boolean compare(Map<String, Result> baseline, Map<String, Result> current, double scoreTolerance,
+                           double allocTolerance, double allocSlack, StringBuilder report) {
+        boolean failed = false;
+        report.append(String.format(Locale.ROOT, "%-60s %14s %14s %8s %10s %10s  %s%n",
+                "benchmark", "baseline", "current", "change", "base B/op", "cur B/op", "status"));
+
+        for (Map.Entry<String, Result> entry : current.entrySet()) {
+            Result now = entry.getValue();
+            Result before = baseline.get(entry.getKey());
+            if (before == null) {
+                report.append(String.format(Locale.ROOT, "%-60s %14s %14.3f %8s %10s %10.1f  new%n",
+                        entry.getKey(), "-", now.score, "-", "-", now.alloc));
+                continue;
+            }
+
+            // positive change is always an improvement
+            double change = before.score == 0 ? 0
+                    : (now.score - before.score) / before.score * (now.higherIsBetter ? 1 : -1);
+
+            List<String> problems = new ArrayList<>();
+            if (change < -scoreTolerance) {
+                problems.add("slower");
+            }
+            if (!Double.isNaN(now.alloc) && !Double.isNaN(before.alloc)
+                    && now.alloc > before.alloc * (1 + allocTolerance) + allocSlack) {
+                problems.add("allocates more");
+            }
+            failed |= !problems.isEmpty();
+
+            report.append(String.format(Locale.ROOT, "%-60s %14.3f %14.3f %+7.1f%% %10.1f %10.1f  %s%n",
+                    entry.getKey(), before.score, now.score, 100 * change, before.alloc, now.alloc,
+                    problems.isEmpty() ? "ok" : "REGRESSION: " + String.join(", ", problems)));
+        }
+
+        for (Map.Entry<String, Result> entry : baseline.entrySet()) {
+            if (!current.containsKey(entry.getKey())) {
+                report.append(String.format(Locale.ROOT, "%-60s %14.3f %14s %8s %10.1f %10s  MISSING: not run%n",
+                        entry.getKey(), entry.getValue().score, "-", "-", entry.getValue().alloc, "-"));
+                failed = true;
+            }
+        }
+
+        report.append(failed ? "Benchmark regressions or missing benchmarks found.\n" : "No regressions.\n");
+        report.append(String.format(Locale.ROOT,
+                "(score tolerance %.0f%%, allocation tolerance %.0f%% + %.1f B/op)%n",
+                100 * scoreTolerance, 100 * allocTolerance, allocSlack));
+        return failed;
+    }
+
+    /**
+     * Reads a JMH JSON result file into results keyed by benchmark name
+     * and parameters.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Result> load(Path file) throws IOException {
+        Object json = JsonParser.parse(Files.readString(file, StandardCharsets.UTF_8));
+        Map<String, Result> results = new TreeMap<>();
+
+        for (Object item : (List<Object>) json) {
+            Map<String, Object> run = (Map<String, Object>) item;
+            String name = (String) run.get("benchmark");
+            name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+
+            Map<String, Object> params = (Map<String, Object>) run.get("params");
+            if (params != null && !params.isEmpty()) {
+                StringBuilder key = new StringBuilder(name).append('[');
+                new TreeMap<>(params).forEach((k, v) -> key.append(k).append('=').append(v).append(','));
+                key.setCharAt(key.length() - 1, ']');
+                name = key.toString();
+            }
+
+            Map<String, Object> primary = (Map<String, Object>) run.get("primaryMetric");
+            double score = ((Number) primary.get("score")).doubleValue();
+            boolean higherIsBetter = "thrpt".equals(run.get("mode"));
+
+            double alloc = Double.NaN;
+            Map<String, Object> secondary = (Map<String, Object>) run.get("secondaryMetrics");
+            if (secondary != null) {
+                for (Map.Entry<String, Object> metric : secondary.entrySet()) {
+                    // older JMH versions prefix profiler metrics with a dot
+                    if (metric.getKey().replace("·", "").equals(ALLOC_METRIC)) {
+                        alloc = ((Number) ((Map<String, Object>) metric.getValue()).get("score")).doubleValue();
+                    }
+                }
+            }
+
+            results.put(name, new Result(score, higherIsBetter, alloc));
+        }
+        return results;
+    }
+
+    static final class Result {
+        final double score;
+        final boolean higherIsBetter;
+        final double alloc;
+
+        Result(double score, boolean higherIsBetter, double alloc) {
+            this.score = score;
+            this.higherIsBetter = higherIsBetter;
+            this.alloc = alloc;
+        }
+    }
+}
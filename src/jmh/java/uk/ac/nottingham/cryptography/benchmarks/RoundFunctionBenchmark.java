@@ -0,0 +1,55 @@
+package uk.ac.nottingham.cryptography.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.nottingham.cryptography.CAST384;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The six CAST-384 round functions on their own. Inputs are fields rather
+ * than constants so the JIT cannot fold the calls away.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoundFunctionBenchmark {
+
+    private final CAST384 cipher = new CAST384();
+
+    private int d = 0x1b2c3d4e;
+    private int km = 0x5a827999;
+    private int kr = 19;
+
+    @Benchmark
+    public int f1() {
+        return cipher.f1(d, km, kr);
+    }
+
+    @Benchmark
+    public int f2() {
+        return cipher.f2(d, km, kr);
+    }
+
+    @Benchmark
+    public int f3() {
+        return cipher.f3(d, km, kr);
+    }
+
+    @Benchmark
+    public int f4() {
+        return cipher.f4(d, km, kr);
+    }
+
+    @Benchmark
+    public int f5() {
+        return cipher.f5(d, km, kr);
+    }
+
+    @Benchmark
+    public int f6() {
+        return cipher.f6(d, km, kr);
+    }
+}
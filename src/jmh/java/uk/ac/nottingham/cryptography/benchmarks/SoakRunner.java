@@ -0,0 +1,470 @@
+package uk.ac.nottingham.cryptography.benchmarks;
+
+import uk.ac.nottingham.cryptography.CAST384;
+import uk.ac.nottingham.cryptography.CTRMode;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Long-running CTR encryption soak. Worker threads encrypt messages drawn
+ * from a weighted mix of payload sizes, each under a fresh nonce, for the
+ * whole duration; every interval a line is printed with throughput, GC
+ * time, allocation rate of the workers, CPU per byte, JIT compilation time
+ * and old generation occupancy after GC. Used by the soak Gradle task:
+ * <pre>
+ *     SoakRunner --duration=30m --interval=10s --threads=4
+ *                --mix=64:40,1024:30,16384:20,1048576:10 --csv=soak.csv
+ * </pre>
+ * Durations take s, m or h suffixes. Each mix entry is size:weight.
+ * <br/>
+ * Throughput that sinks over time points at deoptimisation or a growing
+ * heap; compilation time that keeps rising late in the run is the JIT
+ * churning; allocation that is not zero means the hot path allocates; old
+ * generation that keeps climbing after GC is a leak. The summary compares
+ * the first and last quarter of the run (after the first interval, which
+ * is counted as warm-up) and, with --max-drift, exits with status 1 when
+ * throughput fell by more than that fraction.
+ */
+public final class SoakRunner {
+
+    private static final int NONCE_SIZE = 16;
+
+    private SoakRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: SoakRunner [--duration=10m] [--interval=10s] [--threads=N] "
+                    + "[--mix=size:weight,...] [--csv=file] [--max-drift=fraction]");
+            System.exit(2);
+            return;
+        }
+
+        LongAdder bytes = new LongAdder();
+        LongAdder messages = new LongAdder();
+        List<Thread> workers = new ArrayList<>();
+        long[] workerIds = new long[options.threads];
+        for (int t = 0; t < options.threads; t++) {
+            Thread worker = new Thread(new Worker(options, t, bytes, messages), "soak-" + t);
+            worker.setDaemon(true);
+            workers.add(worker);
+            workerIds[t] = worker.getId();
+        }
+
+        System.out.printf(Locale.ROOT, "soak: %d threads for %d s, reporting every %d s, mix %s%n",
+                options.threads, options.durationNanos / 1_000_000_000L,
+                options.intervalNanos / 1_000_000_000L, options.mixText);
+
+        Sampler sampler = new Sampler(workerIds);
+        List<Double> throughputs = new ArrayList<>();
+        try (PrintWriter csv = options.csv == null ? null : csv(options.csv)) {
+            if (csv != null) {
+                csv.println(Sample.CSV_HEADER);
+            }
+
+            Sample previous = sampler.sample(0, 0);
+            long start = previous.nanos;
+            workers.forEach(Thread::start);
+
+            long deadline = start + options.durationNanos;
+            long next = start;
+            while (next < deadline) {
+                next = Math.min(deadline, next + options.intervalNanos);
+                sleepUntil(next);
+
+                Sample current = sampler.sample(bytes.sum(), messages.sum());
+                Interval interval = new Interval(previous, current, start);
+                throughputs.add(interval.mebibytesPerSecond());
+                System.out.println(interval.line());
+                if (csv != null) {
+                    csv.println(interval.csv());
+                    csv.flush();
+                }
+                previous = current;
+            }
+
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+
+            Interval total = new Interval(sampler.first, previous, start);
+            System.out.println("total: " + total.line());
+        }
+
+        double drift = drift(throughputs);
+        if (!Double.isNaN(drift)) {
+            System.out.printf(Locale.ROOT, "throughput drift, last quarter against first: %+.1f%%%n",
+                    100 * drift);
+            if (drift < -options.maxDrift) {
+                System.out.printf(Locale.ROOT, "throughput fell by more than %.0f%%%n", 100 * options.maxDrift);
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Relative change in mean throughput between the first and last
+     * quarter of the intervals, skipping the first interval as warm-up, or
+     * NaN if the run was too short to tell.
+     */
+    static double drift(List<Double> throughputs) {
+        List<Double> measured = throughputs.subList(Math.min(1, throughputs.size()), throughputs.size());
+        int quarter = measured.size() / 4;
+        if (quarter == 0) {
+            return Double.NaN;
+        }
+
+        double first = mean(measured.subList(0, quarter));
+        double last = mean(measured.subList(measured.size() - quarter, measured.size()));
+        return first == 0 ? Double.NaN : (last - first) / first;
+    }
+
+    private static double mean(List<Double> values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.size();
+    }
+
+    private static PrintWriter csv(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        return new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+    }
+
+    private static void sleepUntil(long nanos) throws InterruptedException {
+        long remaining;
+        while ((remaining = nanos - System.nanoTime()) > 0) {
+            Thread.sleep(remaining / 1_000_000, (int) (remaining % 1_000_000));
+        }
+    }
+
+    /**
+     * Encrypts messages in place until interrupted. Buffers for every size
+     * in the mix are allocated up front, so anything the allocation column
+     * shows comes from the library rather than the harness.
+     */
+    private static final class Worker implements Runnable {
+        private final int[] sizes;
+        private final int[] cumulativeWeights;
+        private final byte[][] buffers;
+        private final SplittableRandom random;
+        private final LongAdder bytes;
+        private final LongAdder messages;
+        private final CTRMode mode = new CTRMode();
+        private final byte[] nonce = BenchmarkData.nonce();
+
+        Worker(Options options, int index, LongAdder bytes, LongAdder messages) {
+            this.sizes = options.sizes;
+            this.cumulativeWeights = options.cumulativeWeights;
+            this.random = new SplittableRandom(index);
+            this.bytes = bytes;
+            this.messages = messages;
+
+            this.buffers = new byte[sizes.length][];
+            for (int i = 0; i < sizes.length; i++) {
+                buffers[i] = BenchmarkData.payload(sizes[i]);
+            }
+            nonce[0] = (byte) index;
+            mode.initialise(new CAST384(), BenchmarkData.key(48), nonce);
+        }
+
+        @Override
+        public void run() {
+            int totalWeight = cumulativeWeights[cumulativeWeights.length - 1];
+            long sequence = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                int pick = random.nextInt(totalWeight);
+                int i = 0;
+                while (cumulativeWeights[i] <= pick) {
+                    i++;
+                }
+
+                // a fresh nonce per message, as a real sender would use
+                sequence++;
+                for (int b = 0; b < 8; b++) {
+                    nonce[NONCE_SIZE - 1 - b] = (byte) (sequence >>> (8 * b));
+                }
+                mode.reset(nonce);
+                mode.encrypt(buffers[i]);
+
+                bytes.add(sizes[i]);
+                messages.increment();
+            }
+        }
+    }
+
+    /**
+     * Reads the cumulative JVM counters that each interval is the
+     * difference of.
+     */
+    private static final class Sampler {
+        private final long[] workerIds;
+        private final com.sun.management.ThreadMXBean threads;
+        private final java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        private final CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+        private Sample first;
+
+        Sampler(long[] workerIds) {
+            this.workerIds = workerIds;
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+                this.threads = (com.sun.management.ThreadMXBean) bean;
+                threads.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                this.threads = null;
+            }
+        }
+
+        Sample sample(long bytes, long messages) {
+            long gcMillis = 0;
+            long gcCount = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gcMillis += Math.max(0, gc.getCollectionTime());
+                gcCount += Math.max(0, gc.getCollectionCount());
+            }
+
+            long allocated = -1;
+            if (threads != null) {
+                allocated = 0;
+                for (long value : threads.getThreadAllocatedBytes(workerIds)) {
+                    allocated += Math.max(0, value);
+                }
+            }
+
+            long cpuNanos = os instanceof com.sun.management.OperatingSystemMXBean
+                    ? ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() : -1;
+            long compileMillis = compiler != null && compiler.isCompilationTimeMonitoringSupported()
+                    ? compiler.getTotalCompilationTime() : -1;
+
+            Sample sample = new Sample(System.nanoTime(), bytes, messages, gcMillis, gcCount, allocated,
+                    cpuNanos, compileMillis, oldGenerationAfterGc());
+            if (first == null) {
+                first = sample;
+            }
+            return sample;
+        }
+
+        private static long oldGenerationAfterGc() {
+            // the tenured pool's occupancy after its last collection; a
+            // steady climb here is what a leak looks like
+            long used = -1;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                MemoryUsage usage = pool.getCollectionUsage();
+                String name = pool.getName();
+                if (pool.getType() == MemoryType.HEAP && usage != null
+                        && (name.contains("Old") || name.contains("Tenured"))) {
+                    used = Math.max(0, used) + usage.getUsed();
+                }
+            }
+            return used;
+        }
+    }
+
+    private static final class Sample {
+        static final String CSV_HEADER = "seconds,mib_per_s,messages_per_s,gc_ms,gc_count,"
+                + "alloc_bytes_per_s,alloc_bytes_per_mib,cpu_ns_per_byte,jit_ms,old_gen_after_gc_bytes";
+
+        final long nanos;
+        final long bytes;
+        final long messages;
+        final long gcMillis;
+        final long gcCount;
+        final long allocated;
+        final long cpuNanos;
+        final long compileMillis;
+        final long oldGeneration;
+
+        Sample(long nanos, long bytes, long messages, long gcMillis, long gcCount, long allocated,
+               long cpuNanos, long compileMillis, long oldGeneration) {
+            this.nanos = nanos;
+            this.bytes = bytes;
+            this.messages = messages;
+            this.gcMillis = gcMillis;
+            this.gcCount = gcCount;
+            this.allocated = allocated;
+            this.cpuNanos = cpuNanos;
+            this.compileMillis = compileMillis;
+            this.oldGeneration = oldGeneration;
+        }
+    }
+
+    private static final class Interval {
+        private final Sample from;
+        private final Sample to;
+        private final long runStart;
+
+        Interval(Sample from, Sample to, long runStart) {
+            this.from = from;
+            this.to = to;
+            this.runStart = runStart;
+        }
+
+        double seconds() {
+            return (to.nanos - from.nanos) / 1e9;
+        }
+
+        long bytes() {
+            return to.bytes - from.bytes;
+        }
+
+        double mebibytesPerSecond() {
+            return seconds() > 0 ? bytes() / (double) (1 << 20) / seconds() : 0;
+        }
+
+        double allocatedPerSecond() {
+            return from.allocated < 0 || seconds() <= 0 ? Double.NaN : (to.allocated - from.allocated) / seconds();
+        }
+
+        double allocatedPerMebibyte() {
+            return from.allocated < 0 || bytes() == 0 ? Double.NaN
+                    : (to.allocated - from.allocated) / (bytes() / (double) (1 << 20));
+        }
+
+        double cpuNanosPerByte() {
+            return from.cpuNanos < 0 || bytes() == 0 ? Double.NaN : (to.cpuNanos - from.cpuNanos) / (double) bytes();
+        }
+
+        long compileMillis() {
+            return from.compileMillis < 0 ? -1 : to.compileMillis - from.compileMillis;
+        }
+
+        String line() {
+            return String.format(Locale.ROOT,
+                    "%7.0f s  %9.1f MiB/s  %9.0f msg/s  GC %5d ms in %3d  alloc %10.0f B/s (%8.1f B/MiB)  "
+                            + "CPU %6.2f ns/B  JIT %5d ms  old gen %s",
+                    (to.nanos - runStart) / 1e9, mebibytesPerSecond(),
+                    seconds() > 0 ? (to.messages - from.messages) / seconds() : 0,
+                    to.gcMillis - from.gcMillis, to.gcCount - from.gcCount,
+                    allocatedPerSecond(), allocatedPerMebibyte(), cpuNanosPerByte(), compileMillis(),
+                    to.oldGeneration < 0 ? "-" : (to.oldGeneration >> 10) + " KiB");
+        }
+
+        String csv() {
+            return String.format(Locale.ROOT, "%.1f,%.3f,%.1f,%d,%d,%.1f,%.2f,%.4f,%d,%d",
+                    (to.nanos - runStart) / 1e9, mebibytesPerSecond(),
+                    seconds() > 0 ? (to.messages - from.messages) / seconds() : 0,
+                    to.gcMillis - from.gcMillis, to.gcCount - from.gcCount,
+                    allocatedPerSecond(), allocatedPerMebibyte(), cpuNanosPerByte(), compileMillis(),
+                    to.oldGeneration);
+        }
+    }
+
+    static final class Options {
+        long durationNanos = 600_000_000_000L;
+        long intervalNanos = 10_000_000_000L;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String mixText = "64:40,1024:30,16384:20,1048576:10";
+        int[] sizes;
+        int[] cumulativeWeights;
+        Path csv;
+        double maxDrift = Double.POSITIVE_INFINITY;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals < 0) {
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+                String name = arg.substring(2, equals);
+                String value = arg.substring(equals + 1);
+                switch (name) {
+                    case "duration":
+                        options.durationNanos = parseDuration(value);
+                        break;
+                    case "interval":
+                        options.intervalNanos = parseDuration(value);
+                        break;
+                    case "threads":
+                        options.threads = Integer.parseInt(value);
+                        break;
+                    case "mix":
+                        options.mixText = value;
+                        break;
+                    case "csv":
+                        options.csv = value.isEmpty() ? null : Paths.get(value);
+                        break;
+                    case "max-drift":
+                        options.maxDrift = Double.parseDouble(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: --" + name);
+                }
+            }
+
+            if (options.threads < 1) {
+                throw new IllegalArgumentException("--threads must be at least 1");
+            }
+            if (options.durationNanos <= 0 || options.intervalNanos <= 0) {
+                throw new IllegalArgumentException("--duration and --interval must be positive");
+            }
+            options.parseMix();
+            return options;
+        }
+
+        static long parseDuration(String text) {
+            long unit = 1_000_000_000L;
+            String digits = text;
+            char suffix = text.isEmpty() ? ' ' : Character.toLowerCase(text.charAt(text.length() - 1));
+            if (suffix == 's' || suffix == 'm' || suffix == 'h') {
+                unit *= suffix == 'h' ? 3600 : suffix == 'm' ? 60 : 1;
+                digits = text.substring(0, text.length() - 1);
+            }
+            try {
+                return Long.parseLong(digits) * unit;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid duration: " + text);
+            }
+        }
+
+        private void parseMix() {
+            String[] entries = mixText.split(",");
+            sizes = new int[entries.length];
+            cumulativeWeights = new int[entries.length];
+            int total = 0;
+            for (int i = 0; i < entries.length; i++) {
+                String[] parts = entries[i].trim().split(":");
+                int weight;
+                try {
+                    sizes[i] = Integer.parseInt(parts[0]);
+                    weight = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid mix entry: " + entries[i]);
+                }
+                if (sizes[i] < 1 || weight < 0 || parts.length > 2) {
+                    throw new IllegalArgumentException("Invalid mix entry: " + entries[i]);
+                }
+                total += weight;
+                cumulativeWeights[i] = total;
+            }
+            if (total < 1) {
+                throw new IllegalArgumentException("Mix weights must add up to at least 1");
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package uk.ac.nottingham.cryptography.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Time to first block from JVM launch. Starts StartupProbe in a fresh JVM
+ * again and again and measures, from just before the process is spawned,
+ * how long it takes to print that it has encrypted its first block; the
+ * probe's own figure shows how much of that was spent in main rather
+ * than in JVM startup and class loading. Variants are interleaved so that
+ * machine noise spreads evenly over them:
+ * <ul>
+ *     <li>default: the JDK's own CDS archive only</li>
+ *     <li>no-cds: with class data sharing off, for scale</li>
+ *     <li>app-cds: with an AppCDS archive of our classes, if one is given</li>
+ * </ul>
+ * <pre>
+ *     StartupBenchmark --classpath=main.jar:jmh.jar [--archive=startup.jsa] [--runs=20] [--java=path]
+ * </pre>
+ * AppCDS only archives classes loaded from JAR files, so the classpath
+ * should name the built jars rather than class directories.
+ */
+public final class StartupBenchmark {
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String classpath = null;
+        String archive = null;
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        int runs = 20;
+        for (String arg : args) {
+            if (arg.startsWith("--classpath=")) {
+                classpath = arg.substring("--classpath=".length());
+            } else if (arg.startsWith("--archive=")) {
+                archive = arg.substring("--archive=".length());
+            } else if (arg.startsWith("--runs=")) {
+                runs = Integer.parseInt(arg.substring("--runs=".length()));
+            } else if (arg.startsWith("--java=")) {
+                java = arg.substring("--java=".length());
+            } else {
+                System.err.println("usage: StartupBenchmark --classpath=jars [--archive=file] [--runs=n] [--java=path]");
+                System.exit(2);
+            }
+        }
+        if (classpath == null || runs < 1) {
+            System.err.println("--classpath is required and --runs must be at least 1");
+            System.exit(2);
+        }
+
+        Map<String, List<String>> variants = new LinkedHashMap<>();
+        variants.put("default", List.of());
+        variants.put("no-cds", List.of("-Xshare:off"));
+        if (archive != null && !archive.isEmpty()) {
+            if (Files.exists(Paths.get(archive))) {
+                variants.put("app-cds", List.of("-XX:SharedArchiveFile=" + archive));
+            } else {
+                System.out.println("No archive at " + archive + "; skipping app-cds");
+            }
+        }
+
+        Map<String, long[]> launch = new LinkedHashMap<>();
+        Map<String, long[]> inMain = new LinkedHashMap<>();
+        for (String name : variants.keySet()) {
+            launch.put(name, new long[runs]);
+            inMain.put(name, new long[runs]);
+        }
+
+        // one unrecorded launch per variant to warm the page cache
+        for (List<String> options : variants.values()) {
+            launch(java, options, classpath);
+        }
+        for (int run = 0; run < runs; run++) {
+            for (Map.Entry<String, List<String>> variant : variants.entrySet()) {
+                long[] result = launch(java, variant.getValue(), classpath);
+                launch.get(variant.getKey())[run] = result[0];
+                inMain.get(variant.getKey())[run] = result[1];
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "%-10s %14s %14s %14s %14s%n",
+                "variant", "launch p50 ms", "launch p90 ms", "launch min ms", "in main p50 ms");
+        for (String name : variants.keySet()) {
+            long[] times = launch.get(name);
+            long[] main = inMain.get(name);
+            Arrays.sort(times);
+            Arrays.sort(main);
+            System.out.printf(Locale.ROOT, "%-10s %14.1f %14.1f %14.1f %14.2f%n", name,
+                    percentile(times, 0.5) / 1e6, percentile(times, 0.9) / 1e6, times[0] / 1e6,
+                    percentile(main, 0.5) / 1e6);
+        }
+    }
+
+    /**
+     * Runs the probe once, returning the nanoseconds from spawn to its
+     * first-block line and the nanoseconds it reported spending in main.
+     */
+    private static long[] launch(String java, List<String> options, String classpath)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.addAll(options);
+        command.add("-cp");
+        command.add(classpath);
+        command.add(StartupProbe.class.getName());
+
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+        long start = System.nanoTime();
+        Process process = builder.start();
+
+        long launch = -1;
+        long inMain = -1;
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (launch < 0 && line.startsWith("first-block ")) {
+                    launch = System.nanoTime() - start;
+                    inMain = Long.parseLong(line.split(" ")[1]);
+                }
+                output.append(line).append('\n');
+            }
+        }
+
+        int status = process.waitFor();
+        if (status != 0 || launch < 0) {
+            throw new IllegalStateException("Probe failed with status " + status + ":\n" + output);
+        }
+        return new long[] { launch, inMain };
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
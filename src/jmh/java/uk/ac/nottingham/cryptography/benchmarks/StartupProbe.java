@@ -0,0 +1,28 @@
+package uk.ac.nottingham.cryptography.benchmarks;
+
+import uk.ac.nottingham.cryptography.CAST384;
+import uk.ac.nottingham.cryptography.CTRMode;
+
+/**
+ * The first thing a short-lived CLI or serverless invocation does: set up
+ * CTR under a key and encrypt one block. Prints the time main took to get
+ * there, in nanoseconds, and exits. Launched repeatedly by
+ * StartupBenchmark, and used as the training run for the AppCDS archive.
+ */
+public final class StartupProbe {
+
+    private StartupProbe() {
+    }
+
+    public static void main(String[] args) {
+        long start = System.nanoTime();
+
+        CTRMode mode = new CTRMode();
+        mode.initialise(new CAST384(), BenchmarkData.key(48), BenchmarkData.nonce());
+        byte[] block = new byte[24];
+        mode.encrypt(block);
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println("first-block " + elapsed + " " + (block[0] & 0xFF));
+    }
+}
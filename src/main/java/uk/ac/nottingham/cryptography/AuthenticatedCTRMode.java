@@ -0,0 +1,275 @@
+package uk.ac.nottingham.cryptography;
+
+import javax.crypto.AEADBadTagException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Implementation of CipherMode that encrypts with the CTR keystream and
+ * authenticates the ciphertext with a Carter-Wegman polynomial MAC, both
+ * in the same loop over the data, so each payload is read once.
+ * <br/>
+ * Counter blocks 0 and 1 of each nonce are reserved for the MAC: block 0
+ * supplies two hash keys and block 1 two one-time pads. Data is encrypted
+ * from counter 2. The ciphertext is split into 32-bit words, each absorbed
+ * into two independent polynomial hashes modulo 2^61 - 1, and the byte
+ * length is absorbed last. The 16-byte tag is each hash plus its pad.
+ * A nonce must never be used twice under one key.
+ * <br/>
+ * Encryption is streaming: call encrypt any number of times, then getTag.
+ * Decryption is one-shot through decrypt(data, tag), which wipes the
+ * buffer and throws if the tag does not verify, so unauthenticated
+ * plaintext is never handed back.
+ */
+public class AuthenticatedCTRMode extends CipherMode {
+
+    public static final int TAG_SIZE = 16;
+
+    private static final int BLOCK_SIZE = CTRMode.BLOCK_SIZE;
+    private static final long P = (1L << 61) - 1;
+
+    // keystream blocks generated per bulk cipher call
+    private static final int KEYSTREAM_BLOCKS = 64;
+
+    // first counter used for data; 0 and 1 key the MAC
+    private static final long FIRST_DATA_COUNTER = 2;
+
+    private byte[] nonce;
+    private long counter;
+    private final byte[] keystream = new byte[KEYSTREAM_BLOCKS * BLOCK_SIZE];
+    private int keystreamIndex;
+    private int keystreamLength;
+
+    private long k1;
+    private long k2;
+    private long s1;
+    private long s2;
+    private long h1;
+    private long h2;
+    private int pendingWord;
+    private int pendingBytes;
+    private long length;
+    private boolean finished;
+
+    public AuthenticatedCTRMode() {
+        super();
+    }
+
+    @Override
+    public void initialise(Cipher cipher, byte[] key, byte[] nonce) {
+        this.cipher = cipher;
+        cipher.initialise(key);
+        start(nonce);
+    }
+
+    /**
+     * Starts a new message under a new nonce, keeping the expanded key.
+     */
+    public void reset(byte[] nonce) {
+        if (cipher == null) {
+            throw new IllegalStateException("AuthenticatedCTRMode must be initialised before reset");
+        }
+        start(nonce);
+    }
+
+    /**
+     * Encrypts data in place and absorbs the resulting ciphertext into the
+     * MAC. May be called repeatedly for one message before getTag.
+     */
+    @Override
+    public void encrypt(byte[] data) {
+        if (finished) {
+            throw new IllegalStateException("Tag already produced; reset with a new nonce first");
+        }
+        process(data, true);
+    }
+
+    /**
+     * Finishes the message and returns its tag.
+     */
+    public byte[] getTag() {
+        if (finished) {
+            throw new IllegalStateException("Tag already produced; reset with a new nonce first");
+        }
+        finished = true;
+        return computeTag();
+    }
+
+    /**
+     * Decrypts a whole message in place, absorbing the ciphertext into the
+     * MAC in the same pass, and checks it against tag. On a mismatch the
+     * buffer is zeroed before the exception is thrown.
+     */
+    public void decrypt(byte[] data, byte[] tag) throws AEADBadTagException {
+        if (finished || length != 0 || pendingBytes != 0) {
+            throw new IllegalStateException("decrypt must start a fresh message; reset with its nonce first");
+        }
+
+        process(data, false);
+        finished = true;
+
+        if (!MessageDigest.isEqual(computeTag(), tag)) {
+            Arrays.fill(data, (byte) 0);
+            throw new AEADBadTagException("Authentication tag mismatch");
+        }
+    }
+
+    /**
+     * Unauthenticated streaming decryption is not offered; use
+     * decrypt(data, tag).
+     */
+    @Override
+    public void decrypt(byte[] data) {
+        throw new UnsupportedOperationException("Use decrypt(data, tag) to verify before release");
+    }
+
+    @Override
+    public void seek(byte[] counter) {
+        throw new UnsupportedOperationException("Authenticated CTR mode does not support seeking");
+    }
+
+    private void start(byte[] nonce) {
+        this.nonce = nonce.clone();
+
+        // counters 0 and 1 give the hash keys and pads
+        byte[] block = new byte[2 * BLOCK_SIZE];
+        CTRMode.writeCounterBlock(block, 0, this.nonce, 0);
+        CTRMode.writeCounterBlock(block, BLOCK_SIZE, this.nonce, 1);
+        encryptBlocks(block, 2);
+
+        k1 = readLong(block, 0) & P;
+        k2 = readLong(block, 8) & P;
+        s1 = readLong(block, BLOCK_SIZE);
+        s2 = readLong(block, BLOCK_SIZE + 8);
+        Arrays.fill(block, (byte) 0);
+
+        counter = FIRST_DATA_COUNTER;
+        keystreamIndex = 0;
+        keystreamLength = 0;
+        h1 = 0;
+        h2 = 0;
+        pendingWord = 0;
+        pendingBytes = 0;
+        length = 0;
+        finished = false;
+    }
+
+    private void process(byte[] data, boolean encrypting) {
+        int i = 0;
+        while (i < data.length) {
+            if (keystreamIndex == keystreamLength) {
+                refillKeystream(data.length - i);
+            }
+
+            // whole words when aligned, otherwise byte by byte
+            if (pendingBytes == 0 && data.length - i >= 4 && keystreamLength - keystreamIndex >= 4) {
+                int cipherWord;
+                if (encrypting) {
+                    xorWord(data, i);
+                    cipherWord = readInt(data, i);
+                } else {
+                    cipherWord = readInt(data, i);
+                    xorWord(data, i);
+                }
+                absorb(cipherWord & 0xFFFFFFFFL);
+                i += 4;
+            } else {
+                byte cipherByte = encrypting ? (byte) (data[i] ^ keystream[keystreamIndex]) : data[i];
+                data[i] ^= keystream[keystreamIndex++];
+                pendingWord = (pendingWord << 8) | (cipherByte & 0xFF);
+                if (++pendingBytes == 4) {
+                    absorb(pendingWord & 0xFFFFFFFFL);
+                    pendingWord = 0;
+                    pendingBytes = 0;
+                }
+                i++;
+            }
+        }
+        length += data.length;
+    }
+
+    private void xorWord(byte[] data, int i) {
+        data[i] ^= keystream[keystreamIndex];
+        data[i + 1] ^= keystream[keystreamIndex + 1];
+        data[i + 2] ^= keystream[keystreamIndex + 2];
+        data[i + 3] ^= keystream[keystreamIndex + 3];
+        keystreamIndex += 4;
+    }
+
+    private void refillKeystream(int remaining) {
+        // only generate as many blocks as the rest of this call can use
+        int blockCount = Math.min(KEYSTREAM_BLOCKS, Math.max(1, (remaining + BLOCK_SIZE - 1) / BLOCK_SIZE));
+        for (int b = 0; b < blockCount; b++) {
+            CTRMode.writeCounterBlock(keystream, b * BLOCK_SIZE, nonce, counter++);
+        }
+        encryptBlocks(keystream, blockCount);
+        keystreamIndex = 0;
+        keystreamLength = blockCount * BLOCK_SIZE;
+    }
+
+    private byte[] computeTag() {
+        // absorb any partial word, zero padded, then the byte length
+        long f1 = h1;
+        long f2 = h2;
+        if (pendingBytes > 0) {
+            long word = ((long) pendingWord << (8 * (4 - pendingBytes))) & 0xFFFFFFFFL;
+            f1 = multiplyMod(f1 + word, k1);
+            f2 = multiplyMod(f2 + word, k2);
+        }
+        f1 = multiplyMod(f1 + (length & P), k1);
+        f2 = multiplyMod(f2 + (length & P), k2);
+
+        byte[] tag = new byte[TAG_SIZE];
+        writeLong(tag, 0, f1 + s1);
+        writeLong(tag, 8, f2 + s2);
+        return tag;
+    }
+
+    private void absorb(long word) {
+        h1 = multiplyMod(h1 + word, k1);
+        h2 = multiplyMod(h2 + word, k2);
+    }
+
+    private static long multiplyMod(long a, long b) {
+        // a < 2^62 and b < 2^61, so the product fits in 123 bits
+        long lo = a * b;
+        long hi = Math.multiplyHigh(a, b);
+        long r = (lo & P) + ((lo >>> 61) | (hi << 3));
+        r = (r & P) + (r >>> 61);
+        return r >= P ? r - P : r;
+    }
+
+    private void encryptBlocks(byte[] buffer, int blockCount) {
+        if (cipher instanceof MultiBlockCipher) {
+            ((MultiBlockCipher) cipher).encryptBlocks(buffer, 0, blockCount);
+            return;
+        }
+
+        // block-at-a-time fallback for ciphers without a bulk path
+        byte[] block = new byte[BLOCK_SIZE];
+        for (int i = 0; i < blockCount; i++) {
+            System.arraycopy(buffer, i * BLOCK_SIZE, block, 0, BLOCK_SIZE);
+            cipher.encrypt(block);
+            System.arraycopy(block, 0, buffer, i * BLOCK_SIZE, BLOCK_SIZE);
+        }
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void writeLong(byte[] data, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            data[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package uk.ac.nottingham.cryptography;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event covering one multi-block encrypt or decrypt call on the
+ * cipher. Every mode produces its keystream or processes its data through
+ * these calls, so their total duration is the time spent in the cipher.
+ * Disabled by default; enable uk.ac.nottingham.cryptography.BulkCrypt in
+ * a recording to see it.
+ */
+@Name("uk.ac.nottingham.cryptography.BulkCrypt")
+@Label("Bulk Encrypt/Decrypt")
+@Description("One multi-block call into the CAST-384 cipher")
+@Category({ "Cryptography", "CAST-384" })
+@Enabled(false)
+@StackTrace(false)
+final class BulkCryptEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Returns a begun event. Call through EventGate, which only gets here
+     * when a recording has the event enabled.
+     */
+    static BulkCryptEvent start() {
+        BulkCryptEvent event = new BulkCryptEvent();
+        event.begin();
+        return event;
+    }
+}
@@ -7,18 +7,40 @@ package uk.ac.nottingham.cryptography;
  * This class is ONE of TWO primary code files in which you can complete
  * your solution to the coursework.
  */
-public class CAST384 extends CASTCipher {
+public class CAST384 extends CASTCipher implements MultiBlockCipher {
+
+    // the schedule constants do not depend on the key, so every rekey shares one set
+    private static final CASTKeySet SCHEDULE_KEYS = new CAST384().generateScheduleKeys(12, 4);
 
     public CAST384() {
         super(192, 384);
     }
 
+    /**
+     * Creates a cipher over an already expanded key schedule, such as one
+     * returned by getK() on another instance. Schedules are only read after
+     * initialise, so several instances can share one safely.
+     */
+    public CAST384(CASTKeySet K) {
+        this();
+        this.K = K;
+    }
+
     @Override
     public void initialise(byte[] key) {
-        // generate temporary schedule constants
-        CASTKeySet tempKeys = generateScheduleKeys(12, 4);
-        // generate round keys
-        this.K = generateRoundKeys(tempKeys, key, 12, 4);
+        KeyScheduleEvent event = EventGate.keySchedule();
+
+        // generate round keys from the shared schedule constants
+        this.K = generateRoundKeys(SCHEDULE_KEYS, key, 12, 4);
+
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.keyLength = key.length;
+            event.commit();
+        }
     }
 
     @Override
@@ -270,69 +292,160 @@ public class CAST384 extends CASTCipher {
 
     @Override
     public void encrypt(byte[] data) {
-        int[] block = new int[6];
-        for (int i = 0; i < 6; i++) {
-            int index = i * 4;
-
-            int b0 = data[index]     & 0xFF;
-            int b1 = data[index + 1] & 0xFF;
-            int b2 = data[index + 2] & 0xFF;
-            int b3 = data[index + 3] & 0xFF;
+        // same rounds as the bulk path, on locals rather than a temporary
+        // block array, so single-block calls allocate nothing
+        cryptBlocks(data, 0, 1, 0, 6, 1);
+    }
 
-            block[i] = (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
-        }
+    @Override
+    public void decrypt(byte[] data) {
+        cryptBlocks(data, 0, 1, 11, 5, -1);
+    }
 
-        // apply 6 forward hexad rounds
-        // each uses a set of 6 key pairs
-        for (int i = 0; i < 6; i++) {
-            hexad(block, K.getM(), K.getR(), i * 6);
-        }
+    @Override
+    public void encryptBlocks(byte[] data, int offset, int blockCount) {
+        BulkCryptEvent event = EventGate.bulkCrypt();
 
-        // apply 6 inverse hexad rounds
-        for (int i = 6; i < 12; i++) {
-            hexadInv(block, K.getM(), K.getR(), i * 6);
-        }
+        // 6 forward hexads from round 0, then 6 inverse hexads from round 6
+        cryptBlocks(data, offset, blockCount, 0, 6, 1);
 
-        for (int i = 0; i < 6; i++) {
-            int index = i * 4;
-            data[index]     = (byte) (block[i] >>> 24);
-            data[index + 1] = (byte) (block[i] >>> 16);
-            data[index + 2] = (byte) (block[i] >>> 8);
-            data[index + 3] = (byte) (block[i]);
-        }
+        commit(event, "encrypt", blockCount);
     }
 
     @Override
-    public void decrypt(byte[] data) {
-        int[] block = new int[6];
-        for (int i = 0; i < 6; i++) {
-            int index = i * 4;
+    public void decryptBlocks(byte[] data, int offset, int blockCount) {
+        BulkCryptEvent event = EventGate.bulkCrypt();
 
-            int b0 = data[index]     & 0xFF;
-            int b1 = data[index + 1] & 0xFF;
-            int b2 = data[index + 2] & 0xFF;
-            int b3 = data[index + 3] & 0xFF;
+        // forward hexads from round 11 down, then inverse hexads from round 5 down
+        cryptBlocks(data, offset, blockCount, 11, 5, -1);
 
-            block[i] = (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
-        }
+        commit(event, "decrypt", blockCount);
+    }
 
-        // apply 6 forward hexad rounds in reverse
-        for (int i = 11; i >= 6; i--) {
-            hexad(block, K.getM(), K.getR(), i * 6);
+    private static void commit(BulkCryptEvent event, String operation, int blockCount) {
+        if (event == null) {
+            return;
         }
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.bytes = (long) blockCount * 24;
+            event.commit();
+        }
+    }
+
+    private void cryptBlocks(byte[] data, int offset, int blockCount, int hexadStart, int hexadInvStart, int step) {
+        // read the schedule once so the whole call works on one key
+        int[] Km = K.getM();
+        int[] Kr = K.getR();
+        int pos = offset;
+
+        // two blocks per iteration, with their rounds interleaved so the
+        // independent S-box lookups of both lanes can overlap
+        for (int pair = 0; pair < blockCount >>> 1; pair++, pos += 48) {
+            int A0 = readWord(data, pos);
+            int B0 = readWord(data, pos + 4);
+            int C0 = readWord(data, pos + 8);
+            int D0 = readWord(data, pos + 12);
+            int E0 = readWord(data, pos + 16);
+            int F0 = readWord(data, pos + 20);
+            int A1 = readWord(data, pos + 24);
+            int B1 = readWord(data, pos + 28);
+            int C1 = readWord(data, pos + 32);
+            int D1 = readWord(data, pos + 36);
+            int E1 = readWord(data, pos + 40);
+            int F1 = readWord(data, pos + 44);
+
+            for (int r = 0, idx = hexadStart * 6; r < 6; r++, idx += step * 6) {
+                E0 ^= f1(F0, Km[idx], Kr[idx]);
+                E1 ^= f1(F1, Km[idx], Kr[idx]);
+                D0 ^= f2(E0, Km[idx + 1], Kr[idx + 1]);
+                D1 ^= f2(E1, Km[idx + 1], Kr[idx + 1]);
+                C0 ^= f3(D0, Km[idx + 2], Kr[idx + 2]);
+                C1 ^= f3(D1, Km[idx + 2], Kr[idx + 2]);
+                B0 ^= f4(C0, Km[idx + 3], Kr[idx + 3]);
+                B1 ^= f4(C1, Km[idx + 3], Kr[idx + 3]);
+                A0 ^= f5(B0, Km[idx + 4], Kr[idx + 4]);
+                A1 ^= f5(B1, Km[idx + 4], Kr[idx + 4]);
+                F0 ^= f6(A0, Km[idx + 5], Kr[idx + 5]);
+                F1 ^= f6(A1, Km[idx + 5], Kr[idx + 5]);
+            }
+
+            for (int r = 0, idx = hexadInvStart * 6; r < 6; r++, idx += step * 6) {
+                F0 ^= f6(A0, Km[idx + 5], Kr[idx + 5]);
+                F1 ^= f6(A1, Km[idx + 5], Kr[idx + 5]);
+                A0 ^= f5(B0, Km[idx + 4], Kr[idx + 4]);
+                A1 ^= f5(B1, Km[idx + 4], Kr[idx + 4]);
+                B0 ^= f4(C0, Km[idx + 3], Kr[idx + 3]);
+                B1 ^= f4(C1, Km[idx + 3], Kr[idx + 3]);
+                C0 ^= f3(D0, Km[idx + 2], Kr[idx + 2]);
+                C1 ^= f3(D1, Km[idx + 2], Kr[idx + 2]);
+                D0 ^= f2(E0, Km[idx + 1], Kr[idx + 1]);
+                D1 ^= f2(E1, Km[idx + 1], Kr[idx + 1]);
+                E0 ^= f1(F0, Km[idx], Kr[idx]);
+                E1 ^= f1(F1, Km[idx], Kr[idx]);
+            }
 
-        // apply 6 inverse hexad rounds in reverse
-        for (int i = 5; i >= 0; i--) {
-            hexadInv(block, K.getM(), K.getR(), i * 6);
+            writeWord(data, pos, A0);
+            writeWord(data, pos + 4, B0);
+            writeWord(data, pos + 8, C0);
+            writeWord(data, pos + 12, D0);
+            writeWord(data, pos + 16, E0);
+            writeWord(data, pos + 20, F0);
+            writeWord(data, pos + 24, A1);
+            writeWord(data, pos + 28, B1);
+            writeWord(data, pos + 32, C1);
+            writeWord(data, pos + 36, D1);
+            writeWord(data, pos + 40, E1);
+            writeWord(data, pos + 44, F1);
         }
 
-        for (int i = 0; i < 6; i++) {
-            int index = i * 4;
-            data[index]     = (byte) (block[i] >>> 24);
-            data[index + 1] = (byte) (block[i] >>> 16);
-            data[index + 2] = (byte) (block[i] >>> 8);
-            data[index + 3] = (byte) (block[i]);
+        // odd block left over
+        if ((blockCount & 1) != 0) {
+            int A = readWord(data, pos);
+            int B = readWord(data, pos + 4);
+            int C = readWord(data, pos + 8);
+            int D = readWord(data, pos + 12);
+            int E = readWord(data, pos + 16);
+            int F = readWord(data, pos + 20);
+
+            for (int r = 0, idx = hexadStart * 6; r < 6; r++, idx += step * 6) {
+                E ^= f1(F, Km[idx], Kr[idx]);
+                D ^= f2(E, Km[idx + 1], Kr[idx + 1]);
+                C ^= f3(D, Km[idx + 2], Kr[idx + 2]);
+                B ^= f4(C, Km[idx + 3], Kr[idx + 3]);
+                A ^= f5(B, Km[idx + 4], Kr[idx + 4]);
+                F ^= f6(A, Km[idx + 5], Kr[idx + 5]);
+            }
+
+            for (int r = 0, idx = hexadInvStart * 6; r < 6; r++, idx += step * 6) {
+                F ^= f6(A, Km[idx + 5], Kr[idx + 5]);
+                A ^= f5(B, Km[idx + 4], Kr[idx + 4]);
+                B ^= f4(C, Km[idx + 3], Kr[idx + 3]);
+                C ^= f3(D, Km[idx + 2], Kr[idx + 2]);
+                D ^= f2(E, Km[idx + 1], Kr[idx + 1]);
+                E ^= f1(F, Km[idx], Kr[idx]);
+            }
+
+            writeWord(data, pos, A);
+            writeWord(data, pos + 4, B);
+            writeWord(data, pos + 8, C);
+            writeWord(data, pos + 12, D);
+            writeWord(data, pos + 16, E);
+            writeWord(data, pos + 20, F);
         }
     }
 
+    private static int readWord(byte[] data, int index) {
+        return ((data[index] & 0xFF) << 24) | ((data[index + 1] & 0xFF) << 16)
+                | ((data[index + 2] & 0xFF) << 8) | (data[index + 3] & 0xFF);
+    }
+
+    private static void writeWord(byte[] data, int index, int word) {
+        data[index]     = (byte) (word >>> 24);
+        data[index + 1] = (byte) (word >>> 16);
+        data[index + 2] = (byte) (word >>> 8);
+        data[index + 3] = (byte) word;
+    }
+
 }
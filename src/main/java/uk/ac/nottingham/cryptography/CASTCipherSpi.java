@@ -0,0 +1,428 @@
+package uk.ac.nottingham.cryptography;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.CipherSpi;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.AlgorithmParameters;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+import java.util.Arrays;
+
+/**
+ * CipherSpi exposing the CAST-384 modes through javax.crypto.Cipher. Keys
+ * are raw 16, 24, 32 or 48 byte secret keys and the IV is passed as an
+ * IvParameterSpec; if none is given when encrypting, a random one is
+ * generated and can be read back with getIV().
+ * <br/>
+ * Array updates run straight through the mode's offset overloads, and
+ * heap ByteBuffers are unwrapped to their backing arrays, so no data is
+ * copied on the way in or out. Direct ByteBuffers are staged through one
+ * chunk buffer held by the instance. doFinal restarts the mode from the
+ * initial IV under the same key schedule.
+ */
+public abstract class CASTCipherSpi extends CipherSpi {
+
+    private static final int BLOCK_SIZE = CTRMode.BLOCK_SIZE;
+
+    // staging buffer for direct ByteBuffers, in whole blocks
+    private static final int CHUNK_SIZE = 512 * BLOCK_SIZE;
+
+    private final String modeName;
+    private final int ivSize;
+
+    // bytes the mode must be handed at a time; 1 for stream modes
+    private final int granularity;
+
+    private boolean encrypting;
+    private byte[] iv;
+    private byte[] pending;
+    private int pendingLength;
+    private byte[] chunk;
+
+    CASTCipherSpi(String modeName, int ivSize, int granularity) {
+        this.modeName = modeName;
+        this.ivSize = ivSize;
+        this.granularity = granularity;
+    }
+
+    /**
+     * Keys a fresh mode with the given IV.
+     */
+    abstract void start(byte[] key, byte[] iv);
+
+    /**
+     * Restarts the current mode from iv without rerunning the key schedule.
+     */
+    abstract void restart(byte[] iv);
+
+    /**
+     * Processes length bytes, a multiple of the granularity, in place.
+     */
+    abstract void cryptInPlace(byte[] data, int offset, int length, boolean encrypting);
+
+    /**
+     * Processes length bytes of input into output. Modes that only work in
+     * place copy the input over first; arraycopy copes with overlap.
+     */
+    void crypt(byte[] input, int inputOffset, int length, byte[] output, int outputOffset, boolean encrypting) {
+        if (input != output || inputOffset != outputOffset) {
+            System.arraycopy(input, inputOffset, output, outputOffset, length);
+        }
+        cryptInPlace(output, outputOffset, length, encrypting);
+    }
+
+    public static final class CTR extends CASTCipherSpi {
+        private final CTRMode mode = new CTRMode();
+
+        public CTR() {
+            super("CTR", CTRMode.NONCE_SIZE, 1);
+        }
+
+        @Override
+        void start(byte[] key, byte[] iv) {
+            mode.initialise(EngineRegistry.newCipher(), key, iv);
+        }
+
+        @Override
+        void restart(byte[] iv) {
+            mode.reset(iv);
+        }
+
+        @Override
+        void cryptInPlace(byte[] data, int offset, int length, boolean encrypting) {
+            mode.encrypt(data, offset, length, data, offset);
+        }
+
+        @Override
+        void crypt(byte[] input, int inputOffset, int length, byte[] output, int outputOffset, boolean encrypting) {
+            // the keystream is xored byte by byte from the front, so only a
+            // destination ahead of the source within the same array clashes
+            if (input == output && outputOffset > inputOffset && outputOffset < inputOffset + length) {
+                super.crypt(input, inputOffset, length, output, outputOffset, encrypting);
+            } else {
+                mode.encrypt(input, inputOffset, length, output, outputOffset);
+            }
+        }
+    }
+
+    public static final class CBC extends CASTCipherSpi {
+        private final CBCMode mode = new CBCMode();
+
+        public CBC() {
+            super("CBC", BLOCK_SIZE, BLOCK_SIZE);
+        }
+
+        @Override
+        void start(byte[] key, byte[] iv) {
+            mode.initialise(EngineRegistry.newCipher(), key, iv);
+        }
+
+        @Override
+        void restart(byte[] iv) {
+            mode.reset(iv);
+        }
+
+        @Override
+        void cryptInPlace(byte[] data, int offset, int length, boolean encrypting) {
+            if (encrypting) {
+                mode.encrypt(data, offset, length);
+            } else {
+                mode.decrypt(data, offset, length);
+            }
+        }
+    }
+
+    public static final class OFB extends CASTCipherSpi {
+        private final OFBMode mode = new OFBMode();
+
+        public OFB() {
+            super("OFB", BLOCK_SIZE, 1);
+        }
+
+        @Override
+        void start(byte[] key, byte[] iv) {
+            mode.initialise(EngineRegistry.newCipher(), key, iv);
+        }
+
+        @Override
+        void restart(byte[] iv) {
+            mode.reset(iv);
+        }
+
+        @Override
+        void cryptInPlace(byte[] data, int offset, int length, boolean encrypting) {
+            mode.encrypt(data, offset, length);
+        }
+    }
+
+    @Override
+    protected void engineSetMode(String mode) throws NoSuchAlgorithmException {
+        if (!modeName.equalsIgnoreCase(mode)) {
+            throw new NoSuchAlgorithmException("Unsupported mode " + mode + ", expected " + modeName);
+        }
+    }
+
+    @Override
+    protected void engineSetPadding(String padding) throws NoSuchPaddingException {
+        if (!"NoPadding".equalsIgnoreCase(padding)) {
+            throw new NoSuchPaddingException("Unsupported padding " + padding + ", only NoPadding is offered");
+        }
+    }
+
+    @Override
+    protected int engineGetBlockSize() {
+        return BLOCK_SIZE;
+    }
+
+    @Override
+    protected int engineGetOutputSize(int inputLen) {
+        return pendingLength + inputLen;
+    }
+
+    @Override
+    protected byte[] engineGetIV() {
+        return iv == null ? null : iv.clone();
+    }
+
+    @Override
+    protected AlgorithmParameters engineGetParameters() {
+        // the JDK has no generic IV parameters type; use getIV() instead
+        return null;
+    }
+
+    @Override
+    protected int engineGetKeySize(Key key) throws InvalidKeyException {
+        return rawKey(key).length * 8;
+    }
+
+    @Override
+    protected void engineInit(int opmode, Key key, SecureRandom random) throws InvalidKeyException {
+        try {
+            engineInit(opmode, key, (AlgorithmParameterSpec) null, random);
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new InvalidKeyException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void engineInit(int opmode, Key key, AlgorithmParameters params, SecureRandom random)
+            throws InvalidKeyException, InvalidAlgorithmParameterException {
+        AlgorithmParameterSpec spec = null;
+        if (params != null) {
+            try {
+                spec = params.getParameterSpec(IvParameterSpec.class);
+            } catch (InvalidParameterSpecException e) {
+                throw new InvalidAlgorithmParameterException("Expected IV parameters", e);
+            }
+        }
+        engineInit(opmode, key, spec, random);
+    }
+
+    @Override
+    protected void engineInit(int opmode, Key key, AlgorithmParameterSpec params, SecureRandom random)
+            throws InvalidKeyException, InvalidAlgorithmParameterException {
+        // key wrapping is not implemented, so WRAP_MODE and UNWRAP_MODE are
+        // refused here rather than failing later in wrap or unwrap
+        if (opmode != javax.crypto.Cipher.ENCRYPT_MODE && opmode != javax.crypto.Cipher.DECRYPT_MODE) {
+            throw new InvalidParameterException("Only ENCRYPT_MODE and DECRYPT_MODE are supported, got " + opmode);
+        }
+        byte[] raw = rawKey(key);
+        boolean encrypt = opmode == javax.crypto.Cipher.ENCRYPT_MODE;
+
+        byte[] newIv;
+        if (params == null) {
+            if (!encrypt) {
+                throw new InvalidKeyException("An IV is required for decryption");
+            }
+            newIv = new byte[ivSize];
+            (random == null ? new SecureRandom() : random).nextBytes(newIv);
+        } else if (params instanceof IvParameterSpec) {
+            newIv = ((IvParameterSpec) params).getIV();
+            if (newIv.length != ivSize) {
+                throw new InvalidAlgorithmParameterException(modeName + " IV must be " + ivSize
+                        + " bytes, got " + newIv.length);
+            }
+        } else {
+            throw new InvalidAlgorithmParameterException("Expected an IvParameterSpec, got "
+                    + params.getClass().getName());
+        }
+
+        this.encrypting = encrypt;
+        this.iv = newIv;
+        this.pendingLength = 0;
+        start(raw, newIv);
+    }
+
+    @Override
+    protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
+        byte[] output = new byte[updateOutputSize(inputLen)];
+        try {
+            engineUpdate(input, inputOffset, inputLen, output, 0);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e); // sized above
+        }
+        return output;
+    }
+
+    @Override
+    protected int engineUpdate(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+            throws ShortBufferException {
+        int produced = updateOutputSize(inputLen);
+        if (output.length - outputOffset < produced) {
+            throw new ShortBufferException("Need " + produced + " bytes of output space, have "
+                    + (output.length - outputOffset));
+        }
+
+        if (granularity == 1) {
+            crypt(input, inputOffset, inputLen, output, outputOffset, encrypting);
+            return inputLen;
+        }
+
+        // a held back block or a shifted destination would overwrite input
+        // not yet read, so work from a copy in that case
+        if (input == output && (pendingLength > 0 || inputOffset != outputOffset)
+                && outputOffset < inputOffset + inputLen && inputOffset < outputOffset + produced) {
+            input = Arrays.copyOfRange(input, inputOffset, inputOffset + inputLen);
+            inputOffset = 0;
+        }
+
+        int written = 0;
+
+        // complete the block held back from the last call
+        if (pendingLength > 0) {
+            int count = Math.min(granularity - pendingLength, inputLen);
+            System.arraycopy(input, inputOffset, pending, pendingLength, count);
+            pendingLength += count;
+            inputOffset += count;
+            inputLen -= count;
+
+            if (pendingLength < granularity) {
+                return 0;
+            }
+            crypt(pending, 0, granularity, output, outputOffset, encrypting);
+            pendingLength = 0;
+            written += granularity;
+        }
+
+        int whole = inputLen - inputLen % granularity;
+        crypt(input, inputOffset, whole, output, outputOffset + written, encrypting);
+        written += whole;
+
+        int rest = inputLen - whole;
+        if (rest > 0) {
+            if (pending == null) {
+                pending = new byte[granularity];
+            }
+            System.arraycopy(input, inputOffset + whole, pending, 0, rest);
+            pendingLength = rest;
+        }
+        return written;
+    }
+
+    @Override
+    protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen) throws IllegalBlockSizeException {
+        checkFinalLength(inputLen);
+        byte[] output = engineUpdate(input, inputOffset, inputLen);
+        finish();
+        return output;
+    }
+
+    @Override
+    protected int engineDoFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+            throws ShortBufferException, IllegalBlockSizeException {
+        checkFinalLength(inputLen);
+        int written = engineUpdate(input, inputOffset, inputLen, output, outputOffset);
+        finish();
+        return written;
+    }
+
+    @Override
+    protected int engineUpdate(ByteBuffer input, ByteBuffer output) throws ShortBufferException {
+        return cryptBuffers(input, output);
+    }
+
+    @Override
+    protected int engineDoFinal(ByteBuffer input, ByteBuffer output)
+            throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+        checkFinalLength(input.remaining());
+        int written = cryptBuffers(input, output);
+        finish();
+        return written;
+    }
+
+    private int cryptBuffers(ByteBuffer input, ByteBuffer output) throws ShortBufferException {
+        int inputLen = input.remaining();
+        int produced = updateOutputSize(inputLen);
+        if (output.remaining() < produced) {
+            throw new ShortBufferException("Need " + produced + " bytes of output space, have "
+                    + output.remaining());
+        }
+
+        if (input.hasArray() && output.hasArray() && !output.isReadOnly()) {
+            // heap buffers: run on the backing arrays directly
+            int written = engineUpdate(input.array(), input.arrayOffset() + input.position(), inputLen,
+                    output.array(), output.arrayOffset() + output.position());
+            input.position(input.limit());
+            output.position(output.position() + written);
+            return written;
+        }
+
+        if (chunk == null) {
+            chunk = new byte[CHUNK_SIZE];
+        }
+
+        int written = 0;
+        while (input.hasRemaining()) {
+            int count = Math.min(CHUNK_SIZE, input.remaining());
+            input.get(chunk, 0, count);
+            int n = engineUpdate(chunk, 0, count, chunk, 0);
+            output.put(chunk, 0, n);
+            written += n;
+        }
+        return written;
+    }
+
+    private int updateOutputSize(int inputLen) {
+        int total = pendingLength + inputLen;
+        return total - total % granularity;
+    }
+
+    /**
+     * Ends the message, restarting the mode from the initial IV.
+     */
+    private void finish() {
+        pendingLength = 0;
+        restart(iv);
+    }
+
+    private void checkFinalLength(int inputLen) throws IllegalBlockSizeException {
+        int leftover = (pendingLength + inputLen) % granularity;
+        if (leftover != 0) {
+            finish();
+            throw new IllegalBlockSizeException(modeName + " input must be a multiple of "
+                    + granularity + " bytes; " + leftover + " bytes left over");
+        }
+    }
+
+    private static byte[] rawKey(Key key) throws InvalidKeyException {
+        if (key == null || !"RAW".equalsIgnoreCase(key.getFormat()) || key.getEncoded() == null) {
+            throw new InvalidKeyException("Expected a raw secret key");
+        }
+
+        byte[] raw = key.getEncoded();
+        if (raw.length != 16 && raw.length != 24 && raw.length != 32 && raw.length != 48) {
+            throw new InvalidKeyException("CAST-384 keys must be 16, 24, 32 or 48 bytes, got " + raw.length);
+        }
+        return raw;
+    }
+}
@@ -0,0 +1,47 @@
+package uk.ac.nottingham.cryptography;
+
+/**
+ * Service interface for an implementation of the CAST-384 block function,
+ * discovered through ServiceLoader and chosen between by EngineRegistry.
+ * Every engine must give the same output as CAST384; they differ only in
+ * how they get there, and so in how fast they run on a given CPU.
+ * <br/>
+ * Implementations are listed in
+ * META-INF/services/uk.ac.nottingham.cryptography.CASTEngine and need a
+ * public no-argument constructor.
+ */
+public interface CASTEngine {
+
+    /**
+     * Short name of the engine, as given to the engine system property.
+     */
+    String getName();
+
+    /**
+     * Number of blocks the engine's bulk path works on at once.
+     */
+    int getLanes();
+
+    /**
+     * Whether the engine can run on this JVM and CPU. Unsupported engines
+     * are skipped without being calibrated.
+     */
+    default boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * Whether EngineRegistry may choose this engine by itself. Engines that
+     * cannot be expected to win, such as the reference engine, return
+     * false: they are still checked and can be named through the engine
+     * property, but are not timed against the others.
+     */
+    default boolean isCandidate() {
+        return true;
+    }
+
+    /**
+     * Returns a new, uninitialised cipher backed by this engine.
+     */
+    CAST384 newCipher();
+}
@@ -0,0 +1,133 @@
+package uk.ac.nottingham.cryptography;
+
+/**
+ * The CASTEngine implementations shipped with this library.
+ */
+public final class CASTEngines {
+
+    private CASTEngines() {
+    }
+
+    /**
+     * One block at a time through hexad and hexadInv, as the algorithm is
+     * specified. Slower than the interleaved engine, but the simplest to
+     * check against the specification, so it is only used when named.
+     */
+    public static final class Reference implements CASTEngine {
+
+        @Override
+        public String getName() {
+            return "reference";
+        }
+
+        @Override
+        public boolean isCandidate() {
+            return false;
+        }
+
+        @Override
+        public int getLanes() {
+            return 1;
+        }
+
+        @Override
+        public CAST384 newCipher() {
+            return new ReferenceCAST384();
+        }
+    }
+
+    /**
+     * CAST384's own bulk path, with the rounds of two blocks interleaved.
+     */
+    public static final class Interleaved implements CASTEngine {
+
+        @Override
+        public String getName() {
+            return "interleaved";
+        }
+
+        @Override
+        public int getLanes() {
+            return 2;
+        }
+
+        @Override
+        public CAST384 newCipher() {
+            return new CAST384();
+        }
+    }
+
+    static final class ReferenceCAST384 extends CAST384 {
+
+        // sessions share one cipher between threads through the bulk path,
+        // so that takes a working block per thread
+        private static final ThreadLocal<int[]> BULK_BLOCK = ThreadLocal.withInitial(() -> new int[6]);
+
+        // working block for single-block calls; like a mode, those are for
+        // one thread at a time
+        private final int[] block = new int[6];
+
+        @Override
+        public void encrypt(byte[] data) {
+            crypt(data, 0, block, true);
+        }
+
+        @Override
+        public void decrypt(byte[] data) {
+            crypt(data, 0, block, false);
+        }
+
+        @Override
+        public void encryptBlocks(byte[] data, int offset, int blockCount) {
+            int[] block = BULK_BLOCK.get();
+            for (int i = 0; i < blockCount; i++) {
+                crypt(data, offset + i * 24, block, true);
+            }
+        }
+
+        @Override
+        public void decryptBlocks(byte[] data, int offset, int blockCount) {
+            int[] block = BULK_BLOCK.get();
+            for (int i = 0; i < blockCount; i++) {
+                crypt(data, offset + i * 24, block, false);
+            }
+        }
+
+        private void crypt(byte[] data, int offset, int[] block, boolean encrypting) {
+            int[] Km = K.getM();
+            int[] Kr = K.getR();
+
+            for (int i = 0; i < 6; i++) {
+                int index = offset + i * 4;
+                block[i] = ((data[index] & 0xFF) << 24) | ((data[index + 1] & 0xFF) << 16)
+                        | ((data[index + 2] & 0xFF) << 8) | (data[index + 3] & 0xFF);
+            }
+
+            // encryption runs rounds 0..5 forward and 6..11 inverse;
+            // decryption undoes them in the opposite order
+            if (encrypting) {
+                for (int round = 0; round < 6; round++) {
+                    hexad(block, Km, Kr, round * 6);
+                }
+                for (int round = 6; round < 12; round++) {
+                    hexadInv(block, Km, Kr, round * 6);
+                }
+            } else {
+                for (int round = 11; round >= 6; round--) {
+                    hexad(block, Km, Kr, round * 6);
+                }
+                for (int round = 5; round >= 0; round--) {
+                    hexadInv(block, Km, Kr, round * 6);
+                }
+            }
+
+            for (int i = 0; i < 6; i++) {
+                int index = offset + i * 4;
+                data[index]     = (byte) (block[i] >>> 24);
+                data[index + 1] = (byte) (block[i] >>> 16);
+                data[index + 2] = (byte) (block[i] >>> 8);
+                data[index + 3] = (byte) block[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package uk.ac.nottingham.cryptography;
+
+import java.security.Provider;
+
+/**
+ * JCA provider for the CAST-384 modes and the CAST-384 CTR-DRBG, e.g.
+ * <pre>
+ *     Security.addProvider(new CASTProvider());
+ *     Cipher c = Cipher.getInstance("CAST384/CTR/NoPadding", "CAST");
+ * </pre>
+ * The authenticated and XTS modes are not registered, since their tag
+ * and sector APIs do not map onto a streaming CipherSpi.
+ */
+public class CASTProvider extends Provider {
+
+    public static final String NAME = "CAST";
+
+    public CASTProvider() {
+        super(NAME, "1.0", "CAST-384 block cipher modes and CTR-DRBG");
+
+        put("Cipher.CAST384/CTR/NoPadding", CASTCipherSpi.CTR.class.getName());
+        put("Cipher.CAST384/CBC/NoPadding", CASTCipherSpi.CBC.class.getName());
+        put("Cipher.CAST384/OFB/NoPadding", CASTCipherSpi.OFB.class.getName());
+
+        put("SecureRandom.CAST384-CTR-DRBG", CTRDRBGSpi.class.getName());
+        put("SecureRandom.CAST384-CTR-DRBG ThreadSafe", "true");
+    }
+}
@@ -0,0 +1,228 @@
+package uk.ac.nottingham.cryptography;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Implementation of CipherMode that performs encryption and decryption
+ * using Cipher Block Chaining (CBC) with an underlying Cipher. The nonce
+ * passed to initialise is the IV and must be one block long. Data must be
+ * a whole number of blocks; no padding is applied.
+ * <br/>
+ * Chaining carries over between calls, so a message may be processed in
+ * several pieces. Encryption is inherently sequential. Decryption of each
+ * block only needs that block and the ciphertext before it, so large
+ * inputs are decrypted through the cipher's multi-block path and split
+ * across a ForkJoinPool.
+ */
+public class CBCMode extends CipherMode {
+
+    private static final int BLOCK_SIZE = 24;
+
+    // blocks handed to the cipher in one bulk call
+    private static final int SCRATCH_BLOCKS = 64;
+
+    // inputs of at least this many blocks are decrypted in parallel
+    private static final int PARALLEL_THRESHOLD_BLOCKS = 4096;
+
+    // largest range of blocks decrypted by a single parallel task
+    private static final int PARALLEL_CHUNK_BLOCKS = 1024;
+
+    private final ForkJoinPool pool;
+
+    private Cipher cipher;
+    private final byte[] chain = new byte[BLOCK_SIZE];
+    private final byte[] scratch = new byte[SCRATCH_BLOCKS * BLOCK_SIZE];
+
+    public CBCMode() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public CBCMode(ForkJoinPool pool) {
+        super();
+        this.pool = pool;
+    }
+
+    @Override
+    public void initialise(Cipher cipher, byte[] key, byte[] nonce) {
+        if (nonce.length != BLOCK_SIZE) {
+            throw new IllegalArgumentException("CBC IV must be " + BLOCK_SIZE + " bytes, got " + nonce.length);
+        }
+
+        // store cipher and IV
+        this.cipher = cipher;
+        System.arraycopy(nonce, 0, chain, 0, BLOCK_SIZE);
+
+        // initialise block cipher with key
+        cipher.initialise(key);
+    }
+
+    /**
+     * Restarts chaining from a new IV under the key already set by
+     * initialise, without rerunning the key schedule.
+     */
+    public void reset(byte[] iv) {
+        if (cipher == null) {
+            throw new IllegalStateException("CBCMode must be initialised before reset");
+        }
+        if (iv.length != BLOCK_SIZE) {
+            throw new IllegalArgumentException("CBC IV must be " + BLOCK_SIZE + " bytes, got " + iv.length);
+        }
+        System.arraycopy(iv, 0, chain, 0, BLOCK_SIZE);
+    }
+
+    @Override
+    public void encrypt(byte[] data) {
+        encrypt(data, 0, data.length);
+    }
+
+    /**
+     * Encrypts length bytes of data in place, starting at offset.
+     */
+    public void encrypt(byte[] data, int start, int length) {
+        checkLength(length);
+
+        for (int offset = start; offset < start + length; offset += BLOCK_SIZE) {
+            // xor the previous ciphertext block in, then encrypt in place
+            for (int j = 0; j < BLOCK_SIZE; j++) {
+                data[offset + j] ^= chain[j];
+            }
+            encryptBlock(data, offset);
+            System.arraycopy(data, offset, chain, 0, BLOCK_SIZE);
+        }
+    }
+
+    @Override
+    public void decrypt(byte[] data) {
+        decrypt(data, 0, data.length);
+    }
+
+    /**
+     * Decrypts length bytes of data in place, starting at offset.
+     */
+    public void decrypt(byte[] data, int offset, int length) {
+        checkLength(length);
+
+        int blockCount = length / BLOCK_SIZE;
+        if (blockCount == 0) {
+            return;
+        }
+
+        // the last ciphertext block chains into the next call
+        byte[] previous = chain.clone();
+        System.arraycopy(data, offset + length - BLOCK_SIZE, chain, 0, BLOCK_SIZE);
+
+        if (blockCount >= PARALLEL_THRESHOLD_BLOCKS && cipher instanceof MultiBlockCipher) {
+            pool.invoke(new DecryptTask(data, offset, 0, blockCount, previous));
+        } else {
+            decryptRange(data, offset, 0, blockCount, previous, scratch);
+        }
+    }
+
+    @Override
+    public void seek(byte[] counter) {
+        throw new UnsupportedOperationException("CBC mode does not support seeking");
+    }
+
+    /**
+     * Decrypts blocks [first, first + count) of the data starting at base,
+     * in place. previous is the ciphertext block before the range. The
+     * range is handled from the end backwards, so the ciphertext each block
+     * chains from is still in data when that block is written.
+     */
+    private void decryptRange(byte[] data, int base, int first, int count, byte[] previous, byte[] buffer) {
+        int end = first + count;
+
+        while (end > first) {
+            int start = Math.max(first, end - SCRATCH_BLOCKS);
+            int blocks = end - start;
+
+            System.arraycopy(data, base + start * BLOCK_SIZE, buffer, 0, blocks * BLOCK_SIZE);
+            decryptBlocks(buffer, blocks);
+
+            for (int block = end - 1; block >= start; block--) {
+                int offset = base + block * BLOCK_SIZE;
+                int bufferOffset = (block - start) * BLOCK_SIZE;
+
+                if (block == first) {
+                    for (int j = 0; j < BLOCK_SIZE; j++) {
+                        data[offset + j] = (byte) (buffer[bufferOffset + j] ^ previous[j]);
+                    }
+                } else {
+                    for (int j = 0; j < BLOCK_SIZE; j++) {
+                        data[offset + j] = (byte) (buffer[bufferOffset + j] ^ data[offset - BLOCK_SIZE + j]);
+                    }
+                }
+            }
+
+            end = start;
+        }
+    }
+
+    private final class DecryptTask extends RecursiveAction {
+        private final byte[] data;
+        private final int base;
+        private final int first;
+        private final int count;
+        private final byte[] previous;
+
+        DecryptTask(byte[] data, int base, int first, int count, byte[] previous) {
+            this.data = data;
+            this.base = base;
+            this.first = first;
+            this.count = count;
+            this.previous = previous;
+        }
+
+        @Override
+        protected void compute() {
+            if (count <= PARALLEL_CHUNK_BLOCKS) {
+                decryptRange(data, base, first, count, previous, new byte[SCRATCH_BLOCKS * BLOCK_SIZE]);
+                return;
+            }
+
+            // capture the ciphertext the right half chains from before
+            // either half starts writing plaintext
+            int half = count / 2;
+            byte[] middle = new byte[BLOCK_SIZE];
+            System.arraycopy(data, base + (first + half - 1) * BLOCK_SIZE, middle, 0, BLOCK_SIZE);
+
+            invokeAll(new DecryptTask(data, base, first, half, previous),
+                    new DecryptTask(data, base, first + half, count - half, middle));
+        }
+    }
+
+    private void encryptBlock(byte[] data, int offset) {
+        if (cipher instanceof MultiBlockCipher) {
+            ((MultiBlockCipher) cipher).encryptBlocks(data, offset, 1);
+            return;
+        }
+
+        byte[] block = new byte[BLOCK_SIZE];
+        System.arraycopy(data, offset, block, 0, BLOCK_SIZE);
+        cipher.encrypt(block);
+        System.arraycopy(block, 0, data, offset, BLOCK_SIZE);
+    }
+
+    private void decryptBlocks(byte[] buffer, int blockCount) {
+        if (cipher instanceof MultiBlockCipher) {
+            ((MultiBlockCipher) cipher).decryptBlocks(buffer, 0, blockCount);
+            return;
+        }
+
+        // block-at-a-time fallback for ciphers without a bulk path
+        byte[] block = new byte[BLOCK_SIZE];
+        for (int i = 0; i < blockCount; i++) {
+            System.arraycopy(buffer, i * BLOCK_SIZE, block, 0, BLOCK_SIZE);
+            cipher.decrypt(block);
+            System.arraycopy(block, 0, buffer, i * BLOCK_SIZE, BLOCK_SIZE);
+        }
+    }
+
+    private static void checkLength(int length) {
+        if (length % BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException("CBC data must be a multiple of " + BLOCK_SIZE
+                    + " bytes, got " + length);
+        }
+    }
+}
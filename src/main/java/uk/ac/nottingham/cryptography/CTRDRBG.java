@@ -0,0 +1,207 @@
+package uk.ac.nottingham.cryptography;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * Deterministic random bit generator in the style of CTR_DRBG, producing
+ * the CAST-384 counter mode keystream for a key and nonce taken from its
+ * seed. After every rekey interval the generator draws a fresh key and
+ * nonce from its own output and discards the old ones, so earlier output
+ * cannot be reconstructed from a later state.
+ * <br/>
+ * Bulk nextBytes calls write counter blocks straight into the caller's
+ * array and encrypt them in place through the multi-block path; smaller
+ * draws are served from an internal buffer. The output is one continuous
+ * stream however it is drawn, so a seed always gives the same bytes.
+ * <br/>
+ * Instances are not thread-safe. current() gives each thread its own
+ * generator seeded from the system SecureRandom, and secureRandom() wraps
+ * those per-thread generators in a java.security.SecureRandom.
+ */
+public class CTRDRBG implements RandomGenerator {
+
+    public static final int SEED_SIZE = 64;
+    public static final long DEFAULT_REKEY_INTERVAL = 1 << 20;
+
+    private static final int BLOCK_SIZE = CTRMode.BLOCK_SIZE;
+    private static final int KEY_SIZE = 48;
+    private static final int NONCE_SIZE = CTRMode.NONCE_SIZE;
+
+    // blocks generated per refill of the internal buffer
+    private static final int BUFFER_BLOCKS = 64;
+
+    private static final SecureRandom ENTROPY = new SecureRandom();
+    private static final ThreadLocal<CTRDRBG> CURRENT = ThreadLocal.withInitial(CTRDRBG::fromEntropy);
+
+    private final CAST384 cipher = new CAST384();
+    private final byte[] nonce = new byte[NONCE_SIZE];
+    private long counter;
+
+    private final long rekeyBlocks;
+    private long blocksSinceRekey;
+
+    private final byte[] buffer = new byte[BUFFER_BLOCKS * BLOCK_SIZE];
+    private int bufferIndex;
+    private int bufferLength;
+
+    public CTRDRBG(byte[] seed) {
+        this(seed, DEFAULT_REKEY_INTERVAL);
+    }
+
+    /**
+     * Creates a generator from a SEED_SIZE byte seed that rekeys itself
+     * after every rekeyInterval bytes of output, rounded up to whole blocks.
+     */
+    public CTRDRBG(byte[] seed, long rekeyInterval) {
+        if (seed.length != SEED_SIZE) {
+            throw new IllegalArgumentException("Seed must be " + SEED_SIZE + " bytes, got " + seed.length);
+        }
+        if (rekeyInterval < 1) {
+            throw new IllegalArgumentException("Rekey interval must be positive: " + rekeyInterval);
+        }
+
+        this.rekeyBlocks = (rekeyInterval + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        // applySeed wipes what it is given, and the caller's seed is not ours to wipe
+        applySeed(seed.clone());
+    }
+
+    /**
+     * Creates a generator seeded from the system SecureRandom.
+     */
+    public static CTRDRBG fromEntropy() {
+        return new CTRDRBG(entropy(SEED_SIZE));
+    }
+
+    /**
+     * Returns this thread's generator, creating it on first use.
+     */
+    public static CTRDRBG current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Returns a SecureRandom that draws from the calling thread's generator.
+     */
+    public static SecureRandom secureRandom() {
+        return new SecureRandom(new CTRDRBGSpi(), null) {
+            @Override
+            public void nextBytes(byte[] bytes) {
+                // the per-thread generators need no lock, so skip the one
+                // SecureRandom takes around providers not marked thread-safe
+                current().nextBytes(bytes);
+            }
+        };
+    }
+
+    /**
+     * Mixes additional input into the state and rekeys immediately.
+     */
+    public void reseed(byte[] additional) {
+        byte[] seed = new byte[SEED_SIZE];
+        nextBytes(seed);
+        for (int i = 0; i < additional.length; i++) {
+            seed[i % SEED_SIZE] ^= additional[i];
+        }
+        applySeed(seed);
+    }
+
+    @Override
+    public void nextBytes(byte[] bytes) {
+        int i = Math.min(bufferLength - bufferIndex, bytes.length);
+        System.arraycopy(buffer, bufferIndex, bytes, 0, i);
+        bufferIndex += i;
+
+        // whole blocks go straight into the caller's array
+        while (bytes.length - i >= BLOCK_SIZE) {
+            int blocks = generate(bytes, i, (bytes.length - i) / BLOCK_SIZE);
+            i += blocks * BLOCK_SIZE;
+        }
+
+        if (i < bytes.length) {
+            refill();
+            int rest = bytes.length - i;
+            System.arraycopy(buffer, 0, bytes, i, rest);
+            bufferIndex = rest;
+        }
+    }
+
+    @Override
+    public long nextLong() {
+        if (bufferLength - bufferIndex < 8) {
+            // keep the stream continuous across the refill
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                if (bufferIndex == bufferLength) {
+                    refill();
+                }
+                value = (value << 8) | (buffer[bufferIndex++] & 0xFF);
+            }
+            return value;
+        }
+
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (buffer[bufferIndex + i] & 0xFF);
+        }
+        bufferIndex += 8;
+        return value;
+    }
+
+    private void refill() {
+        bufferLength = generate(buffer, 0, BUFFER_BLOCKS) * BLOCK_SIZE;
+        bufferIndex = 0;
+    }
+
+    /**
+     * Writes up to maxBlocks keystream blocks into dest at offset, stopping
+     * early at a rekey point, and returns how many were written.
+     */
+    private int generate(byte[] dest, int offset, int maxBlocks) {
+        if (blocksSinceRekey == rekeyBlocks) {
+            rekey();
+        }
+
+        int blocks = (int) Math.min(maxBlocks, rekeyBlocks - blocksSinceRekey);
+        for (int b = 0; b < blocks; b++) {
+            CTRMode.writeCounterBlock(dest, offset + b * BLOCK_SIZE, nonce, counter++);
+        }
+        cipher.encryptBlocks(dest, offset, blocks);
+        blocksSinceRekey += blocks;
+        return blocks;
+    }
+
+    private void rekey() {
+        // next key and nonce come from the keystream under the old ones
+        byte[] seed = new byte[3 * BLOCK_SIZE];
+        for (int b = 0; b < 3; b++) {
+            CTRMode.writeCounterBlock(seed, b * BLOCK_SIZE, nonce, counter++);
+        }
+        cipher.encryptBlocks(seed, 0, 3);
+        applySeed(seed);
+    }
+
+    /**
+     * Takes the key and nonce from seed, then wipes it. Only ever given
+     * buffers owned by this generator.
+     */
+    private void applySeed(byte[] seed) {
+        byte[] key = Arrays.copyOf(seed, KEY_SIZE);
+        cipher.initialise(key);
+        System.arraycopy(seed, KEY_SIZE, nonce, 0, NONCE_SIZE);
+        Arrays.fill(key, (byte) 0);
+        Arrays.fill(seed, (byte) 0);
+
+        counter = 0;
+        blocksSinceRekey = 0;
+        bufferIndex = 0;
+        bufferLength = 0;
+    }
+
+    static byte[] entropy(int length) {
+        byte[] seed = new byte[length];
+        ENTROPY.nextBytes(seed);
+        return seed;
+    }
+}
@@ -0,0 +1,30 @@
+package uk.ac.nottingham.cryptography;
+
+import java.security.SecureRandomSpi;
+
+/**
+ * SecureRandomSpi backed by the calling thread's CTRDRBG, so one
+ * SecureRandom can be shared between threads without lock contention.
+ * Seeds passed to setSeed are mixed into the calling thread's generator.
+ */
+public class CTRDRBGSpi extends SecureRandomSpi {
+
+    public CTRDRBGSpi() {
+        super();
+    }
+
+    @Override
+    protected void engineSetSeed(byte[] seed) {
+        CTRDRBG.current().reseed(seed);
+    }
+
+    @Override
+    protected void engineNextBytes(byte[] bytes) {
+        CTRDRBG.current().nextBytes(bytes);
+    }
+
+    @Override
+    protected byte[] engineGenerateSeed(int numBytes) {
+        return CTRDRBG.entropy(numBytes);
+    }
+}
@@ -9,11 +9,20 @@ package uk.ac.nottingham.cryptography;
  */
 public class CTRMode extends CipherMode {
 
+    static final int BLOCK_SIZE = 24;
+    static final int NONCE_SIZE = 16;
+
+    // number of counter blocks handed to the cipher in one bulk call
+    private static final int BATCH_BLOCKS = 64;
+
     private Cipher cipher;
     private byte[] nonce;
     private long counter;
-    private byte[] keystream = new byte[24];
-    private int keystreamIndex = 24;
+    private byte[] keystream = new byte[BLOCK_SIZE];
+    private int keystreamIndex = BLOCK_SIZE;
+    private byte[] bulkBuffer;
+    private KeystreamCache cache;
+    private long cacheKeyId;
 
     public CTRMode() {
         super();
@@ -21,36 +30,117 @@ public class CTRMode extends CipherMode {
 
     @Override
     public void initialise(Cipher cipher, byte[] key, byte[] nonce) {
+        CTRSeekEvent event = EventGate.ctrSeek();
+
         // store cipher and nonce, reset counter ad keystream
         this.cipher = cipher;
         this.nonce = nonce.clone();
         this.counter = 0;
-        this.keystreamIndex = 24;
+        this.keystreamIndex = BLOCK_SIZE;
+
+        // a new key invalidates any cache binding made for the old one
+        this.cache = null;
 
         // initialise block cipher with key
         cipher.initialise(key);
+
+        commitSeek(event, "initialise");
+    }
+
+    /**
+     * Switches to a new nonce under the key already set by initialise,
+     * without rerunning the key schedule. The counter and keystream are
+     * reset as in initialise, and any keystream cache binding is kept.
+     * Nothing is allocated when the nonce has the same length as before.
+     */
+    public void reset(byte[] nonce) {
+        if (cipher == null) {
+            throw new IllegalStateException("CTRMode must be initialised before reset");
+        }
+        CTRSeekEvent event = EventGate.ctrSeek();
+
+        if (this.nonce.length == nonce.length) {
+            System.arraycopy(nonce, 0, this.nonce, 0, nonce.length);
+        } else {
+            this.nonce = nonce.clone();
+        }
+        this.counter = 0;
+        this.keystreamIndex = BLOCK_SIZE;
+
+        commitSeek(event, "reset");
+    }
+
+    /**
+     * Binds a keystream cache to this mode for the current key. Keystream
+     * blocks are looked up in the cache before the cipher is called, and
+     * stored there after. keyId must identify the key this mode was last
+     * initialised with; the binding is dropped on the next initialise, so
+     * call this again after every rekey. Pass null to detach.
+     */
+    public void setKeystreamCache(KeystreamCache cache, long keyId) {
+        this.cache = cache;
+        this.cacheKeyId = keyId;
     }
 
     @Override
     public void encrypt(byte[] data) {
-        for (int i = 0; i < data.length; i++) {
-            if (keystreamIndex == 24) {
-                byte[] inputBlock = new byte[24]; // generate new block
-                System.arraycopy(nonce, 0, inputBlock, 0, 16); // copy nonce into first part of block
-
-                // append 8-byte counter
-                for (int j = 0; j < 8; j++) {
-                    inputBlock[16 + j] = (byte) ((counter >>> (56 - 8 * j)) & 0xFF);
+        encrypt(data, 0, data.length, data, 0);
+    }
+
+    /**
+     * Encrypts length bytes of input, starting at inputOffset, into output
+     * at outputOffset. input and output may be the same array at the same
+     * offset. Whole blocks between the partial ones at either end are
+     * generated in bulk through the cipher's multi-block path; with a
+     * keystream cache bound, runs of cached blocks are copied from it and
+     * only the runs missing from it are generated.
+     */
+    public void encrypt(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) {
+        int i = 0;
+
+        // finish the keystream block left over from the last call
+        while (i < length && keystreamIndex < BLOCK_SIZE) {
+            output[outputOffset + i] = (byte) (input[inputOffset + i] ^ keystream[keystreamIndex++]);
+            i++;
+        }
+
+        if (length - i >= BLOCK_SIZE) {
+            if (bulkBuffer == null) {
+                bulkBuffer = new byte[BATCH_BLOCKS * BLOCK_SIZE];
+            }
+
+            while (length - i >= BLOCK_SIZE) {
+                int blockCount = Math.min(BATCH_BLOCKS, (length - i) / BLOCK_SIZE);
+                if (cache == null) {
+                    generateBlocks(counter, blockCount);
+                } else {
+                    // one lock per run of cached or missing blocks, and the
+                    // missing ones still go through the bulk path
+                    int run = cache.lookupRun(cacheKeyId, nonce, counter, blockCount, bulkBuffer, 0);
+                    if (run < 0) {
+                        blockCount = -run;
+                        generateBlocks(counter, blockCount);
+                        cache.putRun(cacheKeyId, nonce, counter, blockCount, bulkBuffer, 0);
+                    } else {
+                        blockCount = run;
+                    }
                 }
+                counter += blockCount;
 
+                int count = blockCount * BLOCK_SIZE;
+                for (int j = 0; j < count; j++) {
+                    output[outputOffset + i + j] = (byte) (input[inputOffset + i + j] ^ bulkBuffer[j]);
+                }
+                i += count;
+            }
+        }
 
-                cipher.encrypt(inputBlock);
-                System.arraycopy(inputBlock, 0, keystream, 0, 24);
-                keystreamIndex = 0;
-                counter++;
+        for (; i < length; i++) {
+            if (keystreamIndex == BLOCK_SIZE) {
+                refillKeystream();
             }
 
-            data[i] ^= keystream[keystreamIndex++];
+            output[outputOffset + i] = (byte) (input[inputOffset + i] ^ keystream[keystreamIndex++]);
         }
     }
 
@@ -59,9 +149,80 @@ public class CTRMode extends CipherMode {
         encrypt(data); // same as enctryption
     }
 
+    public void decrypt(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) {
+        encrypt(input, inputOffset, length, output, outputOffset); // same as encryption
+    }
+
+    /**
+     * Encrypts a batch of independent messages under the key this mode was
+     * last initialised with. Message i is encrypted in place with nonces[i],
+     * starting from counter zero, exactly as if the mode had been
+     * initialised with that nonce. The stream position of this mode is
+     * left untouched.
+     * <br/>
+     * Counter blocks from consecutive messages are packed together, so short
+     * messages share the cipher's multi-block path instead of paying a
+     * separate call each.
+     */
+    public void encryptBatch(byte[][] nonces, byte[][] data) {
+        if (nonces.length != data.length) {
+            throw new IllegalArgumentException("Expected one nonce per message, got "
+                    + nonces.length + " nonces for " + data.length + " messages");
+        }
+
+        if (bulkBuffer == null) {
+            bulkBuffer = new byte[BATCH_BLOCKS * BLOCK_SIZE];
+        }
+
+        int message = 0;
+        long block = 0;
+
+        while (message < data.length) {
+            int firstMessage = message;
+            long firstBlock = block;
+            int blockCount = 0;
+
+            // fill the buffer with counter blocks, moving on to the next
+            // message whenever the current one is covered
+            while (blockCount < BATCH_BLOCKS && message < data.length) {
+                if (block * BLOCK_SIZE >= data[message].length) {
+                    message++;
+                    block = 0;
+                    continue;
+                }
+                writeCounterBlock(bulkBuffer, blockCount * BLOCK_SIZE, nonces[message], block);
+                block++;
+                blockCount++;
+            }
+
+            encryptBlocks(bulkBuffer, blockCount);
+
+            // walk the same sequence again and xor the keystream into place
+            int m = firstMessage;
+            long b = firstBlock;
+            for (int i = 0; i < blockCount; i++, b++) {
+                while (b * BLOCK_SIZE >= data[m].length) {
+                    m++;
+                    b = 0;
+                }
+                int start = (int) (b * BLOCK_SIZE);
+                int length = Math.min(BLOCK_SIZE, data[m].length - start);
+                int keystreamOffset = i * BLOCK_SIZE;
+                for (int j = 0; j < length; j++) {
+                    data[m][start + j] ^= bulkBuffer[keystreamOffset + j];
+                }
+            }
+        }
+    }
+
+    public void decryptBatch(byte[][] nonces, byte[][] data) {
+        encryptBatch(nonces, data); // same as encryption
+    }
 
     @Override
     public void seek(byte[] counter) {
+        CTRSeekEvent event = EventGate.ctrSeek();
+
         long value = 0; // set internal counter
         int padding = 8 - counter.length;
 
@@ -75,6 +236,256 @@ public class CTRMode extends CipherMode {
         }
 
         this.counter = value;
-        this.keystreamIndex = 24;
+        this.keystreamIndex = BLOCK_SIZE;
+
+        commitSeek(event, "seek");
+    }
+
+    /**
+     * Returns a thread-safe session over the current key and nonce, sharing
+     * the key schedule by reference.
+     */
+    public CTRSession session() {
+        if (cipher == null) {
+            throw new IllegalStateException("CTRMode must be initialised before session");
+        }
+
+        return new CTRSession(shareKeySchedule(cipher), nonce);
+    }
+
+    /**
+     * Captures the current stream position as an immutable State. The key
+     * schedule is shared by reference rather than copied, so taking a
+     * snapshot costs a few small array copies.
+     */
+    public State snapshot() {
+        if (cipher == null) {
+            throw new IllegalStateException("CTRMode must be initialised before snapshot");
+        }
+
+        return new State(shareKeySchedule(cipher), nonce, counter, keystream, keystreamIndex);
+    }
+
+    /**
+     * Moves this mode to the position captured in state, using the key
+     * schedule the state was taken with.
+     */
+    public void restore(State state) {
+        CTRSeekEvent event = EventGate.ctrSeek();
+
+        if (!sameKeySchedule(this.cipher, state.cipher)) {
+            this.cache = null;
+        }
+
+        this.cipher = state.cipher;
+        this.nonce = state.nonce.clone();
+        this.counter = state.counter;
+        System.arraycopy(state.keystream, 0, keystream, 0, BLOCK_SIZE);
+        this.keystreamIndex = state.keystreamIndex;
+
+        commitSeek(event, "restore");
+    }
+
+    /**
+     * Returns an independent mode at the same stream position. The fork
+     * shares the key schedule and keystream cache binding, but advancing
+     * or re-initialising either mode leaves the other untouched.
+     */
+    public CTRMode fork() {
+        CTRMode fork = new CTRMode();
+        fork.restore(snapshot());
+        fork.setKeystreamCache(cache, cacheKeyId);
+        return fork;
+    }
+
+    /**
+     * Immutable snapshot of a CTRMode stream position.
+     */
+    public static final class State {
+        private static final byte FORMAT_VERSION = 1;
+
+        private final Cipher cipher;
+        private final byte[] nonce;
+        private final long counter;
+        private final byte[] keystream;
+        private final int keystreamIndex;
+
+        private State(Cipher cipher, byte[] nonce, long counter, byte[] keystream, int keystreamIndex) {
+            this.cipher = cipher;
+            this.nonce = nonce.clone();
+            this.counter = counter;
+            this.keystream = keystream.clone();
+            this.keystreamIndex = keystreamIndex;
+        }
+
+        public byte[] getNonce() {
+            return nonce.clone();
+        }
+
+        /**
+         * Counter of the next keystream block to be generated.
+         */
+        public long getCounter() {
+            return counter;
+        }
+
+        public int getKeystreamIndex() {
+            return keystreamIndex;
+        }
+
+        /**
+         * Serialises the position as version, nonce length, nonce, counter
+         * and keystream index. Neither the key nor any keystream is written;
+         * fromBytes regenerates the partial block from the counter.
+         */
+        public byte[] toBytes() {
+            byte[] out = new byte[2 + nonce.length + 8 + 1];
+            out[0] = FORMAT_VERSION;
+            out[1] = (byte) nonce.length;
+            System.arraycopy(nonce, 0, out, 2, nonce.length);
+
+            int offset = 2 + nonce.length;
+            for (int j = 0; j < 8; j++) {
+                out[offset + j] = (byte) ((counter >>> (56 - 8 * j)) & 0xFF);
+            }
+            out[offset + 8] = (byte) keystreamIndex;
+            return out;
+        }
+
+        /**
+         * Rebuilds a State written by toBytes. The cipher must already be
+         * initialised with the key of the original stream.
+         */
+        public static State fromBytes(Cipher cipher, byte[] bytes) {
+            if (bytes.length < 2 || bytes[0] != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported CTRMode state format");
+            }
+
+            int nonceLength = bytes[1] & 0xFF;
+            if (nonceLength < NONCE_SIZE || bytes.length != 2 + nonceLength + 8 + 1) {
+                throw new IllegalArgumentException("Malformed CTRMode state of " + bytes.length + " bytes");
+            }
+
+            byte[] nonce = new byte[nonceLength];
+            System.arraycopy(bytes, 2, nonce, 0, nonceLength);
+
+            int offset = 2 + nonceLength;
+            long counter = 0;
+            for (int j = 0; j < 8; j++) {
+                counter = (counter << 8) | (bytes[offset + j] & 0xFF);
+            }
+
+            int keystreamIndex = bytes[offset + 8] & 0xFF;
+            if (keystreamIndex > BLOCK_SIZE) {
+                throw new IllegalArgumentException("Keystream index out of range: " + keystreamIndex);
+            }
+
+            // like snapshot, hold the schedule rather than the caller's
+            // cipher, so a later rekey of that cipher cannot reach the State
+            Cipher shared = shareKeySchedule(cipher);
+
+            // regenerate the partly used block, which belongs to the
+            // counter before the stored one
+            byte[] keystream = new byte[BLOCK_SIZE];
+            if (keystreamIndex < BLOCK_SIZE) {
+                writeCounterBlock(keystream, 0, nonce, counter - 1);
+                shared.encrypt(keystream);
+            }
+
+            return new State(shared, nonce, counter, keystream, keystreamIndex);
+        }
+    }
+
+    private void commitSeek(CTRSeekEvent event, String kind) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.kind = kind;
+            event.counter = counter;
+            event.commit();
+        }
+    }
+
+    private static Cipher shareKeySchedule(Cipher cipher) {
+        // CAST384 schedules are never modified once built, so a new instance
+        // over the same schedule is unaffected by later rekeys of this one
+        if (cipher instanceof SelectedCAST384) {
+            return ((SelectedCAST384) cipher).shareKeySchedule();
+        }
+        if (cipher instanceof CAST384) {
+            return new CAST384(((CAST384) cipher).getK());
+        }
+        // share the schedule underneath a metering wrapper, and keep counting
+        // into the same metrics
+        if (cipher instanceof MeteredCipher) {
+            MeteredCipher metered = (MeteredCipher) cipher;
+            Cipher shared = shareKeySchedule(metered.getDelegate());
+            return shared == metered.getDelegate() ? cipher : new MeteredCipher(shared, metered.getMetrics());
+        }
+        return cipher;
+    }
+
+    private static boolean sameKeySchedule(Cipher a, Cipher b) {
+        if (a == b) {
+            return true;
+        }
+        if (a instanceof MeteredCipher) {
+            return sameKeySchedule(((MeteredCipher) a).getDelegate(), b);
+        }
+        if (b instanceof MeteredCipher) {
+            return sameKeySchedule(a, ((MeteredCipher) b).getDelegate());
+        }
+        return a instanceof CASTCipher && b instanceof CASTCipher
+                && ((CASTCipher) a).getK() == ((CASTCipher) b).getK();
+    }
+
+    private void refillKeystream() {
+        // serve from the cache where possible, otherwise encrypt the
+        // counter block in place and remember the result
+        if (cache == null || !cache.get(cacheKeyId, nonce, counter, keystream, 0)) {
+            writeCounterBlock(keystream, 0, nonce, counter);
+            cipher.encrypt(keystream);
+
+            if (cache != null) {
+                cache.put(cacheKeyId, nonce, counter, keystream, 0);
+            }
+        }
+
+        keystreamIndex = 0;
+        counter++;
+    }
+
+    private void generateBlocks(long firstCounter, int blockCount) {
+        for (int b = 0; b < blockCount; b++) {
+            writeCounterBlock(bulkBuffer, b * BLOCK_SIZE, nonce, firstCounter + b);
+        }
+        encryptBlocks(bulkBuffer, blockCount);
+    }
+
+    private void encryptBlocks(byte[] buffer, int blockCount) {
+        if (cipher instanceof MultiBlockCipher) {
+            ((MultiBlockCipher) cipher).encryptBlocks(buffer, 0, blockCount);
+            return;
+        }
+
+        // block-at-a-time fallback for ciphers without a bulk path
+        byte[] block = new byte[BLOCK_SIZE];
+        for (int i = 0; i < blockCount; i++) {
+            System.arraycopy(buffer, i * BLOCK_SIZE, block, 0, BLOCK_SIZE);
+            cipher.encrypt(block);
+            System.arraycopy(block, 0, buffer, i * BLOCK_SIZE, BLOCK_SIZE);
+        }
+    }
+
+    static void writeCounterBlock(byte[] dest, int offset, byte[] nonce, long counter) {
+        // nonce fills the first part of the block
+        System.arraycopy(nonce, 0, dest, offset, NONCE_SIZE);
+
+        // append 8-byte counter
+        for (int j = 0; j < 8; j++) {
+            dest[offset + NONCE_SIZE + j] = (byte) ((counter >>> (56 - 8 * j)) & 0xFF);
+        }
     }
 }
@@ -0,0 +1,39 @@
+package uk.ac.nottingham.cryptography;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for a CTRMode repositioning: initialise, reset to a new nonce,
+ * seek or restore. Disabled by default; enable
+ * uk.ac.nottingham.cryptography.CTRSeek in a recording to see it.
+ */
+@Name("uk.ac.nottingham.cryptography.CTRSeek")
+@Label("CTR Seek")
+@Description("A CTR stream moved to a new nonce or counter")
+@Category({ "Cryptography", "CAST-384" })
+@Enabled(false)
+@StackTrace(false)
+final class CTRSeekEvent extends Event {
+
+    @Label("Kind")
+    String kind;
+
+    @Label("Counter")
+    long counter;
+
+    /**
+     * Returns a begun event. Call through EventGate, which only gets here
+     * when a recording has the event enabled.
+     */
+    static CTRSeekEvent start() {
+        CTRSeekEvent event = new CTRSeekEvent();
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,79 @@
+package uk.ac.nottingham.cryptography;
+
+/**
+ * Thread-safe, position-addressed view of one CTR stream. Unlike CTRMode,
+ * a session keeps no stream position: every call names the byte offset it
+ * works on, and the keystream for that offset is derived from the counter.
+ * Any number of threads can therefore encrypt or decrypt disjoint regions
+ * of the same stream in parallel without locking.
+ * <br/>
+ * The key schedule is shared by reference and must not be changed while
+ * the session is in use; obtain sessions through CTRMode.session() to get
+ * a schedule that later rekeys of the mode cannot affect.
+ */
+public final class CTRSession {
+
+    private static final int BLOCK_SIZE = CTRMode.BLOCK_SIZE;
+
+    // keystream blocks generated per bulk cipher call
+    private static final int SCRATCH_BLOCKS = 64;
+
+    private final MultiBlockCipher cipher;
+    private final byte[] nonce;
+    private final ThreadLocal<byte[]> scratch =
+            ThreadLocal.withInitial(() -> new byte[SCRATCH_BLOCKS * BLOCK_SIZE]);
+
+    public CTRSession(Cipher cipher, byte[] nonce) {
+        if (!(cipher instanceof MultiBlockCipher)) {
+            throw new IllegalArgumentException("CTRSession needs a MultiBlockCipher, got "
+                    + cipher.getClass().getName());
+        }
+        if (nonce.length < CTRMode.NONCE_SIZE) {
+            throw new IllegalArgumentException("Nonce must be at least " + CTRMode.NONCE_SIZE + " bytes");
+        }
+
+        this.cipher = (MultiBlockCipher) cipher;
+        this.nonce = nonce.clone();
+    }
+
+    /**
+     * XORs the keystream starting at byteOffset of the stream into data.
+     * Encryption and decryption are the same operation.
+     */
+    public void xorAt(long byteOffset, byte[] data) {
+        xorAt(byteOffset, data, 0, data.length);
+    }
+
+    /**
+     * XORs the keystream starting at byteOffset of the stream into length
+     * bytes of data, beginning at offset.
+     */
+    public void xorAt(long byteOffset, byte[] data, int offset, int length) {
+        if (byteOffset < 0) {
+            throw new IllegalArgumentException("Stream offset must not be negative: " + byteOffset);
+        }
+
+        byte[] buffer = scratch.get();
+        long block = byteOffset / BLOCK_SIZE;
+        int skip = (int) (byteOffset % BLOCK_SIZE);
+        int done = 0;
+
+        while (done < length) {
+            // enough blocks to cover what is left, up to the scratch size
+            int blockCount = Math.min(SCRATCH_BLOCKS, (skip + length - done + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            for (int i = 0; i < blockCount; i++) {
+                CTRMode.writeCounterBlock(buffer, i * BLOCK_SIZE, nonce, block + i);
+            }
+            cipher.encryptBlocks(buffer, 0, blockCount);
+
+            int count = Math.min(blockCount * BLOCK_SIZE - skip, length - done);
+            for (int j = 0; j < count; j++) {
+                data[offset + done + j] ^= buffer[skip + j];
+            }
+
+            done += count;
+            block += blockCount;
+            skip = 0;
+        }
+    }
+}
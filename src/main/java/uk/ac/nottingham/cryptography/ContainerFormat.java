@@ -0,0 +1,235 @@
+package uk.ac.nottingham.cryptography;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Layout shared by ContainerWriter and ContainerReader. A container is
+ * <pre>
+ *     header   magic "C384CTNR", version, 3 zero bytes, chunk size (4),
+ *              container id (16)                                  32 bytes
+ *     chunks   ciphertext (up to chunk size) then tag (16), repeated
+ *     index    per chunk: file offset (8), length (4), slot (8),
+ *              tag (16)                                    36 bytes each
+ *     footer   index offset (8), plaintext length (8), chunk count (4),
+ *              4 zero bytes, index tag (16), magic                 48 bytes
+ * </pre>
+ * All integers are big-endian. The container id is the CTR nonce. Counter
+ * blocks 0 and 1 give the 48-byte PMAC key, and a chunk in slot s is
+ * encrypted from counter 2 + s * (chunk size / 24), so every slot has its
+ * own counter range however short its chunk is. A chunk tag is the PMAC of 0x00, the chunk
+ * index and the ciphertext; the index tag is the PMAC of 0x01, the header,
+ * the index and the first 24 bytes of the footer. Tags are truncated to
+ * 16 bytes.
+ * <br/>
+ * Appending writes new chunks, index and footer after the end of the file,
+ * leaving the old index and footer behind as unused bytes; readers go by
+ * the index, not by position. If a file does not end in a footer, as when
+ * an append never reached close, readers fall back to the last footer
+ * before that whose index verifies.
+ * <br/>
+ * Slots, not chunk positions, fix the keystream, because chunks from an
+ * append that never closed stay in the file: a later append must not
+ * reuse their counters. Every chunk takes at least 17 bytes, so the slots
+ * of all chunks ever written to a file are below (file size - 32) / 17;
+ * an append starts from there, and each chunk after takes the next slot.
+ */
+final class ContainerFormat {
+
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 32;
+    static final int ENTRY_SIZE = 36;
+    static final int FOOTER_SIZE = 48;
+    static final int TAG_SIZE = 16;
+    static final int ID_SIZE = 16;
+
+    static final int BLOCK_SIZE = CTRMode.BLOCK_SIZE;
+    static final int MAX_CHUNK_SIZE = (1 << 26) - (1 << 26) % BLOCK_SIZE;
+
+    private static final byte[] MAGIC = { 'C', '3', '8', '4', 'C', 'T', 'N', 'R' };
+
+    private static final int SCAN_WINDOW = 1 << 16;
+
+    private static final long FIRST_CHUNK_COUNTER = 2;
+    private static final int MIN_CHUNK_FOOTPRINT = 1 + TAG_SIZE;
+    private static final byte CHUNK_DOMAIN = 0x00;
+    private static final byte INDEX_DOMAIN = 0x01;
+
+    private ContainerFormat() {
+    }
+
+    static void checkChunkSize(int chunkSize) {
+        if (chunkSize < BLOCK_SIZE || chunkSize > MAX_CHUNK_SIZE || chunkSize % BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException("Chunk size must be a multiple of " + BLOCK_SIZE
+                    + " between " + BLOCK_SIZE + " and " + MAX_CHUNK_SIZE + ", got " + chunkSize);
+        }
+    }
+
+    static long counterBase(int chunkSize, long slot) {
+        return FIRST_CHUNK_COUNTER + slot * (chunkSize / BLOCK_SIZE);
+    }
+
+    /**
+     * Highest slot whose counter range, as a byte position in the
+     * keystream, still fits in a long.
+     */
+    static long maxSlot(int chunkSize) {
+        return (Long.MAX_VALUE / BLOCK_SIZE - FIRST_CHUNK_COUNTER) / (chunkSize / BLOCK_SIZE) - 1;
+    }
+
+    /**
+     * Lowest slot that no chunk in a file of size bytes can have used,
+     * whether or not an index lists it.
+     */
+    static long firstUnusedSlot(long size) {
+        long body = Math.max(0, size - HEADER_SIZE);
+        return (body + MIN_CHUNK_FOOTPRINT - 1) / MIN_CHUNK_FOOTPRINT;
+    }
+
+    /**
+     * Keys mode with key and the container id, returning the PMAC key taken
+     * from the first two keystream blocks.
+     */
+    static byte[] start(CTRMode mode, byte[] key, byte[] id) {
+        mode.initialise(new CAST384(), key, id);
+        byte[] macKey = new byte[2 * BLOCK_SIZE];
+        mode.encrypt(macKey);
+        return macKey;
+    }
+
+    static PMAC newMac(byte[] macKey) {
+        PMAC mac = new PMAC();
+        mac.initialise(new CAST384(), macKey);
+        return mac;
+    }
+
+    static byte[] chunkTag(PMAC mac, long chunkIndex, byte[] ciphertext, int offset, int length) {
+        byte[] prefix = new byte[9];
+        prefix[0] = CHUNK_DOMAIN;
+        writeLong(prefix, 1, chunkIndex);
+        mac.update(prefix);
+        mac.update(ciphertext, offset, length);
+        return Arrays.copyOf(mac.doFinal(), TAG_SIZE);
+    }
+
+    static byte[] indexTag(PMAC mac, byte[] header, byte[] index, int indexLength, byte[] footer) {
+        mac.update(new byte[] { INDEX_DOMAIN });
+        mac.update(header);
+        mac.update(index, 0, indexLength);
+        mac.update(footer, 0, 24);
+        return Arrays.copyOf(mac.doFinal(), TAG_SIZE);
+    }
+
+    static byte[] header(int chunkSize, byte[] id) {
+        byte[] header = new byte[HEADER_SIZE];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        header[8] = VERSION;
+        writeInt(header, 12, chunkSize);
+        System.arraycopy(id, 0, header, 16, ID_SIZE);
+        return header;
+    }
+
+    /**
+     * Checks the fixed fields of a header, returning its chunk size.
+     */
+    static int parseHeader(byte[] header) throws IOException {
+        if (!Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            throw new IOException("Not a CAST-384 container");
+        }
+        if (header[8] != VERSION) {
+            throw new IOException("Unsupported container version " + (header[8] & 0xFF));
+        }
+
+        int chunkSize = readInt(header, 12);
+        try {
+            checkChunkSize(chunkSize);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt container header: " + e.getMessage());
+        }
+        return chunkSize;
+    }
+
+    static byte[] footer(long indexOffset, long length, int chunkCount) {
+        byte[] footer = new byte[FOOTER_SIZE];
+        writeLong(footer, 0, indexOffset);
+        writeLong(footer, 8, length);
+        writeInt(footer, 16, chunkCount);
+        System.arraycopy(MAGIC, 0, footer, 40, MAGIC.length);
+        return footer;
+    }
+
+    static boolean hasFooterMagic(byte[] footer) {
+        return Arrays.equals(footer, 40, 48, MAGIC, 0, MAGIC.length);
+    }
+
+    /**
+     * Searches backwards for the last possible footer that ends at or
+     * before end, returning its offset, or -1 if there is none. A match
+     * only means the magic is there; the caller must still check the
+     * footer and its index.
+     */
+    static long findFooter(FileChannel channel, long end) throws IOException {
+        byte[] window = new byte[SCAN_WINDOW];
+        long first = HEADER_SIZE + FOOTER_SIZE - MAGIC.length;
+        long limit = end;
+
+        while (limit - MAGIC.length >= first) {
+            long from = Math.max(first, limit - window.length);
+            int count = (int) (limit - from);
+            readFully(channel, window, 0, count, from);
+            for (int i = count - MAGIC.length; i >= 0; i--) {
+                if (Arrays.equals(window, i, i + MAGIC.length, MAGIC, 0, MAGIC.length)) {
+                    return from + i - (FOOTER_SIZE - MAGIC.length);
+                }
+            }
+            // overlap the next window so magic across the boundary is found
+            limit = from + MAGIC.length - 1;
+        }
+        return -1;
+    }
+
+    static void readFully(FileChannel channel, byte[] dest, int offset, int length, long position)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(dest, offset, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position() - offset) < 0) {
+                throw new IOException("Unexpected end of container");
+            }
+        }
+    }
+
+    static void writeFully(FileChannel channel, byte[] src, int offset, int length, long position)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(src, offset, length);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position() - offset);
+        }
+    }
+
+    static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    static void writeInt(byte[] data, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            data[offset + i] = (byte) (value >>> (24 - 8 * i));
+        }
+    }
+
+    static long readLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    static void writeLong(byte[] data, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            data[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+}
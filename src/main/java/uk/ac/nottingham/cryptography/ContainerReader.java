@@ -0,0 +1,280 @@
+package uk.ac.nottingham.cryptography;
+
+import javax.crypto.AEADBadTagException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Reads a container written by ContainerWriter. Opening a container reads
+ * and authenticates its index, after which any chunk can be decrypted and
+ * verified directly with readChunk. readChunk is thread-safe, so workers
+ * can each take a share of the chunks; newInputStream reads the whole
+ * container in order. See ContainerFormat for the layout.
+ */
+public class ContainerReader implements Closeable {
+
+    private static final int BLOCK_SIZE = ContainerFormat.BLOCK_SIZE;
+    private static final int TAG_SIZE = ContainerFormat.TAG_SIZE;
+    private static final int ENTRY_SIZE = ContainerFormat.ENTRY_SIZE;
+
+    private final FileChannel channel;
+    private final byte[] header;
+    private final int chunkSize;
+    private final byte[] index;
+    private final int chunkCount;
+    private final long indexOffset;
+    private final long length;
+
+    private final CTRSession session;
+    private final ThreadLocal<PMAC> mac;
+
+    /**
+     * Opens file and authenticates its index under key.
+     *
+     * @throws AEADBadTagException if the index does not verify, e.g. the
+     *                             key is wrong or the file was altered
+     */
+    public ContainerReader(Path file, byte[] key) throws IOException, AEADBadTagException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < ContainerFormat.HEADER_SIZE + ContainerFormat.FOOTER_SIZE) {
+                throw new IOException("File is too short to be a container");
+            }
+
+            this.header = new byte[ContainerFormat.HEADER_SIZE];
+            ContainerFormat.readFully(channel, header, 0, header.length, 0);
+            this.chunkSize = ContainerFormat.parseHeader(header);
+
+            CTRMode mode = new CTRMode();
+            byte[] macKey = ContainerFormat.start(mode, key, Arrays.copyOfRange(header, 16, 32));
+            this.session = mode.session();
+            this.mac = ThreadLocal.withInitial(() -> ContainerFormat.newMac(macKey));
+
+            long footerOffset = size - ContainerFormat.FOOTER_SIZE;
+            byte[] footer = new byte[ContainerFormat.FOOTER_SIZE];
+            ContainerFormat.readFully(channel, footer, 0, footer.length, footerOffset);
+            if (!ContainerFormat.hasFooterMagic(footer)) {
+                // an append that never reached close leaves its chunks after
+                // the previous footer, which still describes a whole container
+                footerOffset = recoverFooter(size);
+                ContainerFormat.readFully(channel, footer, 0, footer.length, footerOffset);
+            }
+            this.indexOffset = ContainerFormat.readLong(footer, 0);
+            this.length = ContainerFormat.readLong(footer, 8);
+            this.chunkCount = ContainerFormat.readInt(footer, 16);
+
+            if (!fitsBefore(indexOffset, chunkCount, footerOffset)) {
+                throw new IOException("Corrupt container footer");
+            }
+
+            this.index = new byte[chunkCount * ENTRY_SIZE];
+            ContainerFormat.readFully(channel, index, 0, index.length, indexOffset);
+
+            if (!indexVerifies(footer, index)) {
+                throw new AEADBadTagException("Container index failed authentication");
+            }
+            checkIndex();
+        } catch (IOException | AEADBadTagException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Total plaintext length of all chunks.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    public int getChunkLength(int chunk) {
+        checkChunk(chunk);
+        return ContainerFormat.readInt(index, chunk * ENTRY_SIZE + 8);
+    }
+
+    /**
+     * Counter slot the chunk was encrypted under; see ContainerFormat.
+     */
+    long getSlot(int chunk) {
+        checkChunk(chunk);
+        return ContainerFormat.readLong(index, chunk * ENTRY_SIZE + 12);
+    }
+
+    /**
+     * Decrypts and verifies one chunk, returning its plaintext.
+     */
+    public byte[] readChunk(int chunk) throws IOException, AEADBadTagException {
+        byte[] data = new byte[getChunkLength(chunk)];
+        readChunk(chunk, data, 0);
+        return data;
+    }
+
+    /**
+     * Decrypts and verifies one chunk into dest at offset, returning its
+     * length. On a tag mismatch the written range is zeroed before the
+     * exception is thrown.
+     */
+    public int readChunk(int chunk, byte[] dest, int offset) throws IOException, AEADBadTagException {
+        int entry = chunk * ENTRY_SIZE;
+        int chunkLength = getChunkLength(chunk);
+        long position = ContainerFormat.readLong(index, entry);
+
+        byte[] storedTag = new byte[TAG_SIZE];
+        ContainerFormat.readFully(channel, dest, offset, chunkLength, position);
+        ContainerFormat.readFully(channel, storedTag, 0, TAG_SIZE, position + chunkLength);
+
+        byte[] tag = ContainerFormat.chunkTag(mac.get(), chunk, dest, offset, chunkLength);
+        byte[] indexedTag = Arrays.copyOfRange(index, entry + 20, entry + ENTRY_SIZE);
+        if (!MessageDigest.isEqual(tag, indexedTag) || !MessageDigest.isEqual(tag, storedTag)) {
+            Arrays.fill(dest, offset, offset + chunkLength, (byte) 0);
+            throw new AEADBadTagException("Chunk " + chunk + " failed authentication");
+        }
+
+        long counter = ContainerFormat.counterBase(chunkSize, getSlot(chunk));
+        session.xorAt(counter * BLOCK_SIZE, dest, offset, chunkLength);
+        return chunkLength;
+    }
+
+    /**
+     * Returns a stream over the plaintext of every chunk in order. Chunks
+     * that fail authentication surface as an IOException.
+     */
+    public InputStream newInputStream() {
+        return new InputStream() {
+            private final byte[] buffer = new byte[chunkSize];
+            private int next;
+            private int position;
+            private int limit;
+
+            @Override
+            public int read() throws IOException {
+                if (!fill()) {
+                    return -1;
+                }
+                return buffer[position++] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+                int count = Math.min(len, limit - position);
+                System.arraycopy(buffer, position, b, off, count);
+                position += count;
+                return count;
+            }
+
+            private boolean fill() throws IOException {
+                while (position == limit) {
+                    if (next == chunkCount) {
+                        return false;
+                    }
+                    try {
+                        limit = readChunk(next, buffer, 0);
+                    } catch (AEADBadTagException e) {
+                        throw new IOException(e.getMessage(), e);
+                    }
+                    position = 0;
+                    next++;
+                }
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    byte[] getHeader() {
+        return header;
+    }
+
+    byte[] getIndex() {
+        return index;
+    }
+
+    long getIndexOffset() {
+        return indexOffset;
+    }
+
+    /**
+     * Returns the offset of the last footer ending at or before end whose
+     * index verifies, searching back past any that do not.
+     */
+    private long recoverFooter(long end) throws IOException {
+        byte[] footer = new byte[ContainerFormat.FOOTER_SIZE];
+        long candidate = ContainerFormat.findFooter(channel, end);
+        while (candidate >= 0) {
+            ContainerFormat.readFully(channel, footer, 0, footer.length, candidate);
+            long offset = ContainerFormat.readLong(footer, 0);
+            int count = ContainerFormat.readInt(footer, 16);
+            if (fitsBefore(offset, count, candidate)) {
+                byte[] entries = new byte[count * ENTRY_SIZE];
+                ContainerFormat.readFully(channel, entries, 0, entries.length, offset);
+                if (indexVerifies(footer, entries)) {
+                    return candidate;
+                }
+            }
+            candidate = ContainerFormat.findFooter(channel, candidate + footer.length - 1);
+        }
+        throw new IOException("Container footer missing; the file is truncated or was not closed");
+    }
+
+    private static boolean fitsBefore(long indexOffset, int chunkCount, long footerOffset) {
+        return chunkCount >= 0 && chunkCount <= Integer.MAX_VALUE / ENTRY_SIZE
+                && indexOffset >= ContainerFormat.HEADER_SIZE
+                && indexOffset + (long) chunkCount * ENTRY_SIZE == footerOffset;
+    }
+
+    private boolean indexVerifies(byte[] footer, byte[] entries) {
+        byte[] expected = ContainerFormat.indexTag(mac.get(), header, entries, entries.length, footer);
+        return MessageDigest.isEqual(expected, Arrays.copyOfRange(footer, 24, 40));
+    }
+
+    private void checkIndex() throws IOException {
+        long total = 0;
+        long previousSlot = -1;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            long position = ContainerFormat.readLong(index, chunk * ENTRY_SIZE);
+            int chunkLength = ContainerFormat.readInt(index, chunk * ENTRY_SIZE + 8);
+            long slot = ContainerFormat.readLong(index, chunk * ENTRY_SIZE + 12);
+            if (chunkLength < 1 || chunkLength > chunkSize || position < ContainerFormat.HEADER_SIZE
+                    || position + chunkLength + TAG_SIZE > indexOffset
+                    || slot <= previousSlot || slot > ContainerFormat.maxSlot(chunkSize)) {
+                throw new IOException("Corrupt index entry for chunk " + chunk);
+            }
+            total += chunkLength;
+            previousSlot = slot;
+        }
+        if (total != length) {
+            throw new IOException("Index does not add up to the container length");
+        }
+    }
+
+    private void checkChunk(int chunk) {
+        if (chunk < 0 || chunk >= chunkCount) {
+            throw new IndexOutOfBoundsException("Chunk " + chunk + " of " + chunkCount);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package uk.ac.nottingham.cryptography;
+
+import javax.crypto.AEADBadTagException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Streams plaintext into a chunked, indexed container (see ContainerFormat).
+ * Data is cut into chunks of the container's chunk size; each is encrypted
+ * from its own counter base, tagged and written as soon as it fills. close
+ * writes the last partial chunk, the index and the footer, and must be
+ * called for the container to be readable.
+ * <br/>
+ * append reopens a closed container and adds chunks after the existing
+ * ones. Nothing already in the file is overwritten: new chunks, index and
+ * footer go after the old footer, which stays valid until the new one is
+ * on disk. A crash or exception before close loses only the appended data,
+ * and leaves earlier chunks readable. The chunks it did write stay in the
+ * file, so later appends take counter slots past anything the file could
+ * hold rather than carrying on from the last indexed chunk.
+ */
+public class ContainerWriter extends OutputStream {
+
+    public static final int DEFAULT_CHUNK_SIZE = (1 << 20) - (1 << 20) % ContainerFormat.BLOCK_SIZE;
+
+    private static final int TAG_SIZE = ContainerFormat.TAG_SIZE;
+    private static final int ENTRY_SIZE = ContainerFormat.ENTRY_SIZE;
+
+    private final FileChannel channel;
+    private final byte[] header;
+    private final int chunkSize;
+    private final CTRMode mode = new CTRMode();
+    private final PMAC mac;
+    private final byte[] counterBytes = new byte[8];
+
+    private final byte[] buffer;
+    private int buffered;
+    private long position;
+    private long length;
+
+    private byte[] index;
+    private int chunkCount;
+    private long slot;
+    private boolean closed;
+
+    private ContainerWriter(FileChannel channel, byte[] key, byte[] header, byte[] index, int chunkCount,
+                            long slot, long position, long length) {
+        this.channel = channel;
+        this.header = header;
+        this.chunkSize = ContainerFormat.readInt(header, 12);
+        this.mac = ContainerFormat.newMac(ContainerFormat.start(mode, key, Arrays.copyOfRange(header, 16, 32)));
+        this.buffer = new byte[chunkSize];
+        this.index = index;
+        this.chunkCount = chunkCount;
+        this.slot = slot;
+        this.position = position;
+        this.length = length;
+    }
+
+    /**
+     * Creates, or replaces, file as an empty container with a random id.
+     */
+    public static ContainerWriter create(Path file, byte[] key, int chunkSize) throws IOException {
+        ContainerFormat.checkChunkSize(chunkSize);
+
+        byte[] id = new byte[ContainerFormat.ID_SIZE];
+        new SecureRandom().nextBytes(id);
+        byte[] header = ContainerFormat.header(chunkSize, id);
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ContainerFormat.writeFully(channel, header, 0, header.length, 0);
+            return new ContainerWriter(channel, key, header, new byte[16 * ENTRY_SIZE], 0, 0,
+                    header.length, 0);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static ContainerWriter create(Path file, byte[] key) throws IOException {
+        return create(file, key, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Reopens a closed container to add data after its existing chunks.
+     *
+     * @throws AEADBadTagException if the existing index does not verify
+     */
+    public static ContainerWriter append(Path file, byte[] key) throws IOException, AEADBadTagException {
+        byte[] header;
+        byte[] index;
+        int chunkCount;
+        long length;
+        long lastSlot;
+        try (ContainerReader reader = new ContainerReader(file, key)) {
+            header = reader.getHeader();
+            chunkCount = reader.getChunkCount();
+            index = Arrays.copyOf(reader.getIndex(), Math.max(16, 2 * chunkCount) * ENTRY_SIZE);
+            length = reader.getLength();
+            lastSlot = chunkCount == 0 ? -1 : reader.getSlot(chunkCount - 1);
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        try {
+            // new chunks go after everything in the file, including any left
+            // by an unfinished append, so the footer in use stays intact, and
+            // take slots none of those chunks can have had
+            long size = channel.size();
+            long slot = Math.max(lastSlot + 1, ContainerFormat.firstUnusedSlot(size));
+            return new ContainerWriter(channel, key, header, index, chunkCount, slot, size, length);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+        buffer[buffered++] = (byte) b;
+        if (buffered == chunkSize) {
+            writeChunk();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        while (len > 0) {
+            int count = Math.min(len, chunkSize - buffered);
+            System.arraycopy(b, off, buffer, buffered, count);
+            buffered += count;
+            off += count;
+            len -= count;
+
+            if (buffered == chunkSize) {
+                writeChunk();
+            }
+        }
+    }
+
+    /**
+     * Writes the last partial chunk, the index and the footer.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (buffered > 0) {
+                writeChunk();
+            }
+
+            int indexLength = chunkCount * ENTRY_SIZE;
+            byte[] footer = ContainerFormat.footer(position, length, chunkCount);
+            byte[] tag = ContainerFormat.indexTag(mac, header, index, indexLength, footer);
+            System.arraycopy(tag, 0, footer, 24, TAG_SIZE);
+
+            // chunks and index must be on disk before a footer points at them
+            ContainerFormat.writeFully(channel, index, 0, indexLength, position);
+            channel.force(true);
+            ContainerFormat.writeFully(channel, footer, 0, footer.length, position + indexLength);
+            channel.force(true);
+        } finally {
+            Arrays.fill(buffer, (byte) 0);
+            channel.close();
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        if (slot > ContainerFormat.maxSlot(chunkSize)) {
+            throw new IOException("Container has run out of counter space");
+        }
+        long counter = ContainerFormat.counterBase(chunkSize, slot);
+        ContainerFormat.writeLong(counterBytes, 0, counter);
+        mode.seek(counterBytes);
+        mode.encrypt(buffer, 0, buffered, buffer, 0);
+
+        byte[] tag = ContainerFormat.chunkTag(mac, chunkCount, buffer, 0, buffered);
+        ContainerFormat.writeFully(channel, buffer, 0, buffered, position);
+        ContainerFormat.writeFully(channel, tag, 0, TAG_SIZE, position + buffered);
+
+        if ((chunkCount + 1) * ENTRY_SIZE > index.length) {
+            index = Arrays.copyOf(index, index.length * 2);
+        }
+        int entry = chunkCount * ENTRY_SIZE;
+        ContainerFormat.writeLong(index, entry, position);
+        ContainerFormat.writeInt(index, entry + 8, buffered);
+        ContainerFormat.writeLong(index, entry + 12, slot);
+        System.arraycopy(tag, 0, index, entry + 20, TAG_SIZE);
+
+        position += buffered + TAG_SIZE;
+        length += buffered;
+        chunkCount++;
+        slot++;
+        buffered = 0;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Container writer is closed");
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package uk.ac.nottingham.cryptography;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the crypto layer. Feed it by
+ * wrapping ciphers in MeteredCipher and modes in MeteredCipherMode, then
+ * either read it directly (the pull API is the getters below) or register
+ * it with the platform MBean server for JMX dashboards.
+ * <br/>
+ * Counters are LongAdders, so many threads can record without contending.
+ * Reads are not atomic across counters; a reader polling during traffic
+ * may see bytes and blocks that are momentarily out of step.
+ */
+public class CryptoMetrics implements CryptoMetricsMXBean {
+
+    public static final String DOMAIN = "uk.ac.nottingham.cryptography";
+
+    private static final CryptoMetrics GLOBAL = new CryptoMetrics();
+
+    private final LongAdder bytesEncrypted = new LongAdder();
+    private final LongAdder bytesDecrypted = new LongAdder();
+    private final LongAdder blocksEncrypted = new LongAdder();
+    private final LongAdder blocksDecrypted = new LongAdder();
+    private final LongAdder rekeys = new LongAdder();
+    private final LongAdder seeks = new LongAdder();
+
+    private final LatencyHistogram encryptLatency = new LatencyHistogram();
+    private final LatencyHistogram decryptLatency = new LatencyHistogram();
+    private final LatencyHistogram rekeyLatency = new LatencyHistogram();
+    private final LatencyHistogram seekLatency = new LatencyHistogram();
+
+    private final List<KeystreamCache> caches = new CopyOnWriteArrayList<>();
+
+    /**
+     * Returns the process-wide instance, for code that has no better place
+     * to keep one.
+     */
+    public static CryptoMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Includes cache's hits and misses in this instance's cache counters.
+     */
+    public void track(KeystreamCache cache) {
+        caches.add(cache);
+    }
+
+    public void untrack(KeystreamCache cache) {
+        caches.remove(cache);
+    }
+
+    /**
+     * Registers this instance with the platform MBean server under
+     * uk.ac.nottingham.cryptography:type=CryptoMetrics,name=name, replacing
+     * anything already registered there.
+     */
+    public ObjectName register(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = objectName(name);
+            try {
+                server.registerMBean(this, objectName);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(objectName);
+                server.registerMBean(this, objectName);
+            }
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register metrics MBean " + name, e);
+        }
+    }
+
+    public static void unregister(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(name));
+        } catch (InstanceNotFoundException e) {
+            // already gone
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not unregister metrics MBean " + name, e);
+        }
+    }
+
+    public static ObjectName objectName(String name) {
+        try {
+            return new ObjectName(DOMAIN + ":type=CryptoMetrics,name=" + ObjectName.quote(name));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Invalid metrics name: " + name, e);
+        }
+    }
+
+    public void recordEncrypt(long bytes, long nanos) {
+        bytesEncrypted.add(bytes);
+        encryptLatency.record(nanos);
+    }
+
+    public void recordDecrypt(long bytes, long nanos) {
+        bytesDecrypted.add(bytes);
+        decryptLatency.record(nanos);
+    }
+
+    public void recordBlocksEncrypted(long blocks) {
+        blocksEncrypted.add(blocks);
+    }
+
+    public void recordBlocksDecrypted(long blocks) {
+        blocksDecrypted.add(blocks);
+    }
+
+    public void recordRekey(long nanos) {
+        rekeys.increment();
+        rekeyLatency.record(nanos);
+    }
+
+    public void recordSeek(long nanos) {
+        seeks.increment();
+        seekLatency.record(nanos);
+    }
+
+    @Override
+    public long getBytesEncrypted() {
+        return bytesEncrypted.sum();
+    }
+
+    @Override
+    public long getBytesDecrypted() {
+        return bytesDecrypted.sum();
+    }
+
+    @Override
+    public long getBlocksEncrypted() {
+        return blocksEncrypted.sum();
+    }
+
+    @Override
+    public long getBlocksDecrypted() {
+        return blocksDecrypted.sum();
+    }
+
+    @Override
+    public long getRekeys() {
+        return rekeys.sum();
+    }
+
+    @Override
+    public long getSeeks() {
+        return seeks.sum();
+    }
+
+    @Override
+    public long getKeystreamCacheHits() {
+        long hits = 0;
+        for (KeystreamCache cache : caches) {
+            hits += cache.getHits();
+        }
+        return hits;
+    }
+
+    @Override
+    public long getKeystreamCacheMisses() {
+        long misses = 0;
+        for (KeystreamCache cache : caches) {
+            misses += cache.getMisses();
+        }
+        return misses;
+    }
+
+    @Override
+    public LatencySnapshot getEncryptLatency() {
+        return encryptLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getDecryptLatency() {
+        return decryptLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getRekeyLatency() {
+        return rekeyLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getSeekLatency() {
+        return seekLatency.snapshot();
+    }
+
+    public LatencyHistogram getEncryptHistogram() {
+        return encryptLatency;
+    }
+
+    public LatencyHistogram getDecryptHistogram() {
+        return decryptLatency;
+    }
+
+    public LatencyHistogram getRekeyHistogram() {
+        return rekeyLatency;
+    }
+
+    public LatencyHistogram getSeekHistogram() {
+        return seekLatency;
+    }
+}
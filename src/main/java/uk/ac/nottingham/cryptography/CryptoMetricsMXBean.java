@@ -0,0 +1,31 @@
+package uk.ac.nottingham.cryptography;
+
+/**
+ * JMX view of a CryptoMetrics instance.
+ */
+public interface CryptoMetricsMXBean {
+
+    long getBytesEncrypted();
+
+    long getBytesDecrypted();
+
+    long getBlocksEncrypted();
+
+    long getBlocksDecrypted();
+
+    long getRekeys();
+
+    long getSeeks();
+
+    long getKeystreamCacheHits();
+
+    long getKeystreamCacheMisses();
+
+    LatencySnapshot getEncryptLatency();
+
+    LatencySnapshot getDecryptLatency();
+
+    LatencySnapshot getRekeyLatency();
+
+    LatencySnapshot getSeekLatency();
+}
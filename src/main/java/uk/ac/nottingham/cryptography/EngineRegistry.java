@@ -0,0 +1,291 @@
+package uk.ac.nottingham.cryptography;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Picks the CASTEngine to use on this host. Engines are discovered through
+ * ServiceLoader; each supported candidate is checked against a known answer
+ * and then timed on the current CPU, and the fastest correct engine wins.
+ * SelectedCAST384, the CASTCipher service, encrypts with the engine picked
+ * here, so ServiceLoader.load(CASTCipher.class) follows this choice.
+ * <br/>
+ * A fair timing needs the JIT to have compiled every engine, which takes
+ * a few hundred milliseconds on a cold JVM, so calibration runs on a
+ * background thread started on first use, and only when more than one
+ * correct candidate is supported. Until it finishes, selected()
+ * returns the first correct engine in the services file, so callers never
+ * wait for it; all engines give the same output, so ciphers made before
+ * and after the switch can be mixed freely.
+ * <br/>
+ * Set the system property uk.ac.nottingham.cryptography.engine to an
+ * engine name to skip calibration and use that engine, which must still
+ * pass the known-answer check; this is the only way to use an engine that
+ * is not a candidate. uk.ac.nottingham.cryptography.engine.calibrationMillis
+ * sets the calibration time, 250 by default.
+ */
+public final class EngineRegistry {
+
+    public static final String ENGINE_PROPERTY = "uk.ac.nottingham.cryptography.engine";
+    public static final String CALIBRATION_PROPERTY = "uk.ac.nottingham.cryptography.engine.calibrationMillis";
+
+    private static final long DEFAULT_CALIBRATION_MILLIS = 250;
+    private static final int CALIBRATION_BLOCKS = 8;
+
+    // EncryptTests' first vector: key bytes i + 3, block bytes 0x1b & i
+    private static final byte[] KNOWN_KEY = new byte[48];
+    private static final byte[] KNOWN_PLAINTEXT = new byte[24];
+    private static final byte[] KNOWN_CIPHERTEXT = HexUtils.hexToBytes("2AFA976BE7CB76A94BE2B478335B57FB7434C28B8855B7C3");
+
+    static {
+        for (int i = 0; i < 48; i++) {
+            KNOWN_KEY[i] = (byte) (i + 3);
+        }
+        for (int i = 0; i < 24; i++) {
+            KNOWN_PLAINTEXT[i] = (byte) (0x1b & i);
+        }
+    }
+
+    private EngineRegistry() {
+    }
+
+    private static final class Selection {
+        static volatile CASTEngine engine;
+
+        // kept and rethrown by selected() on every call; escaping the
+        // initialiser would leave this class unusable for the rest of the run
+        static final RuntimeException failure;
+
+        static {
+            RuntimeException error = null;
+            try {
+                String override = System.getProperty(ENGINE_PROPERTY);
+                List<CASTEngine> engines = engines();
+
+                if (override != null) {
+                    engine = select(engines, override, 0);
+                } else {
+                    List<CASTEngine> correct = verified(candidates(engines));
+                    if (correct.isEmpty()) {
+                        throw new IllegalStateException("No engine passed its known-answer check");
+                    }
+                    engine = correct.get(0);
+                    if (correct.size() > 1) {
+                        long calibrationNanos = Long.getLong(CALIBRATION_PROPERTY, DEFAULT_CALIBRATION_MILLIS) * 1_000_000L;
+                        Thread calibration = new Thread(() -> engine = select(correct, null, calibrationNanos),
+                                "cast-engine-calibration");
+                        calibration.setDaemon(true);
+                        calibration.start();
+                    }
+                }
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                error = e;
+            }
+            failure = error;
+        }
+    }
+
+    /**
+     * Returns the engine to use on this JVM: the overriding engine if the
+     * property is set, otherwise the calibrated choice once calibration has
+     * finished and the first correct engine until then.
+     *
+     * @throws IllegalArgumentException if the engine property names no
+     *                                  supported engine
+     * @throws IllegalStateException    if no engine passes its known-answer check
+     */
+    public static CASTEngine selected() {
+        RuntimeException failure = Selection.failure;
+        if (failure instanceof IllegalArgumentException) {
+            throw new IllegalArgumentException(failure.getMessage(), failure);
+        } else if (failure != null) {
+            throw new IllegalStateException(failure.getMessage(), failure);
+        }
+        return Selection.engine;
+    }
+
+    /**
+     * Returns a new, uninitialised cipher from the selected engine.
+     *
+     * @throws IllegalArgumentException if the engine property names no
+     *                                  supported engine
+     * @throws IllegalStateException    if no engine passes its known-answer check
+     */
+    public static CAST384 newCipher() {
+        return selected().newCipher();
+    }
+
+    /**
+     * Returns the supported engines registered with ServiceLoader, in the
+     * order they are listed.
+     */
+    public static List<CASTEngine> engines() {
+        List<CASTEngine> engines = new ArrayList<>();
+        for (CASTEngine engine : ServiceLoader.load(CASTEngine.class, EngineRegistry.class.getClassLoader())) {
+            if (engine.isSupported()) {
+                engines.add(engine);
+            }
+        }
+        return Collections.unmodifiableList(engines);
+    }
+
+    /**
+     * Chooses among engines: the one named by override if that is not
+     * null, otherwise the fastest engine that passes its known-answer
+     * check, timed for about calibrationNanos in total. Ties go to the
+     * engine listed first.
+     */
+    public static CASTEngine select(List<CASTEngine> engines, String override, long calibrationNanos) {
+        if (override != null) {
+            for (CASTEngine engine : engines) {
+                if (engine.isSupported() && engine.getName().equals(override)) {
+                    if (!verify(engine)) {
+                        throw new IllegalStateException("Engine " + override + " failed its known-answer check");
+                    }
+                    return engine;
+                }
+            }
+            throw new IllegalArgumentException("Unknown or unsupported engine: " + override);
+        }
+
+        List<CASTEngine> correct = verified(engines);
+        if (correct.isEmpty()) {
+            throw new IllegalStateException("No engine passed its known-answer check");
+        }
+        if (correct.size() == 1) {
+            return correct.get(0);
+        }
+
+        CASTEngine fastest = null;
+        double best = Double.MAX_VALUE;
+        for (Map.Entry<CASTEngine, Double> timing : calibrate(correct, calibrationNanos).entrySet()) {
+            if (timing.getValue() < best) {
+                best = timing.getValue();
+                fastest = timing.getKey();
+            }
+        }
+        return fastest;
+    }
+
+    private static List<CASTEngine> candidates(List<CASTEngine> engines) {
+        List<CASTEngine> candidates = new ArrayList<>();
+        for (CASTEngine engine : engines) {
+            if (engine.isCandidate()) {
+                candidates.add(engine);
+            }
+        }
+        return candidates;
+    }
+
+    private static List<CASTEngine> verified(List<CASTEngine> engines) {
+        List<CASTEngine> correct = new ArrayList<>();
+        for (CASTEngine engine : engines) {
+            if (verify(engine)) {
+                correct.add(engine);
+            }
+        }
+        return correct;
+    }
+
+    /**
+     * Checks an engine's single-block and bulk paths against a known
+     * answer in both directions. Engines that throw, or are not supported
+     * here, fail the check.
+     */
+    public static boolean verify(CASTEngine engine) {
+        if (!engine.isSupported()) {
+            return false;
+        }
+        try {
+            CAST384 cipher = engine.newCipher();
+            cipher.initialise(KNOWN_KEY);
+
+            byte[] block = KNOWN_PLAINTEXT.clone();
+            cipher.encrypt(block);
+            if (!Arrays.equals(block, KNOWN_CIPHERTEXT)) {
+                return false;
+            }
+            cipher.decrypt(block);
+            if (!Arrays.equals(block, KNOWN_PLAINTEXT)) {
+                return false;
+            }
+
+            // an odd count past an offset exercises every lane and the remainder
+            int blockCount = 2 * engine.getLanes() + 1;
+            byte[] data = new byte[3 + blockCount * 24];
+            for (int i = 0; i < blockCount; i++) {
+                System.arraycopy(KNOWN_PLAINTEXT, 0, data, 3 + i * 24, 24);
+            }
+            cipher.encryptBlocks(data, 3, blockCount);
+            for (int i = 0; i < blockCount; i++) {
+                if (!Arrays.equals(data, 3 + i * 24, 3 + (i + 1) * 24, KNOWN_CIPHERTEXT, 0, 24)) {
+                    return false;
+                }
+            }
+            cipher.decryptBlocks(data, 3, blockCount);
+            for (int i = 0; i < blockCount; i++) {
+                if (!Arrays.equals(data, 3 + i * 24, 3 + (i + 1) * 24, KNOWN_PLAINTEXT, 0, 24)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Times each engine's bulk encryption for about totalNanos between
+     * them, returning the best nanoseconds per block seen for each. The
+     * engines take turns, so that JIT compilation and frequency changes
+     * part way through affect them all alike, and timing carries on for
+     * up to four times as long while any engine is still getting faster,
+     * as it does until the JIT has finished compiling it.
+     */
+    public static Map<CASTEngine, Double> calibrate(List<CASTEngine> engines, long totalNanos) {
+        int count = engines.size();
+        CAST384[] ciphers = new CAST384[count];
+        double[] best = new double[count];
+        for (int i = 0; i < count; i++) {
+            ciphers[i] = engines.get(i).newCipher();
+            ciphers[i].initialise(KNOWN_KEY);
+            best[i] = Double.MAX_VALUE;
+        }
+
+        byte[] data = new byte[CALIBRATION_BLOCKS * 24];
+        long start = System.nanoTime();
+        long lastImprovement = start;
+        int rounds = 0;
+        while (true) {
+            for (int i = 0; i < count; i++) {
+                long before = System.nanoTime();
+                ciphers[i].encryptBlocks(data, 0, CALIBRATION_BLOCKS);
+                double perBlock = (System.nanoTime() - before) / (double) CALIBRATION_BLOCKS;
+                // only a clear gain counts as still warming up, not noise
+                if (perBlock < best[i] * 0.95) {
+                    lastImprovement = System.nanoTime();
+                }
+                best[i] = Math.min(best[i], perBlock);
+            }
+            rounds++;
+
+            long now = System.nanoTime();
+            // a few rounds at least, however short the budget
+            boolean settled = now - lastImprovement > totalNanos / 4 || now - start > 4 * totalNanos;
+            if (rounds >= 3 && now - start > totalNanos && settled) {
+                break;
+            }
+        }
+
+        Map<CASTEngine, Double> timings = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            timings.put(engines.get(i), best[i]);
+        }
+        return timings;
+    }
+}
@@ -0,0 +1,65 @@
+package uk.ac.nottingham.cryptography;
+
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Cheap check of whether a JFR event is enabled in any running recording,
+ * made before the event is created. The JIT can usually remove a disabled
+ * event's allocation on its own, but not once a recording has enabled it
+ * and the profile has seen it committed, so the hot paths ask here first
+ * and stay allocation-free either way.
+ * <br/>
+ * The event classes themselves are only loaded once a recorder exists:
+ * loading a jdk.jfr.Event subclass sets up JFR's metadata repository,
+ * which costs a few hundred milliseconds on a cold JVM. Before that, a
+ * check is one static field read.
+ */
+final class EventGate {
+
+    private static final EventGate KEY_SCHEDULE = new EventGate("uk.ac.nottingham.cryptography.KeyScheduleEvent");
+    private static final EventGate BULK_CRYPT = new EventGate("uk.ac.nottingham.cryptography.BulkCryptEvent");
+    private static final EventGate CTR_SEEK = new EventGate("uk.ac.nottingham.cryptography.CTRSeekEvent");
+
+    // class names rather than literals, so that nothing loads the classes early
+    private final String eventClassName;
+    private volatile EventType type;
+
+    private EventGate(String eventClassName) {
+        this.eventClassName = eventClassName;
+    }
+
+    /**
+     * Returns a begun KeyScheduleEvent, or null if no recording has it enabled.
+     */
+    static KeyScheduleEvent keySchedule() {
+        return KEY_SCHEDULE.isEnabled() ? KeyScheduleEvent.start() : null;
+    }
+
+    static BulkCryptEvent bulkCrypt() {
+        return BULK_CRYPT.isEnabled() ? BulkCryptEvent.start() : null;
+    }
+
+    static CTRSeekEvent ctrSeek() {
+        return CTR_SEEK.isEnabled() ? CTRSeekEvent.start() : null;
+    }
+
+    boolean isEnabled() {
+        // no recorder means no recording can have the event enabled
+        if (!FlightRecorder.isInitialized()) {
+            return false;
+        }
+
+        EventType eventType = type;
+        if (eventType == null) {
+            try {
+                type = eventType = EventType.getEventType(
+                        Class.forName(eventClassName).asSubclass(Event.class));
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("Missing JFR event class " + eventClassName, e);
+            }
+        }
+        return eventType.isEnabled();
+    }
+}
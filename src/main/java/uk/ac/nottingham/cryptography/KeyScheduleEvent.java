@@ -0,0 +1,38 @@
+package uk.ac.nottingham.cryptography;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event covering one run of the CAST-384 key schedule in initialise.
+ * Disabled by default; enable uk.ac.nottingham.cryptography.KeySchedule
+ * in a recording to see it.
+ */
+@Name("uk.ac.nottingham.cryptography.KeySchedule")
+@Label("Key Schedule")
+@Description("Expansion of a key into CAST-384 round keys")
+@Category({ "Cryptography", "CAST-384" })
+@Enabled(false)
+@StackTrace(false)
+final class KeyScheduleEvent extends Event {
+
+    @Label("Key Length")
+    @DataAmount
+    int keyLength;
+
+    /**
+     * Returns a begun event. Call through EventGate, which only gets here
+     * when a recording has the event enabled.
+     */
+    static KeyScheduleEvent start() {
+        KeyScheduleEvent event = new KeyScheduleEvent();
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,296 @@
+package uk.ac.nottingham.cryptography;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Bounded cache of CTR keystream blocks, keyed by (key id, nonce, block
+ * counter). Block contents are held off-heap in a single direct buffer;
+ * the index is a chained hash table over primitive arrays, so lookups and
+ * insertions allocate nothing. When full, entries are evicted with the
+ * clock (second chance) policy. Only the first 16 nonce bytes are kept,
+ * since CTR counter blocks are built from those alone; longer nonces that
+ * share them give the same keystream.
+ * <br/>
+ * lookupRun and putRun handle runs of consecutive counters under one
+ * lock, for the bulk path of CTRMode; get and put handle single blocks.
+ * <br/>
+ * Entries are raw keystream, so anyone who can read them can decrypt the
+ * matching ciphertext. Call clear() when the cache is retired or a key is
+ * rotated out, and never share one cache between mutually untrusted keys.
+ */
+public class KeystreamCache {
+
+    private static final int BLOCK_SIZE = 24;
+    private static final int EMPTY = -1;
+
+    private final ByteBuffer blocks;
+    private final int capacity;
+
+    // per-slot key and clock state
+    private final long[] keyIds;
+    private final long[] nonceHigh;
+    private final long[] nonceLow;
+    private final long[] counters;
+    private final boolean[] referenced;
+    private final boolean[] occupied;
+
+    // hash chains: bucket heads and per-slot next links
+    private final int[] buckets;
+    private final int[] next;
+
+    private int size;
+    private int hand;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public KeystreamCache(long capacityBytes) {
+        long slots = capacityBytes / BLOCK_SIZE;
+        if (slots < 1 || slots > Integer.MAX_VALUE / BLOCK_SIZE) {
+            throw new IllegalArgumentException("Cache capacity must hold between 1 and "
+                    + (Integer.MAX_VALUE / BLOCK_SIZE) + " blocks, got " + capacityBytes + " bytes");
+        }
+
+        this.capacity = (int) slots;
+        this.blocks = ByteBuffer.allocateDirect(capacity * BLOCK_SIZE);
+        this.keyIds = new long[capacity];
+        this.nonceHigh = new long[capacity];
+        this.nonceLow = new long[capacity];
+        this.counters = new long[capacity];
+        this.referenced = new boolean[capacity];
+        this.occupied = new boolean[capacity];
+        this.next = new int[capacity];
+
+        // power of two bucket count, at least one bucket per slot
+        int bucketCount = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.buckets = new int[bucketCount];
+        Arrays.fill(buckets, EMPTY);
+    }
+
+    /**
+     * Copies the cached keystream block into dest at offset and returns
+     * true, or returns false if the block is not cached.
+     */
+    public synchronized boolean get(long keyId, byte[] nonce, long counter, byte[] dest, int offset) {
+        long high = readLong(nonce, 0);
+        long low = readLong(nonce, 8);
+
+        int slot = find(keyId, high, low, counter);
+        if (slot == EMPTY) {
+            misses++;
+            return false;
+        }
+
+        hits++;
+        referenced[slot] = true;
+        blocks.get(slot * BLOCK_SIZE, dest, offset, BLOCK_SIZE);
+        return true;
+    }
+
+    /**
+     * Looks up the blocks for counters counter to counter + blockCount - 1.
+     * If the first is cached, copies the cached blocks from the start of
+     * the run into dest at offset, stopping at the first one missing, and
+     * returns how many were copied. If the first is not cached, returns
+     * minus the number of consecutive blocks from there that are missing,
+     * which the caller should generate and store with putRun.
+     */
+    public synchronized int lookupRun(long keyId, byte[] nonce, long counter, int blockCount,
+                                      byte[] dest, int offset) {
+        long high = readLong(nonce, 0);
+        long low = readLong(nonce, 8);
+
+        int run = 0;
+        int slot = find(keyId, high, low, counter);
+        if (slot == EMPTY) {
+            do {
+                run++;
+            } while (run < blockCount && find(keyId, high, low, counter + run) == EMPTY);
+            misses += run;
+            return -run;
+        }
+
+        do {
+            referenced[slot] = true;
+            blocks.get(slot * BLOCK_SIZE, dest, offset + run * BLOCK_SIZE, BLOCK_SIZE);
+            run++;
+        } while (run < blockCount && (slot = find(keyId, high, low, counter + run)) != EMPTY);
+        hits += run;
+        return run;
+    }
+
+    /**
+     * Stores the keystream block held in source at offset, evicting an
+     * older entry if the cache is full.
+     */
+    public synchronized void put(long keyId, byte[] nonce, long counter, byte[] source, int offset) {
+        store(keyId, readLong(nonce, 0), readLong(nonce, 8), counter, source, offset);
+    }
+
+    /**
+     * Stores blockCount consecutive keystream blocks from source at offset,
+     * the first for counter.
+     */
+    public synchronized void putRun(long keyId, byte[] nonce, long counter, int blockCount,
+                                    byte[] source, int offset) {
+        long high = readLong(nonce, 0);
+        long low = readLong(nonce, 8);
+        for (int i = 0; i < blockCount; i++) {
+            store(keyId, high, low, counter + i, source, offset + i * BLOCK_SIZE);
+        }
+    }
+
+    private void store(long keyId, long high, long low, long counter, byte[] source, int offset) {
+        int slot = find(keyId, high, low, counter);
+        if (slot == EMPTY) {
+            slot = size < capacity ? size++ : evict();
+
+            keyIds[slot] = keyId;
+            nonceHigh[slot] = high;
+            nonceLow[slot] = low;
+            counters[slot] = counter;
+            occupied[slot] = true;
+
+            int bucket = bucketOf(keyId, high, low, counter);
+            next[slot] = buckets[bucket];
+            buckets[bucket] = slot;
+        }
+
+        referenced[slot] = true;
+        blocks.put(slot * BLOCK_SIZE, source, offset, BLOCK_SIZE);
+    }
+
+    /**
+     * Drops every entry cached for keyId, e.g. when that key is retired.
+     */
+    public synchronized void invalidateKey(long keyId) {
+        for (int slot = 0; slot < size; slot++) {
+            if (occupied[slot] && keyIds[slot] == keyId) {
+                unlink(slot);
+                occupied[slot] = false;
+                referenced[slot] = false;
+                wipe(slot);
+            }
+        }
+    }
+
+    /**
+     * Drops and zeroes every entry. Metrics are kept.
+     */
+    public synchronized void clear() {
+        Arrays.fill(buckets, EMPTY);
+        Arrays.fill(occupied, false);
+        Arrays.fill(referenced, false);
+        for (int slot = 0; slot < size; slot++) {
+            wipe(slot);
+        }
+        size = 0;
+        hand = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    /**
+     * Number of blocks currently cached.
+     */
+    public synchronized int getSize() {
+        int count = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (occupied[slot]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public long getCapacityBytes() {
+        return (long) capacity * BLOCK_SIZE;
+    }
+
+    private int find(long keyId, long high, long low, long counter) {
+        int slot = buckets[bucketOf(keyId, high, low, counter)];
+        while (slot != EMPTY) {
+            if (counters[slot] == counter && keyIds[slot] == keyId
+                    && nonceLow[slot] == low && nonceHigh[slot] == high) {
+                return slot;
+            }
+            slot = next[slot];
+        }
+        return EMPTY;
+    }
+
+    private int evict() {
+        // advance the clock hand, giving referenced entries a second chance;
+        // slots freed by invalidateKey are reused straight away
+        while (true) {
+            int slot = hand;
+            hand = (hand + 1) % capacity;
+
+            if (!occupied[slot]) {
+                return slot;
+            }
+            if (referenced[slot]) {
+                referenced[slot] = false;
+                continue;
+            }
+
+            unlink(slot);
+            occupied[slot] = false;
+            evictions++;
+            return slot;
+        }
+    }
+
+    private void unlink(int slot) {
+        int bucket = bucketOf(keyIds[slot], nonceHigh[slot], nonceLow[slot], counters[slot]);
+        if (buckets[bucket] == slot) {
+            buckets[bucket] = next[slot];
+            return;
+        }
+
+        int previous = buckets[bucket];
+        while (next[previous] != slot) {
+            previous = next[previous];
+        }
+        next[previous] = next[slot];
+    }
+
+    private void wipe(int slot) {
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            blocks.put(slot * BLOCK_SIZE + i, (byte) 0);
+        }
+    }
+
+    private int bucketOf(long keyId, long high, long low, long counter) {
+        long h = keyId * 0x9E3779B97F4A7C15L;
+        h = (h ^ high) * 0x9E3779B97F4A7C15L;
+        h = (h ^ low) * 0x9E3779B97F4A7C15L;
+        h = (h ^ counter) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (buckets.length - 1);
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
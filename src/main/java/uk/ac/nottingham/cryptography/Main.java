@@ -1,22 +1,394 @@
 package uk.ac.nottingham.cryptography;
 
-import java.util.Arrays;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.Locale;
 
+/**
+ * Command line tool that encrypts or decrypts a file, or stdin to stdout,
+ * with CAST-384 in CTR mode:
+ * <pre>
+ *     encrypt|decrypt (--key HEX | --key-file PATH) [--nonce HEX]
+ *         [--in PATH] [--out PATH] [--threads N] [--chunk SIZE] [--mmap] [--quiet]
+ * </pre>
+ * Without --nonce, encrypt picks a random nonce and writes it as the first
+ * 16 bytes of the output, and decrypt reads it back from there. Input and
+ * output default to stdin and stdout, so the tool can sit in a pipeline.
+ * Data is processed in parallel chunks by a ParallelCTREngine; --mmap maps
+ * both files instead of streaming them. A summary of throughput, CPU time
+ * and GC time is printed to stderr at the end unless --quiet is given.
+ * The cipher comes from EngineRegistry; pass
+ * -Duk.ac.nottingham.cryptography.engine=NAME to pin an engine rather
+ * than calibrate.
+ */
 public class Main {
 
+    private static final int NONCE_SIZE = CTRMode.NONCE_SIZE;
+
+    private static final int EXIT_FAILURE = 1;
+    private static final int EXIT_USAGE = 2;
+
+    // far past any useful count; only there to catch typos
+    private static final int MAX_THREADS = 1024;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "usage: encrypt|decrypt (--key HEX | --key-file PATH) [options]",
+            "  -k, --key HEX        16, 24, 32 or 48 byte key in hex",
+            "      --key-file PATH  file holding the raw key bytes",
+            "  -n, --nonce HEX      16 byte nonce in hex; if omitted, encrypt writes a",
+            "                       random nonce before the data and decrypt reads it",
+            "  -i, --in PATH        input file (default stdin)",
+            "  -o, --out PATH       output file (default stdout)",
+            "  -t, --threads N      worker threads (default: available processors)",
+            "  -c, --chunk SIZE     bytes per parallel chunk, K/M/G suffixes allowed",
+            "                       (default 4M)",
+            "      --mmap           memory-map input and output; needs --in and --out",
+            "  -q, --quiet          do not print the summary to stderr");
+
     /**
-     * Entry point when this program is run directly. Not used within
-     * the coursework, but is available for those who would like to
-     * test or debug themselves. Nothing in this file will be marked.
+     * Entry point when this program is run directly.
      *
-     * @param args Command line arguments - not used in this coursework
+     * @param args Command line arguments, see the class description
      */
     public static void main(String[] args) {
-        // Example: create cipher with a zero key, encrypt a zero block
-        CASTCipher c384 = new CAST384();
-        c384.initialise(new byte[48]);
-        c384.encrypt(new byte[24]);
+        System.exit(run(args, System.in, System.out, System.err));
+    }
+
+    /**
+     * Runs the tool as main does, but on the given standard streams, and
+     * returns the exit status instead of exiting: 0 on success, 1 if the
+     * run fails, 2 for bad options. stdin and stdout stand in for missing
+     * --in and --out and are flushed but not closed.
+     */
+    public static int run(String[] args, InputStream stdin, PrintStream stdout, PrintStream stderr) {
+        try {
+            Options options;
+            try {
+                options = Options.parse(args);
+            } catch (IllegalArgumentException e) {
+                // only bad options earn the usage text; failures once the
+                // run has started are not the user's typing
+                stderr.println("error: " + e.getMessage());
+                stderr.println(USAGE);
+                return EXIT_USAGE;
+            }
+            return run(options, stdin, stdout, stderr);
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            stderr.println("error: " + e.getMessage());
+            return EXIT_FAILURE;
+        }
+    }
+
+    private static int run(Options options, InputStream stdin, PrintStream stdout, PrintStream stderr)
+            throws IOException {
+        if (options.help) {
+            stdout.println(USAGE);
+            return 0;
+        }
+
+        long startNanos = System.nanoTime();
+        long startCpu = processCpuNanos();
+        long startGcMillis = gcMillis();
+        long startGcCount = gcCount();
+
+        // pick the engine before anything is opened or written, so a bad
+        // engine property leaves no stray nonce or truncated output behind
+        CAST384 cipher = EngineRegistry.newCipher();
+        cipher.initialise(options.key);
+
+        long bytes = options.mmap ? runMapped(options, cipher) : runStreaming(options, cipher, stdin, stdout);
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long cpuNanos = processCpuNanos() - startCpu;
+        long gcMillis = gcMillis() - startGcMillis;
+        long gcCount = gcCount() - startGcCount;
+
+        if (!options.quiet) {
+            stderr.println(summary(options.encrypt, bytes, elapsedNanos, cpuNanos, gcMillis, gcCount));
+        }
+        return 0;
+    }
+
+    private static long runStreaming(Options options, CAST384 cipher, InputStream stdin, OutputStream stdout)
+            throws IOException {
+        // only files opened here are closed here
+        try (InputStream file = options.in == null ? null : Files.newInputStream(options.in);
+             OutputStream fileOut = options.out == null ? null : Files.newOutputStream(options.out)) {
+            InputStream in = file != null ? file : new BufferedInputStream(stdin, 1 << 16);
+            OutputStream out = fileOut != null ? fileOut : new BufferedOutputStream(stdout, 1 << 16);
+
+            byte[] nonce = options.nonce;
+            if (nonce == null && options.encrypt) {
+                nonce = randomNonce();
+                out.write(nonce);
+            } else if (nonce == null) {
+                nonce = in.readNBytes(NONCE_SIZE);
+                if (nonce.length != NONCE_SIZE) {
+                    throw new IOException("Input is too short to hold a nonce");
+                }
+            }
+
+            try (ParallelCTREngine engine = engine(options, cipher, nonce)) {
+                long bytes = engine.transform(in, out, 0);
+                out.flush();
+                return bytes;
+            }
+        }
+    }
+
+    private static long runMapped(Options options, CAST384 cipher) throws IOException {
+        long inputStart = 0;
+        long outputStart = 0;
+
+        byte[] nonce = options.nonce;
+        if (nonce == null && options.encrypt) {
+            nonce = randomNonce();
+            Files.write(options.out, nonce);
+            outputStart = NONCE_SIZE;
+        } else if (nonce == null) {
+            try (InputStream in = Files.newInputStream(options.in)) {
+                nonce = in.readNBytes(NONCE_SIZE);
+            }
+            if (nonce.length != NONCE_SIZE) {
+                throw new IOException("Input is too short to hold a nonce");
+            }
+            inputStart = NONCE_SIZE;
+        }
+
+        try (ParallelCTREngine engine = engine(options, cipher, nonce)) {
+            return engine.transform(options.in, inputStart, options.out, outputStart);
+        }
+    }
+
+    private static ParallelCTREngine engine(Options options, CAST384 cipher, byte[] nonce) {
+        return new ParallelCTREngine(new CTRSession(cipher, nonce), options.threads, options.chunkSize);
+    }
+
+    private static byte[] randomNonce() {
+        byte[] nonce = new byte[NONCE_SIZE];
+        new SecureRandom().nextBytes(nonce);
+        return nonce;
+    }
+
+    static String summary(boolean encrypt, long bytes, long elapsedNanos, long cpuNanos,
+                          long gcMillis, long gcCount) {
+        double seconds = elapsedNanos / 1e9;
+        double mebibytes = bytes / (double) (1 << 20);
+        StringBuilder line = new StringBuilder(String.format(Locale.ROOT,
+                "%s %d bytes in %.3f s: %.1f MiB/s",
+                encrypt ? "encrypted" : "decrypted", bytes, seconds,
+                seconds > 0 ? mebibytes / seconds : 0.0));
+
+        if (cpuNanos >= 0) {
+            line.append(String.format(Locale.ROOT, ", CPU %.3f s (%.0f%%)",
+                    cpuNanos / 1e9, elapsedNanos > 0 ? 100.0 * cpuNanos / elapsedNanos : 0.0));
+        }
+        line.append(String.format(Locale.ROOT, ", GC %d ms in %d collections", gcMillis, gcCount));
+        return line.toString();
+    }
+
+    private static long processCpuNanos() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    static final class Options {
+        boolean help;
+        boolean encrypt;
+        byte[] key;
+        byte[] nonce;
+        Path in;
+        Path out;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunkSize = ParallelCTREngine.DEFAULT_CHUNK_SIZE;
+        boolean mmap;
+        boolean quiet;
+
+        static Options parse(String[] args) throws IOException {
+            Options options = new Options();
+            if (args.length == 0) {
+                throw new IllegalArgumentException("missing command");
+            }
+
+            int i = 0;
+            switch (args[i++]) {
+                case "encrypt":
+                    options.encrypt = true;
+                    break;
+                case "decrypt":
+                    options.encrypt = false;
+                    break;
+                case "-h":
+                case "--help":
+                    options.help = true;
+                    return options;
+                default:
+                    throw new IllegalArgumentException("unknown command " + args[0]);
+            }
+
+            while (i < args.length) {
+                String arg = args[i++];
+                switch (arg) {
+                    case "-k":
+                    case "--key":
+                        options.key = parseHex(value(args, i++, arg), "key");
+                        break;
+                    case "--key-file":
+                        options.key = Files.readAllBytes(Paths.get(value(args, i++, arg)));
+                        break;
+                    case "-n":
+                    case "--nonce":
+                        options.nonce = parseHex(value(args, i++, arg), "nonce");
+                        break;
+                    case "-i":
+                    case "--in":
+                        options.in = path(value(args, i++, arg));
+                        break;
+                    case "-o":
+                    case "--out":
+                        options.out = path(value(args, i++, arg));
+                        break;
+                    case "-t":
+                    case "--threads":
+                        options.threads = parseThreads(value(args, i++, arg), arg);
+                        break;
+                    case "-c":
+                    case "--chunk":
+                        options.chunkSize = parseSize(value(args, i++, arg), arg);
+                        break;
+                    case "--mmap":
+                        options.mmap = true;
+                        break;
+                    case "-q":
+                    case "--quiet":
+                        options.quiet = true;
+                        break;
+                    case "-h":
+                    case "--help":
+                        options.help = true;
+                        return options;
+                    default:
+                        throw new IllegalArgumentException("unknown option " + arg);
+                }
+            }
+
+            options.validate();
+            return options;
+        }
+
+        private void validate() throws IOException {
+            if (key == null) {
+                throw new IllegalArgumentException("a key is required");
+            }
+            if (key.length != 16 && key.length != 24 && key.length != 32 && key.length != 48) {
+                throw new IllegalArgumentException("key must be 16, 24, 32 or 48 bytes, got " + key.length);
+            }
+            if (nonce != null && nonce.length != NONCE_SIZE) {
+                throw new IllegalArgumentException("nonce must be " + NONCE_SIZE + " bytes, got " + nonce.length);
+            }
+            if (chunkSize < CTRMode.BLOCK_SIZE) {
+                throw new IllegalArgumentException("chunk size must be at least " + CTRMode.BLOCK_SIZE + " bytes");
+            }
+            if (mmap && (in == null || out == null)) {
+                throw new IllegalArgumentException("--mmap needs both --in and --out");
+            }
+            if (in != null && out != null && Files.exists(out) && Files.isSameFile(in, out)) {
+                throw new IllegalArgumentException("input and output must be different files");
+            }
+        }
+
+        private static String value(String[] args, int index, String option) {
+            if (index >= args.length) {
+                throw new IllegalArgumentException(option + " needs a value");
+            }
+            return args[index];
+        }
+
+        private static Path path(String value) {
+            return "-".equals(value) ? null : Paths.get(value);
+        }
+
+        static byte[] parseHex(String value, String what) {
+            if (value.length() % 2 != 0 || !value.matches("[0-9a-fA-F]*")) {
+                throw new IllegalArgumentException(what + " must be an even number of hex digits");
+            }
+            return HexUtils.hexToBytes(value);
+        }
+
+        static int parseThreads(String value, String option) {
+            try {
+                int threads = Integer.parseInt(value);
+                if (threads < 1 || threads > MAX_THREADS) {
+                    throw new IllegalArgumentException(option + " is out of range: " + value);
+                }
+                return threads;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(option + " is not a number: " + value);
+            }
+        }
+
+        static int parseSize(String value, String option) {
+            long multiplier = 1;
+            String digits = value;
+            if (!value.isEmpty()) {
+                switch (Character.toUpperCase(value.charAt(value.length() - 1))) {
+                    case 'K':
+                        multiplier = 1L << 10;
+                        break;
+                    case 'M':
+                        multiplier = 1L << 20;
+                        break;
+                    case 'G':
+                        multiplier = 1L << 30;
+                        break;
+                    default:
+                        break;
+                }
+                if (multiplier != 1) {
+                    digits = value.substring(0, value.length() - 1);
+                }
+            }
 
-        // You can add testing code here
+            try {
+                long size = Math.multiplyExact(Long.parseLong(digits), multiplier);
+                if (size <= 0 || size > Integer.MAX_VALUE - 8) {
+                    throw new IllegalArgumentException(option + " is out of range: " + value);
+                }
+                return (int) size;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(option + " is not a number: " + value);
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException(option + " is out of range: " + value);
+            }
+        }
     }
 }
@@ -0,0 +1,23 @@
+package uk.ac.nottingham.cryptography;
+
+/**
+ * Interface implemented by ciphers that can encrypt and decrypt several
+ * consecutive blocks of a buffer in one call. Modes use this bulk path
+ * where it is available, and fall back to block-at-a-time calls on the
+ * underlying Cipher otherwise.
+ * <br/>
+ * Once initialised, implementations must only read their key schedule in
+ * these methods, so that calls on distinct buffers can run concurrently.
+ */
+public interface MultiBlockCipher {
+
+    /**
+     * Encrypts blockCount consecutive blocks in place, starting at offset.
+     */
+    void encryptBlocks(byte[] data, int offset, int blockCount);
+
+    /**
+     * Decrypts blockCount consecutive blocks in place, starting at offset.
+     */
+    void decryptBlocks(byte[] data, int offset, int blockCount);
+}
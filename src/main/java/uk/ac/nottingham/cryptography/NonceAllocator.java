@@ -0,0 +1,178 @@
+package uk.ac.nottingham.cryptography;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates unique 16-byte CTR nonces: an 8-byte per-node prefix followed
+ * by an 8-byte counter. Each thread reserves a block of counter values
+ * from a shared AtomicLong and hands them out locally, so the hot path is
+ * a thread-local increment with no contended CAS.
+ * <br/>
+ * When a high-water file is given, the allocator persists a limit ahead of
+ * every value it reserves, stepping it forward in large jumps so writes
+ * are rare. On restart it resumes from the stored limit, so no nonce is
+ * reused even after a crash; values reserved but unused before the crash
+ * are skipped. Prefixes must be unique per node, and only one allocator
+ * may use a given file at a time.
+ */
+public class NonceAllocator {
+
+    public static final int PREFIX_SIZE = 8;
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    private static final int NONCE_SIZE = CTRMode.NONCE_SIZE;
+
+    // how far past the current reservation the persisted limit is moved
+    private static final long PERSIST_STEP = 1L << 20;
+
+    private final byte[] prefix;
+    private final Path highWaterFile;
+    private final int blockSize;
+    private final AtomicLong next;
+    private volatile long persistedLimit;
+
+    private final ThreadLocal<long[]> reservation = ThreadLocal.withInitial(() -> new long[2]);
+
+    /**
+     * Creates an allocator that keeps no state across restarts.
+     */
+    public NonceAllocator(byte[] prefix) {
+        this(prefix, null, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates an allocator that resumes from, and persists to, highWaterFile.
+     */
+    public NonceAllocator(byte[] prefix, Path highWaterFile) {
+        this(prefix, highWaterFile, DEFAULT_BLOCK_SIZE);
+    }
+
+    public NonceAllocator(byte[] prefix, Path highWaterFile, int blockSize) {
+        if (prefix.length != PREFIX_SIZE) {
+            throw new IllegalArgumentException("Node prefix must be " + PREFIX_SIZE + " bytes, got " + prefix.length);
+        }
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+
+        this.prefix = prefix.clone();
+        this.highWaterFile = highWaterFile;
+        this.blockSize = blockSize;
+
+        long start = highWaterFile == null ? 0 : readHighWater(highWaterFile);
+        this.next = new AtomicLong(start);
+        this.persistedLimit = start;
+    }
+
+    /**
+     * Returns a new nonce.
+     */
+    public byte[] next() {
+        byte[] nonce = new byte[NONCE_SIZE];
+        next(nonce, 0);
+        return nonce;
+    }
+
+    /**
+     * Writes a new nonce into dest at offset without allocating.
+     */
+    public void next(byte[] dest, int offset) {
+        // [0] is the next value of this thread's block, [1] its end
+        long[] block = reservation.get();
+        if (block[0] == block[1]) {
+            reserve(block);
+        }
+        long value = block[0]++;
+
+        System.arraycopy(prefix, 0, dest, offset, PREFIX_SIZE);
+        for (int j = 0; j < 8; j++) {
+            dest[offset + PREFIX_SIZE + j] = (byte) (value >>> (56 - 8 * j));
+        }
+    }
+
+    /**
+     * The value from which the next restart would resume.
+     */
+    public long getPersistedLimit() {
+        return persistedLimit;
+    }
+
+    private void reserve(long[] block) {
+        long start = next.getAndAdd(blockSize);
+        long end = start + blockSize;
+        if (start < 0 || end < 0) {
+            throw new IllegalStateException("Nonce counter exhausted for this prefix");
+        }
+
+        if (highWaterFile != null && end > persistedLimit) {
+            persist(end);
+        }
+
+        block[0] = start;
+        block[1] = end;
+    }
+
+    private synchronized void persist(long end) {
+        if (end <= persistedLimit) {
+            return; // another thread moved the limit past us
+        }
+
+        long limit = Math.max(end, persistedLimit + PERSIST_STEP);
+        if (limit < 0) {
+            limit = Long.MAX_VALUE;
+        }
+        writeHighWater(highWaterFile, limit);
+        persistedLimit = limit;
+    }
+
+    private static long readHighWater(Path file) {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        try {
+            return Long.parseLong(Files.readString(file, StandardCharsets.US_ASCII).trim());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read nonce high-water mark from " + file, e);
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("Corrupt nonce high-water mark in " + file, e);
+        }
+    }
+
+    private static void writeHighWater(Path file, long limit) {
+        // write a sibling file and move it over, so a crash mid-write
+        // leaves the old limit in place rather than a torn one
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(ByteBuffer.wrap(Long.toString(limit).getBytes(StandardCharsets.US_ASCII)));
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not persist nonce high-water mark to " + file, e);
+        }
+        forceDirectory(file.toAbsolutePath().getParent());
+    }
+
+    private static void forceDirectory(Path directory) {
+        // the rename lives in the directory, and without this a power loss
+        // can undo it and bring back the older, lower limit
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // some platforms, Windows among them, cannot open or sync a
+            // directory; the rename is as durable as they allow already
+        }
+    }
+}
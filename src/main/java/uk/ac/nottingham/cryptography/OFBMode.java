@@ -0,0 +1,253 @@
+package uk.ac.nottingham.cryptography;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Implementation of CipherMode that performs encryption and decryption
+ * using Output Feedback mode (OFB) with an underlying Cipher. The nonce
+ * passed to initialise is the IV and must be one block long.
+ * <br/>
+ * The OFB keystream does not depend on the data, so it can be computed
+ * ahead of time. This mode keeps up to a fixed number of keystream bytes
+ * in a ring buffer, filled by precompute() or, when an Executor is given,
+ * in the background whenever the buffer drops below half full. Bytes that
+ * are already buffered when encrypt is called are a pure XOR; the rest are
+ * generated on demand. getPrecomputedHitRatio() reports the split.
+ */
+public class OFBMode extends CipherMode {
+
+    private static final int BLOCK_SIZE = 24;
+
+    // blocks generated per step of a background fill, between which
+    // encrypt calls can take the lock
+    private static final int FILL_CHUNK_BLOCKS = 64;
+
+    private final Executor refillExecutor;
+    private final byte[] ring;
+    private int head;
+    private int size;
+
+    private Cipher cipher;
+    private final byte[] feedback = new byte[BLOCK_SIZE];
+
+    // bumped on initialise so fills started for an old key/IV stop
+    private int generation;
+    private boolean refillScheduled;
+
+    private long precomputedBytes;
+    private long onDemandBytes;
+
+    public OFBMode() {
+        this(0, null);
+    }
+
+    /**
+     * Creates a mode that buffers up to capacityBytes of keystream, filled
+     * only by explicit precompute() calls.
+     */
+    public OFBMode(int capacityBytes) {
+        this(capacityBytes, null);
+    }
+
+    /**
+     * Creates a mode that buffers up to capacityBytes of keystream and
+     * refills it on refillExecutor whenever it drops below half full.
+     */
+    public OFBMode(int capacityBytes, Executor refillExecutor) {
+        super();
+        if (capacityBytes < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative: " + capacityBytes);
+        }
+
+        // round up to whole blocks, with room for at least the current one
+        int blocks = Math.max(1, (capacityBytes + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        this.ring = new byte[blocks * BLOCK_SIZE];
+        this.refillExecutor = refillExecutor;
+    }
+
+    @Override
+    public void initialise(Cipher cipher, byte[] key, byte[] nonce) {
+        if (nonce.length != BLOCK_SIZE) {
+            throw new IllegalArgumentException("OFB IV must be " + BLOCK_SIZE + " bytes, got " + nonce.length);
+        }
+
+        synchronized (this) {
+            // store cipher and IV, drop keystream buffered for the old ones
+            this.cipher = cipher;
+            System.arraycopy(nonce, 0, feedback, 0, BLOCK_SIZE);
+            this.head = 0;
+            this.size = 0;
+            this.generation++;
+            this.refillScheduled = false;
+
+            // initialise block cipher with key
+            cipher.initialise(key);
+
+            scheduleRefill();
+        }
+    }
+
+    /**
+     * Restarts the keystream from a new IV under the key already set by
+     * initialise, without rerunning the key schedule.
+     */
+    public void reset(byte[] iv) {
+        if (iv.length != BLOCK_SIZE) {
+            throw new IllegalArgumentException("OFB IV must be " + BLOCK_SIZE + " bytes, got " + iv.length);
+        }
+
+        synchronized (this) {
+            if (cipher == null) {
+                throw new IllegalStateException("OFBMode must be initialised before reset");
+            }
+            System.arraycopy(iv, 0, feedback, 0, BLOCK_SIZE);
+            this.head = 0;
+            this.size = 0;
+            this.generation++;
+            this.refillScheduled = false;
+
+            scheduleRefill();
+        }
+    }
+
+    /**
+     * Fills the keystream buffer to capacity on the calling thread, e.g.
+     * while the link is idle.
+     */
+    public synchronized void precompute() {
+        if (cipher == null) {
+            throw new IllegalStateException("OFBMode must be initialised before precompute");
+        }
+        int free = (ring.length - size) / BLOCK_SIZE;
+        generateBlocks(free);
+    }
+
+    @Override
+    public void encrypt(byte[] data) {
+        encrypt(data, 0, data.length);
+    }
+
+    /**
+     * Encrypts length bytes of data in place, starting at offset.
+     */
+    public synchronized void encrypt(byte[] data, int offset, int length) {
+        int hit = Math.min(size, length);
+        precomputedBytes += hit;
+        onDemandBytes += length - hit;
+
+        int done = 0;
+        while (done < length) {
+            if (size == 0) {
+                generateBlocks(1);
+            }
+
+            // contiguous run of buffered keystream from the head
+            int count = Math.min(Math.min(size, ring.length - head), length - done);
+            for (int j = 0; j < count; j++) {
+                data[offset + done + j] ^= ring[head + j];
+            }
+
+            head = (head + count) % ring.length;
+            size -= count;
+            done += count;
+        }
+
+        scheduleRefill();
+    }
+
+    @Override
+    public void decrypt(byte[] data) {
+        encrypt(data); // same as encryption
+    }
+
+    public void decrypt(byte[] data, int offset, int length) {
+        encrypt(data, offset, length); // same as encryption
+    }
+
+    @Override
+    public void seek(byte[] counter) {
+        throw new UnsupportedOperationException("OFB mode does not support seeking");
+    }
+
+    /**
+     * Fraction of encrypted bytes that were served from precomputed
+     * keystream rather than generated on demand.
+     */
+    public synchronized double getPrecomputedHitRatio() {
+        long total = precomputedBytes + onDemandBytes;
+        return total == 0 ? 0.0 : (double) precomputedBytes / total;
+    }
+
+    public synchronized long getPrecomputedBytes() {
+        return precomputedBytes;
+    }
+
+    public synchronized long getOnDemandBytes() {
+        return onDemandBytes;
+    }
+
+    /**
+     * Keystream bytes currently buffered ahead of the stream position.
+     */
+    public synchronized int getBufferedBytes() {
+        return size;
+    }
+
+    private void scheduleRefill() {
+        if (refillExecutor == null || refillScheduled || cipher == null || size >= ring.length / 2) {
+            return;
+        }
+
+        refillScheduled = true;
+        int scheduledGeneration = generation;
+        try {
+            refillExecutor.execute(() -> refill(scheduledGeneration));
+        } catch (RejectedExecutionException e) {
+            // e.g. a pool shut down or saturated: fill here instead, and let
+            // the next call try the executor again
+            refillScheduled = false;
+            generateBlocks((ring.length - size) / BLOCK_SIZE);
+        }
+    }
+
+    private void refill(int scheduledGeneration) {
+        // fill in chunks, releasing the lock in between so that encrypt
+        // calls are never held up for a whole buffer
+        while (true) {
+            synchronized (this) {
+                if (scheduledGeneration != generation) {
+                    return;
+                }
+
+                int free = (ring.length - size) / BLOCK_SIZE;
+                if (free == 0) {
+                    refillScheduled = false;
+                    return;
+                }
+                generateBlocks(Math.min(free, FILL_CHUNK_BLOCKS));
+            }
+        }
+    }
+
+    private void generateBlocks(int blockCount) {
+        for (int i = 0; i < blockCount; i++) {
+            // each output block is the encryption of the previous one
+            encryptBlock(feedback);
+
+            int tail = (head + size) % ring.length;
+            int first = Math.min(BLOCK_SIZE, ring.length - tail);
+            System.arraycopy(feedback, 0, ring, tail, first);
+            System.arraycopy(feedback, first, ring, 0, BLOCK_SIZE - first);
+            size += BLOCK_SIZE;
+        }
+    }
+
+    private void encryptBlock(byte[] block) {
+        if (cipher instanceof MultiBlockCipher) {
+            ((MultiBlockCipher) cipher).encryptBlocks(block, 0, 1);
+        } else {
+            cipher.encrypt(block);
+        }
+    }
+}
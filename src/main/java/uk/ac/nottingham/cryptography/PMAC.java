@@ -0,0 +1,304 @@
+package uk.ac.nottingham.cryptography;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parallelisable message authentication code in the style of PMAC1,
+ * built on a 24-byte block cipher. Every block except the last is masked
+ * with an offset derived from its index and encrypted independently, and
+ * the results are XORed together; only the final tag encryption depends
+ * on the whole message. Large updates therefore go through the cipher's
+ * multi-block path and are split across a ForkJoinPool.
+ * <br/>
+ * Offsets are gray(i)·L in GF(2^192) modulo x^192 + x^7 + x^2 + x + 1,
+ * where L is the encryption of the zero block, using the big-endian bit
+ * order of PMAC. A full final block is masked with L·x^-1, and a partial
+ * one is padded with a single 1 bit followed by zeros. The tag is one
+ * block long; callers may truncate it.
+ * <br/>
+ * Use update any number of times, then doFinal, which returns the tag and
+ * readies the MAC for the next message under the same key.
+ */
+public class PMAC {
+
+    public static final int TAG_SIZE = 24;
+
+    private static final int BLOCK_SIZE = 24;
+    private static final int REDUCTION = 0x87;
+
+    // blocks masked and encrypted per bulk cipher call
+    private static final int SCRATCH_BLOCKS = 64;
+
+    // updates with at least this many blocks are spread over the pool
+    private static final int PARALLEL_THRESHOLD_BLOCKS = 4096;
+
+    // largest run of blocks handled by a single parallel task
+    private static final int PARALLEL_CHUNK_BLOCKS = 1024;
+
+    private final ForkJoinPool pool;
+
+    private Cipher cipher;
+
+    // L·x^j for j = 0..63, three big-endian longs each
+    private final long[] offsets = new long[64 * 3];
+    private final long[] lastMask = new long[3];
+
+    private final long[] sigma = new long[3];
+    private long blockIndex;
+    private final byte[] pending = new byte[BLOCK_SIZE];
+    private int pendingLength;
+    private final byte[] scratch = new byte[SCRATCH_BLOCKS * BLOCK_SIZE];
+
+    public PMAC() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public PMAC(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public void initialise(Cipher cipher, byte[] key) {
+        this.cipher = cipher;
+        cipher.initialise(key);
+
+        // L = E(0), then the doubling table and L·x^-1
+        byte[] block = new byte[BLOCK_SIZE];
+        encryptBlocks(block, 0, 1);
+        long[] value = { readLong(block, 0), readLong(block, 8), readLong(block, 16) };
+
+        for (int j = 0; j < 64; j++) {
+            System.arraycopy(value, 0, offsets, j * 3, 3);
+            multiplyByX(value);
+        }
+
+        System.arraycopy(offsets, 0, lastMask, 0, 3);
+        divideByX(lastMask);
+
+        resetMessage();
+    }
+
+    public void update(byte[] data) {
+        update(data, 0, data.length);
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        if (cipher == null) {
+            throw new IllegalStateException("PMAC must be initialised before update");
+        }
+        if (length == 0) {
+            return;
+        }
+
+        // top up the held back block; it can only be processed once we
+        // know it is not the last one
+        if (pendingLength > 0) {
+            int count = Math.min(BLOCK_SIZE - pendingLength, length);
+            System.arraycopy(data, offset, pending, pendingLength, count);
+            pendingLength += count;
+            offset += count;
+            length -= count;
+
+            if (length == 0) {
+                return;
+            }
+            xorInto(sigma, processRange(pending, 0, blockIndex + 1, 1, scratch));
+            blockIndex++;
+            pendingLength = 0;
+        }
+
+        // everything but the final 1..24 bytes can be processed now
+        int blocks = (length - 1) / BLOCK_SIZE;
+        if (blocks >= PARALLEL_THRESHOLD_BLOCKS && cipher instanceof MultiBlockCipher) {
+            xorInto(sigma, pool.invoke(new RangeTask(data, offset, blockIndex + 1, blocks)));
+        } else {
+            xorInto(sigma, processRange(data, offset, blockIndex + 1, blocks, scratch));
+        }
+        blockIndex += blocks;
+
+        int rest = length - blocks * BLOCK_SIZE;
+        System.arraycopy(data, offset + blocks * BLOCK_SIZE, pending, 0, rest);
+        pendingLength = rest;
+    }
+
+    /**
+     * Finishes the message and returns its tag.
+     */
+    public byte[] doFinal() {
+        if (cipher == null) {
+            throw new IllegalStateException("PMAC must be initialised before doFinal");
+        }
+
+        long[] last = new long[3];
+        if (pendingLength == BLOCK_SIZE) {
+            System.arraycopy(lastMask, 0, last, 0, 3);
+        } else {
+            pending[pendingLength] = (byte) 0x80;
+            for (int i = pendingLength + 1; i < BLOCK_SIZE; i++) {
+                pending[i] = 0;
+            }
+        }
+        last[0] ^= readLong(pending, 0) ^ sigma[0];
+        last[1] ^= readLong(pending, 8) ^ sigma[1];
+        last[2] ^= readLong(pending, 16) ^ sigma[2];
+
+        byte[] tag = new byte[TAG_SIZE];
+        writeLong(tag, 0, last[0]);
+        writeLong(tag, 8, last[1]);
+        writeLong(tag, 16, last[2]);
+        encryptBlocks(tag, 0, 1);
+
+        resetMessage();
+        return tag;
+    }
+
+    private void resetMessage() {
+        sigma[0] = 0;
+        sigma[1] = 0;
+        sigma[2] = 0;
+        blockIndex = 0;
+        pendingLength = 0;
+    }
+
+    /**
+     * Masks, encrypts and XORs together count blocks of data, the first of
+     * which has index firstIndex (counting from 1).
+     */
+    private long[] processRange(byte[] data, int offset, long firstIndex, int count, byte[] buffer) {
+        long[] sum = new long[3];
+        long[] delta = offsetFor(firstIndex);
+        long index = firstIndex;
+        int done = 0;
+
+        while (done < count) {
+            int blocks = Math.min(SCRATCH_BLOCKS, count - done);
+
+            for (int b = 0; b < blocks; b++, index++) {
+                if (b > 0 || done > 0) {
+                    // next offset differs by L·x^ntz(i)
+                    int j = Long.numberOfTrailingZeros(index) * 3;
+                    delta[0] ^= offsets[j];
+                    delta[1] ^= offsets[j + 1];
+                    delta[2] ^= offsets[j + 2];
+                }
+
+                int from = offset + (done + b) * BLOCK_SIZE;
+                int to = b * BLOCK_SIZE;
+                writeLong(buffer, to, readLong(data, from) ^ delta[0]);
+                writeLong(buffer, to + 8, readLong(data, from + 8) ^ delta[1]);
+                writeLong(buffer, to + 16, readLong(data, from + 16) ^ delta[2]);
+            }
+
+            encryptBlocks(buffer, 0, blocks);
+
+            for (int b = 0; b < blocks; b++) {
+                sum[0] ^= readLong(buffer, b * BLOCK_SIZE);
+                sum[1] ^= readLong(buffer, b * BLOCK_SIZE + 8);
+                sum[2] ^= readLong(buffer, b * BLOCK_SIZE + 16);
+            }
+            done += blocks;
+        }
+
+        return sum;
+    }
+
+    private final class RangeTask extends RecursiveTask<long[]> {
+        private final byte[] data;
+        private final int offset;
+        private final long firstIndex;
+        private final int count;
+
+        RangeTask(byte[] data, int offset, long firstIndex, int count) {
+            this.data = data;
+            this.offset = offset;
+            this.firstIndex = firstIndex;
+            this.count = count;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (count <= PARALLEL_CHUNK_BLOCKS) {
+                return processRange(data, offset, firstIndex, count, new byte[SCRATCH_BLOCKS * BLOCK_SIZE]);
+            }
+
+            int half = count / 2;
+            RangeTask right = new RangeTask(data, offset + half * BLOCK_SIZE, firstIndex + half, count - half);
+            right.fork();
+            long[] sum = new RangeTask(data, offset, firstIndex, half).compute();
+            xorInto(sum, right.join());
+            return sum;
+        }
+    }
+
+    private long[] offsetFor(long index) {
+        // gray(i)·L, from the doubling table
+        long gray = index ^ (index >>> 1);
+        long[] delta = new long[3];
+        for (int j = 0; gray != 0; j++, gray >>>= 1) {
+            if ((gray & 1) != 0) {
+                delta[0] ^= offsets[j * 3];
+                delta[1] ^= offsets[j * 3 + 1];
+                delta[2] ^= offsets[j * 3 + 2];
+            }
+        }
+        return delta;
+    }
+
+    private void encryptBlocks(byte[] buffer, int offset, int blockCount) {
+        if (cipher instanceof MultiBlockCipher) {
+            ((MultiBlockCipher) cipher).encryptBlocks(buffer, offset, blockCount);
+            return;
+        }
+
+        // block-at-a-time fallback for ciphers without a bulk path
+        byte[] block = new byte[BLOCK_SIZE];
+        for (int i = 0; i < blockCount; i++) {
+            System.arraycopy(buffer, offset + i * BLOCK_SIZE, block, 0, BLOCK_SIZE);
+            cipher.encrypt(block);
+            System.arraycopy(block, 0, buffer, offset + i * BLOCK_SIZE, BLOCK_SIZE);
+        }
+    }
+
+    private static void multiplyByX(long[] value) {
+        boolean carry = value[0] < 0;
+        value[0] = (value[0] << 1) | (value[1] >>> 63);
+        value[1] = (value[1] << 1) | (value[2] >>> 63);
+        value[2] = value[2] << 1;
+        if (carry) {
+            value[2] ^= REDUCTION;
+        }
+    }
+
+    private static void divideByX(long[] value) {
+        boolean odd = (value[2] & 1) != 0;
+        if (odd) {
+            value[2] ^= REDUCTION;
+        }
+        value[2] = (value[2] >>> 1) | (value[1] << 63);
+        value[1] = (value[1] >>> 1) | (value[0] << 63);
+        value[0] = value[0] >>> 1;
+        if (odd) {
+            value[0] |= Long.MIN_VALUE;
+        }
+    }
+
+    private static void xorInto(long[] target, long[] value) {
+        target[0] ^= value[0];
+        target[1] ^= value[1];
+        target[2] ^= value[2];
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void writeLong(byte[] data, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            data[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package uk.ac.nottingham.cryptography;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Encrypts or decrypts whole streams and files with one CTR keystream,
+ * splitting the data into fixed-size chunks that are processed on a pool
+ * of worker threads. Every chunk knows its own stream offset, so workers
+ * derive their keystream independently through a CTRSession and the
+ * output is identical to a single CTRMode pass.
+ * <br/>
+ * Streams are read on the calling thread into a ring of reusable buffers,
+ * at most two per worker in flight, and written back in order. Files can
+ * instead be memory-mapped, in which case each worker maps, transforms and
+ * stores its own chunk without going through the calling thread. An
+ * engine runs one transform at a time.
+ */
+public class ParallelCTREngine implements AutoCloseable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+    private static final int BLOCK_SIZE = CTRMode.BLOCK_SIZE;
+
+    private final CTRSession session;
+    private final int chunkSize;
+    private final ExecutorService pool;
+    private final byte[][] buffers;
+    private final ThreadLocal<byte[]> mappedScratch;
+
+    /**
+     * Creates an engine over the keystream of session. chunkSize is rounded
+     * down to whole cipher blocks.
+     */
+    public ParallelCTREngine(CTRSession session, int threads, int chunkSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        }
+        if (chunkSize < BLOCK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be at least one block: " + chunkSize);
+        }
+
+        this.session = session;
+        this.chunkSize = chunkSize - chunkSize % BLOCK_SIZE;
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "ctr-engine");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.buffers = new byte[2 * threads][];
+        this.mappedScratch = ThreadLocal.withInitial(() -> new byte[this.chunkSize]);
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Transforms everything read from in until end of stream and writes
+     * it to out. The first byte read is at streamOffset of the keystream.
+     * Returns the number of bytes processed. Neither stream is closed.
+     */
+    public long transform(InputStream in, OutputStream out, long streamOffset) throws IOException {
+        ArrayDeque<Future<Integer>> inflight = new ArrayDeque<>();
+        long offset = streamOffset;
+        int next = 0;
+
+        try {
+            while (true) {
+                // the oldest chunk in flight owns the buffer we want next
+                if (inflight.size() == buffers.length) {
+                    writeOldest(inflight, out, next);
+                }
+                if (buffers[next] == null) {
+                    buffers[next] = new byte[chunkSize];
+                }
+
+                byte[] buffer = buffers[next];
+                int length = in.readNBytes(buffer, 0, chunkSize);
+                if (length == 0) {
+                    break;
+                }
+
+                long position = offset;
+                inflight.add(pool.submit(() -> {
+                    session.xorAt(position, buffer, 0, length);
+                    return length;
+                }));
+                offset += length;
+                next = (next + 1) % buffers.length;
+
+                if (length < chunkSize) {
+                    break;
+                }
+            }
+
+            while (!inflight.isEmpty()) {
+                writeOldest(inflight, out, next);
+            }
+        } finally {
+            for (Future<Integer> future : inflight) {
+                future.cancel(false);
+            }
+        }
+
+        out.flush();
+        return offset - streamOffset;
+    }
+
+    /**
+     * Transforms input, from inputStart to its end, into output starting
+     * at outputStart, through memory mappings of both files. output is
+     * created or extended as needed. The byte at inputStart is at offset
+     * zero of the keystream. Returns the number of bytes processed.
+     */
+    public long transform(Path input, long inputStart, Path output, long outputStart) throws IOException {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long total = Math.max(0, in.size() - inputStart);
+            out.truncate(outputStart + total);
+
+            List<Future<?>> tasks = new ArrayList<>();
+            try {
+                for (long position = 0; position < total; position += chunkSize) {
+                    long chunkStart = position;
+                    int length = (int) Math.min(chunkSize, total - position);
+                    tasks.add(pool.submit(() -> {
+                        transformMapped(in, inputStart + chunkStart, out, outputStart + chunkStart,
+                                chunkStart, length);
+                        return null;
+                    }));
+                }
+
+                for (Future<?> task : tasks) {
+                    await(task);
+                }
+            } finally {
+                for (Future<?> task : tasks) {
+                    task.cancel(false);
+                }
+            }
+
+            out.force(false);
+            return total;
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private void transformMapped(FileChannel in, long inputPosition, FileChannel out, long outputPosition,
+                                 long streamOffset, int length) {
+        try {
+            MappedByteBuffer source = in.map(FileChannel.MapMode.READ_ONLY, inputPosition, length);
+            MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE, outputPosition, length);
+
+            byte[] buffer = mappedScratch.get();
+            source.get(buffer, 0, length);
+            session.xorAt(streamOffset, buffer, 0, length);
+            target.put(buffer, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeOldest(ArrayDeque<Future<Integer>> inflight, OutputStream out, int next) throws IOException {
+        // chunks are queued in ring order, so the oldest used the buffer
+        // inflight.size() slots behind next
+        int index = Math.floorMod(next - inflight.size(), buffers.length);
+        int length = await(inflight.poll());
+        out.write(buffers[index], 0, length);
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a chunk");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
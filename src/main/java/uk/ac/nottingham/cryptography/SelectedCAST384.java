@@ -0,0 +1,67 @@
+package uk.ac.nottingham.cryptography;
+
+/**
+ * The CASTCipher registered with ServiceLoader. Encryption and decryption
+ * go through a cipher from the engine EngineRegistry selected when this
+ * instance was made, so code that discovers its cipher with
+ * ServiceLoader.load(CASTCipher.class) follows the registry, including
+ * the engine system property. The key schedule and the round functions
+ * are CAST384's own, shared with the engine's cipher.
+ */
+public class SelectedCAST384 extends CAST384 {
+
+    private final CASTEngine engine;
+    private final CAST384 cipher;
+
+    public SelectedCAST384() {
+        this(EngineRegistry.selected(), null);
+    }
+
+    private SelectedCAST384(CASTEngine engine, CASTKeySet K) {
+        this.engine = engine;
+        this.cipher = engine.newCipher();
+        this.K = K;
+        this.cipher.K = K;
+    }
+
+    /**
+     * Engine this cipher encrypts with.
+     */
+    public CASTEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Returns a new cipher on the same engine over this one's key schedule,
+     * unaffected by later rekeys of this one.
+     */
+    SelectedCAST384 shareKeySchedule() {
+        return new SelectedCAST384(engine, K);
+    }
+
+    @Override
+    public void initialise(byte[] key) {
+        cipher.initialise(key);
+        this.K = cipher.getK();
+    }
+
+    @Override
+    public void encrypt(byte[] data) {
+        cipher.encrypt(data);
+    }
+
+    @Override
+    public void decrypt(byte[] data) {
+        cipher.decrypt(data);
+    }
+
+    @Override
+    public void encryptBlocks(byte[] data, int offset, int blockCount) {
+        cipher.encryptBlocks(data, offset, blockCount);
+    }
+
+    @Override
+    public void decryptBlocks(byte[] data, int offset, int blockCount) {
+        cipher.decryptBlocks(data, offset, blockCount);
+    }
+}
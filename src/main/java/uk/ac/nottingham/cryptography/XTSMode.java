@@ -0,0 +1,316 @@
+package uk.ac.nottingham.cryptography;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Implementation of CipherMode that performs tweakable sector encryption
+ * in the style of XTS, adapted to the 24-byte CAST-384 block. Each sector
+ * is encrypted independently under a tweak derived from its sector number,
+ * so any sector can be read or rewritten on its own and many sectors can
+ * be processed concurrently.
+ * <br/>
+ * The key is 96 bytes: the first 48 key the data cipher passed to
+ * initialise, the last 48 key a separate CAST384 that encrypts sector
+ * numbers into tweaks. Tweaks for successive blocks of a sector are
+ * multiplied by x in GF(2^192) modulo x^192 + x^7 + x^2 + x + 1. A sector
+ * that is not a whole number of blocks ends with ciphertext stealing, so
+ * ciphertext is always the same size as plaintext. Sectors are 4 KiB by
+ * default and must be at least one block.
+ * <br/>
+ * Through the CipherMode interface, the nonce and seek both give the
+ * sector number (big-endian, 1 to 8 bytes) of the next sector encrypted,
+ * and encrypt/decrypt take a whole number of sectors.
+ */
+public class XTSMode extends CipherMode {
+
+    private static final int BLOCK_SIZE = 24;
+    private static final int KEY_SIZE = 48;
+    private static final int DEFAULT_SECTOR_SIZE = 4096;
+
+    // low byte of the reduction polynomial x^7 + x^2 + x + 1
+    private static final int REDUCTION = 0x87;
+
+    // bulk calls with at least this many sectors are spread over the pool
+    private static final int PARALLEL_THRESHOLD_SECTORS = 16;
+
+    // largest run of sectors handled by a single parallel task
+    private static final int PARALLEL_CHUNK_SECTORS = 8;
+
+    private final int sectorSize;
+    private final int fullBlocks;
+    private final int tailLength;
+    private final ForkJoinPool pool;
+    private final ThreadLocal<byte[]> tweaks;
+
+    private MultiBlockCipher dataCipher;
+    private final CAST384 tweakCipher = new CAST384();
+    private long sector;
+
+    public XTSMode() {
+        this(DEFAULT_SECTOR_SIZE);
+    }
+
+    public XTSMode(int sectorSize) {
+        this(sectorSize, ForkJoinPool.commonPool());
+    }
+
+    public XTSMode(int sectorSize, ForkJoinPool pool) {
+        super();
+        if (sectorSize < BLOCK_SIZE) {
+            throw new IllegalArgumentException("Sector size must be at least " + BLOCK_SIZE + " bytes, got " + sectorSize);
+        }
+
+        this.sectorSize = sectorSize;
+        this.fullBlocks = sectorSize / BLOCK_SIZE;
+        this.tailLength = sectorSize % BLOCK_SIZE;
+        this.pool = pool;
+
+        // one tweak per block, counting the partial tail as a block
+        int tweakBlocks = fullBlocks + (tailLength > 0 ? 1 : 0);
+        this.tweaks = ThreadLocal.withInitial(() -> new byte[tweakBlocks * BLOCK_SIZE]);
+    }
+
+    @Override
+    public void initialise(Cipher cipher, byte[] key, byte[] nonce) {
+        if (!(cipher instanceof MultiBlockCipher)) {
+            throw new IllegalArgumentException("XTSMode needs a MultiBlockCipher, got " + cipher.getClass().getName());
+        }
+        if (key.length != 2 * KEY_SIZE) {
+            throw new IllegalArgumentException("XTS key must be " + (2 * KEY_SIZE) + " bytes, got " + key.length);
+        }
+        checkSectorNumber(nonce);
+
+        byte[] dataKey = new byte[KEY_SIZE];
+        byte[] tweakKey = new byte[KEY_SIZE];
+        System.arraycopy(key, 0, dataKey, 0, KEY_SIZE);
+        System.arraycopy(key, KEY_SIZE, tweakKey, 0, KEY_SIZE);
+
+        this.cipher = cipher;
+        this.dataCipher = (MultiBlockCipher) cipher;
+        cipher.initialise(dataKey);
+        tweakCipher.initialise(tweakKey);
+
+        seek(nonce);
+    }
+
+    @Override
+    public void encrypt(byte[] data) {
+        int sectorCount = sectorCount(data);
+        encryptSectors(sector, data, 0, sectorCount);
+        sector += sectorCount;
+    }
+
+    @Override
+    public void decrypt(byte[] data) {
+        int sectorCount = sectorCount(data);
+        decryptSectors(sector, data, 0, sectorCount);
+        sector += sectorCount;
+    }
+
+    @Override
+    public void seek(byte[] counter) {
+        checkSectorNumber(counter);
+
+        long value = 0;
+        for (byte b : counter) {
+            value = (value << 8) | (b & 0xFF);
+        }
+        this.sector = value;
+    }
+
+    private static void checkSectorNumber(byte[] sectorNumber) {
+        // longer would silently drop high bytes; empty would mean sector 0
+        if (sectorNumber.length < 1 || sectorNumber.length > 8) {
+            throw new IllegalArgumentException("XTS sector number must be 1 to 8 bytes, got " + sectorNumber.length);
+        }
+    }
+
+    public int getSectorSize() {
+        return sectorSize;
+    }
+
+    /**
+     * Encrypts sectorCount consecutive sectors of data in place, starting
+     * at offset, the first being sector number firstSector. Large calls are
+     * split across the ForkJoinPool. Safe to call from several threads at
+     * once on disjoint regions.
+     */
+    public void encryptSectors(long firstSector, byte[] data, int offset, int sectorCount) {
+        processSectors(firstSector, data, offset, sectorCount, true);
+    }
+
+    /**
+     * Decrypts sectorCount consecutive sectors of data in place; the
+     * inverse of encryptSectors.
+     */
+    public void decryptSectors(long firstSector, byte[] data, int offset, int sectorCount) {
+        processSectors(firstSector, data, offset, sectorCount, false);
+    }
+
+    public void encryptSector(long sectorNumber, byte[] data, int offset) {
+        encryptSector(sectorNumber, data, offset, tweaks.get());
+    }
+
+    public void decryptSector(long sectorNumber, byte[] data, int offset) {
+        decryptSector(sectorNumber, data, offset, tweaks.get());
+    }
+
+    private void processSectors(long firstSector, byte[] data, int offset, int sectorCount, boolean encrypt) {
+        if (dataCipher == null) {
+            throw new IllegalStateException("XTSMode must be initialised before use");
+        }
+        if (offset < 0 || sectorCount < 0 || offset + (long) sectorCount * sectorSize > data.length) {
+            throw new IllegalArgumentException(sectorCount + " sectors at offset " + offset
+                    + " do not fit in " + data.length + " bytes");
+        }
+
+        if (sectorCount >= PARALLEL_THRESHOLD_SECTORS) {
+            pool.invoke(new SectorTask(firstSector, data, offset, sectorCount, encrypt));
+        } else {
+            processRange(firstSector, data, offset, sectorCount, encrypt);
+        }
+    }
+
+    private void processRange(long firstSector, byte[] data, int offset, int sectorCount, boolean encrypt) {
+        byte[] buffer = tweaks.get();
+        for (int i = 0; i < sectorCount; i++) {
+            int sectorOffset = offset + i * sectorSize;
+            if (encrypt) {
+                encryptSector(firstSector + i, data, sectorOffset, buffer);
+            } else {
+                decryptSector(firstSector + i, data, sectorOffset, buffer);
+            }
+        }
+    }
+
+    private final class SectorTask extends RecursiveAction {
+        private final long firstSector;
+        private final byte[] data;
+        private final int offset;
+        private final int sectorCount;
+        private final boolean encrypt;
+
+        SectorTask(long firstSector, byte[] data, int offset, int sectorCount, boolean encrypt) {
+            this.firstSector = firstSector;
+            this.data = data;
+            this.offset = offset;
+            this.sectorCount = sectorCount;
+            this.encrypt = encrypt;
+        }
+
+        @Override
+        protected void compute() {
+            if (sectorCount <= PARALLEL_CHUNK_SECTORS) {
+                processRange(firstSector, data, offset, sectorCount, encrypt);
+                return;
+            }
+
+            int half = sectorCount / 2;
+            invokeAll(new SectorTask(firstSector, data, offset, half, encrypt),
+                    new SectorTask(firstSector + half, data, offset + half * sectorSize, sectorCount - half, encrypt));
+        }
+    }
+
+    private void encryptSector(long sectorNumber, byte[] data, int offset, byte[] tweak) {
+        computeTweaks(sectorNumber, tweak);
+
+        // with a partial tail, the last whole block is left for stealing
+        int bulk = tailLength == 0 ? fullBlocks : fullBlocks - 1;
+        xorTweaks(data, offset, tweak, 0, bulk);
+        dataCipher.encryptBlocks(data, offset, bulk);
+        xorTweaks(data, offset, tweak, 0, bulk);
+
+        if (tailLength > 0) {
+            int last = offset + bulk * BLOCK_SIZE;
+
+            // CC = E(P[m-1]) under tweak m-1
+            xorTweaks(data, last, tweak, bulk, 1);
+            dataCipher.encryptBlocks(data, last, 1);
+            xorTweaks(data, last, tweak, bulk, 1);
+
+            // C[m] = head of CC, and P[m] takes its place in front of CC's tail
+            swapHead(data, last);
+
+            // C[m-1] = E(P[m] || tail of CC) under tweak m
+            xorTweaks(data, last, tweak, bulk + 1, 1);
+            dataCipher.encryptBlocks(data, last, 1);
+            xorTweaks(data, last, tweak, bulk + 1, 1);
+        }
+    }
+
+    private void decryptSector(long sectorNumber, byte[] data, int offset, byte[] tweak) {
+        computeTweaks(sectorNumber, tweak);
+
+        int bulk = tailLength == 0 ? fullBlocks : fullBlocks - 1;
+        xorTweaks(data, offset, tweak, 0, bulk);
+        dataCipher.decryptBlocks(data, offset, bulk);
+        xorTweaks(data, offset, tweak, 0, bulk);
+
+        if (tailLength > 0) {
+            int last = offset + bulk * BLOCK_SIZE;
+
+            // PP = D(C[m-1]) under tweak m
+            xorTweaks(data, last, tweak, bulk + 1, 1);
+            dataCipher.decryptBlocks(data, last, 1);
+            xorTweaks(data, last, tweak, bulk + 1, 1);
+
+            // P[m] = head of PP, and C[m] takes its place in front of PP's tail
+            swapHead(data, last);
+
+            // P[m-1] = D(C[m] || tail of PP) under tweak m-1
+            xorTweaks(data, last, tweak, bulk, 1);
+            dataCipher.decryptBlocks(data, last, 1);
+            xorTweaks(data, last, tweak, bulk, 1);
+        }
+    }
+
+    private void computeTweaks(long sectorNumber, byte[] tweak) {
+        // first tweak is the encrypted sector number, little-endian
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            tweak[i] = i < 8 ? (byte) (sectorNumber >>> (8 * i)) : 0;
+        }
+        tweakCipher.encryptBlocks(tweak, 0, 1);
+
+        int tweakBlocks = tweak.length / BLOCK_SIZE;
+        for (int j = 1; j < tweakBlocks; j++) {
+            multiplyByX(tweak, (j - 1) * BLOCK_SIZE, j * BLOCK_SIZE);
+        }
+    }
+
+    private static void multiplyByX(byte[] tweak, int from, int to) {
+        // shift the little-endian 192-bit value left by one and reduce
+        int carry = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            int b = tweak[from + i] & 0xFF;
+            tweak[to + i] = (byte) ((b << 1) | carry);
+            carry = b >>> 7;
+        }
+        if (carry != 0) {
+            tweak[to] ^= REDUCTION;
+        }
+    }
+
+    private static void xorTweaks(byte[] data, int offset, byte[] tweak, int firstTweak, int blockCount) {
+        int tweakOffset = firstTweak * BLOCK_SIZE;
+        for (int i = 0; i < blockCount * BLOCK_SIZE; i++) {
+            data[offset + i] ^= tweak[tweakOffset + i];
+        }
+    }
+
+    private void swapHead(byte[] data, int last) {
+        for (int i = 0; i < tailLength; i++) {
+            byte b = data[last + i];
+            data[last + i] = data[last + BLOCK_SIZE + i];
+            data[last + BLOCK_SIZE + i] = b;
+        }
+    }
+
+    private int sectorCount(byte[] data) {
+        if (data.length % sectorSize != 0) {
+            throw new IllegalArgumentException("XTS data must be a multiple of the " + sectorSize
+                    + " byte sector size, got " + data.length);
+        }
+        return data.length / sectorSize;
+    }
+}
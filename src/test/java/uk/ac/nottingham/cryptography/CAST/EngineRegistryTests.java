@@ -0,0 +1,261 @@
+package uk.ac.nottingham.cryptography.CAST;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CAST384;
+import uk.ac.nottingham.cryptography.CASTCipher;
+import uk.ac.nottingham.cryptography.CASTEngine;
+import uk.ac.nottingham.cryptography.CTRMode;
+import uk.ac.nottingham.cryptography.EngineRegistry;
+import uk.ac.nottingham.cryptography.HexUtils;
+import uk.ac.nottingham.cryptography.Main;
+import uk.ac.nottingham.cryptography.SelectedCAST384;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class EngineRegistryTests {
+
+    private static final long CALIBRATION_NANOS = 5_000_000L;
+
+    private static final byte[] keyA;
+
+    private static final byte[] nonceA;
+
+    static {
+        keyA = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+        }
+
+        nonceA = new byte[16];
+
+        for (int i = 0; i < 16; i++) {
+            nonceA[i] = (byte) (i * 3 + 19);
+        }
+    }
+
+    private static byte[] source(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (0x1b & (i * 3));
+        }
+        return data;
+    }
+
+    private static byte[] ctr(CAST384 cipher, byte[] data) {
+        CTRMode mode = new CTRMode();
+        mode.initialise(cipher, keyA, nonceA);
+        byte[] output = data.clone();
+        mode.encrypt(output);
+        return output;
+    }
+
+    // an engine whose bulk path forgets to encrypt the last block
+    private static final class BrokenEngine implements CASTEngine {
+        @Override
+        public String getName() {
+            return "broken";
+        }
+
+        @Override
+        public int getLanes() {
+            return 1;
+        }
+
+        @Override
+        public CAST384 newCipher() {
+            return new CAST384() {
+                @Override
+                public void encryptBlocks(byte[] data, int offset, int blockCount) {
+                    super.encryptBlocks(data, offset, blockCount - 1);
+                }
+            };
+        }
+    }
+
+    private static final class UnsupportedEngine implements CASTEngine {
+        @Override
+        public String getName() {
+            return "unsupported";
+        }
+
+        @Override
+        public int getLanes() {
+            return 1;
+        }
+
+        @Override
+        public boolean isSupported() {
+            return false;
+        }
+
+        @Override
+        public CAST384 newCipher() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    // asks for a cipher twice under the override given to the child JVM
+    public static final class OverrideProbe {
+        public static void main(String[] args) {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    System.out.println(EngineRegistry.newCipher().getClass().getSimpleName());
+                } catch (Throwable e) {
+                    System.out.println(e.getClass().getSimpleName() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // names the engine behind the CASTCipher service in the child JVM
+    public static final class ServiceProbe {
+        public static void main(String[] args) {
+            CASTCipher cipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+            System.out.println(((SelectedCAST384) cipher).getEngine().getName());
+        }
+    }
+
+    private static final class Result {
+        int status;
+        String out;
+        String err;
+    }
+
+    // runs mainClass in a fresh JVM, so the override is read from scratch
+    private static Result runWithOverride(String override, Class<?> mainClass, String... args)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-D" + EngineRegistry.ENGINE_PROPERTY + "=" + override);
+        command.add(mainClass.getName());
+        command.addAll(List.of(args));
+
+        Process process = new ProcessBuilder(command).start();
+        process.getOutputStream().close();
+        Result result = new Result();
+        result.out = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        result.err = new String(process.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
+        result.status = process.waitFor();
+        return result;
+    }
+
+    @Test
+    @Order(0)
+    void discoveryTest() {
+        List<String> names = EngineRegistry.engines().stream()
+                .map(CASTEngine::getName).collect(Collectors.toList());
+        assertEquals(List.of("interleaved", "reference"), names);
+    }
+
+    @Test
+    @Order(1)
+    void enginesAgreeTest() {
+        byte[] data = source(24 * 37 + 5);
+        byte[] expected = ctr(new CAST384(), data);
+
+        for (CASTEngine engine : EngineRegistry.engines()) {
+            assertTrue(EngineRegistry.verify(engine), engine.getName());
+            assertArrayEquals(expected, ctr(engine.newCipher(), data), engine.getName());
+        }
+    }
+
+    @Test
+    @Order(2)
+    void brokenEngineRejectedTest() {
+        CASTEngine broken = new BrokenEngine();
+        assertFalse(EngineRegistry.verify(broken));
+
+        List<CASTEngine> engines = List.of(broken, EngineRegistry.engines().get(1));
+        assertEquals("reference", EngineRegistry.select(engines, null, CALIBRATION_NANOS).getName());
+        assertThrows(IllegalStateException.class, () -> EngineRegistry.select(engines, "broken", CALIBRATION_NANOS));
+        assertThrows(IllegalStateException.class, () -> EngineRegistry.select(List.of(broken), null, CALIBRATION_NANOS));
+    }
+
+    @Test
+    @Order(3)
+    void overrideTest() {
+        List<CASTEngine> engines = EngineRegistry.engines();
+        assertEquals("reference", EngineRegistry.select(engines, "reference", CALIBRATION_NANOS).getName());
+        assertEquals("interleaved", EngineRegistry.select(engines, "interleaved", CALIBRATION_NANOS).getName());
+        assertThrows(IllegalArgumentException.class, () -> EngineRegistry.select(engines, "wide-table", CALIBRATION_NANOS));
+    }
+
+    @Test
+    @Order(4)
+    void unsupportedEngineSkippedTest() {
+        CASTEngine unsupported = new UnsupportedEngine();
+        List<CASTEngine> engines = List.of(unsupported, EngineRegistry.engines().get(0));
+        assertFalse(EngineRegistry.verify(unsupported));
+        assertEquals("interleaved", EngineRegistry.select(engines, null, CALIBRATION_NANOS).getName());
+    }
+
+    @Test
+    @Order(5)
+    void calibrationTest() {
+        List<CASTEngine> engines = EngineRegistry.engines();
+        Map<CASTEngine, Double> timings = EngineRegistry.calibrate(engines, CALIBRATION_NANOS);
+
+        assertEquals(engines.size(), timings.size());
+        for (double nanosPerBlock : timings.values()) {
+            assertTrue(nanosPerBlock > 0 && nanosPerBlock < Double.MAX_VALUE);
+        }
+        String selected = EngineRegistry.selected().getName();
+        assertTrue(engines.stream().anyMatch(engine -> engine.getName().equals(selected)), selected);
+        assertTrue(EngineRegistry.verify(EngineRegistry.selected()));
+    }
+
+    @Test
+    @Order(6)
+    void badOverrideTest() throws Exception {
+        Result probe = runWithOverride("wide-table", OverrideProbe.class);
+        String[] lines = probe.out.split("\\R");
+        assertEquals(2, lines.length, probe.out + probe.err);
+        for (String line : lines) {
+            assertEquals("IllegalArgumentException: Unknown or unsupported engine: wide-table", line);
+        }
+
+        Result good = runWithOverride("reference", OverrideProbe.class);
+        assertEquals(List.of("ReferenceCAST384", "ReferenceCAST384"), List.of(good.out.split("\\R")));
+
+        // the engine is chosen before the random nonce goes to stdout
+        Result main = runWithOverride("wide-table", Main.class, "encrypt", "--key", HexUtils.bytesToHex(keyA));
+        assertEquals(1, main.status, main.err);
+        assertEquals("", main.out);
+        assertTrue(main.err.contains("Unknown or unsupported engine: wide-table"), main.err);
+    }
+
+    @Test
+    @Order(7)
+    void cipherServiceTest() throws Exception {
+        CASTCipher cipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+        assertTrue(cipher instanceof SelectedCAST384);
+        assertSame(EngineRegistry.selected(), ((SelectedCAST384) cipher).getEngine());
+
+        // the reference engine is only there to check against, so without
+        // the property the choice needs no calibration
+        assertFalse(EngineRegistry.engines().get(1).isCandidate());
+        if (System.getProperty(EngineRegistry.ENGINE_PROPERTY) == null) {
+            assertEquals("interleaved", EngineRegistry.selected().getName());
+        }
+
+        byte[] data = source(24 * 37 + 5);
+        assertArrayEquals(ctr(new CAST384(), data), ctr((SelectedCAST384) cipher, data));
+
+        Result reference = runWithOverride("reference", ServiceProbe.class);
+        assertEquals("reference", reference.out.trim(), reference.err);
+    }
+}
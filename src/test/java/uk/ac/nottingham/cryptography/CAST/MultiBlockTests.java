@@ -0,0 +1,85 @@
+package uk.ac.nottingham.cryptography.CAST;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CASTCipher;
+import uk.ac.nottingham.cryptography.MultiBlockCipher;
+
+import java.util.ServiceLoader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class MultiBlockTests {
+    private final CASTCipher cipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+
+    private static final byte[] keyA;
+
+    static {
+        keyA = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+        }
+    }
+
+    private static byte[] source(int blockCount) {
+        byte[] data = new byte[blockCount * 24];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7 + 1);
+        }
+        return data;
+    }
+
+    private byte[] encryptSingly(byte[] data, int offset, int blockCount) {
+        byte[] result = data.clone();
+        byte[] block = new byte[24];
+        for (int i = 0; i < blockCount; i++) {
+            System.arraycopy(result, offset + i * 24, block, 0, 24);
+            cipher.encrypt(block);
+            System.arraycopy(block, 0, result, offset + i * 24, 24);
+        }
+        return result;
+    }
+
+    @Test
+    @Order(0)
+    void encryptBlocksMatchesSingleBlockTest() {
+        cipher.initialise(keyA);
+
+        for (int blockCount = 0; blockCount <= 7; blockCount++) {
+            byte[] data = source(blockCount);
+            byte[] expected = encryptSingly(data, 0, blockCount);
+
+            ((MultiBlockCipher) cipher).encryptBlocks(data, 0, blockCount);
+            assertArrayEquals(expected, data);
+        }
+    }
+
+    @Test
+    @Order(1)
+    void encryptBlocksOffsetTest() {
+        cipher.initialise(keyA);
+
+        byte[] data = source(6);
+        byte[] expected = encryptSingly(data, 24, 3);
+
+        ((MultiBlockCipher) cipher).encryptBlocks(data, 24, 3);
+        assertArrayEquals(expected, data);
+    }
+
+    @Test
+    @Order(2)
+    void decryptBlocksRoundTripTest() {
+        cipher.initialise(keyA);
+
+        for (int blockCount = 1; blockCount <= 5; blockCount++) {
+            byte[] original = source(blockCount);
+            byte[] data = original.clone();
+
+            ((MultiBlockCipher) cipher).encryptBlocks(data, 0, blockCount);
+            ((MultiBlockCipher) cipher).decryptBlocks(data, 0, blockCount);
+            assertArrayEquals(original, data);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CAST384;
+import uk.ac.nottingham.cryptography.CTRMode;
+import uk.ac.nottingham.cryptography.CTRSession;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the hot paths allocate nothing once warmed up, by reading the
+ * current thread's allocated byte count around a loop of operations. The
+ * JIT only removes short-lived allocations such as disabled JFR events
+ * after C2 has compiled the caller, so each check warms up and measures a
+ * few rounds and passes on the first round that allocates nothing.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class AllocationTests {
+
+    private static final int WARMUP_OPS = 20_000;
+    private static final int MEASURED_OPS = 10_000;
+    private static final int ROUNDS = 10;
+
+    private static final byte[] keyA;
+
+    private static final byte[] nonceA;
+
+    static {
+        keyA = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+        }
+
+        nonceA = new byte[16];
+
+        for (int i = 0; i < 16; i++) {
+            nonceA[i] = (byte) (i * 3 + 19);
+        }
+    }
+
+    private com.sun.management.ThreadMXBean threads;
+
+    @BeforeAll
+    void checkSupported() {
+        Assumptions.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * Returns the bytes allocated per operation in the best of ROUNDS
+     * measured runs, stopping early at zero.
+     */
+    private double allocatedPerOp(Runnable operation) {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS && best > 0; round++) {
+            for (int i = 0; i < WARMUP_OPS; i++) {
+                operation.run();
+            }
+
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < MEASURED_OPS; i++) {
+                operation.run();
+            }
+            long after = threads.getCurrentThreadAllocatedBytes();
+
+            best = Math.min(best, (double) (after - before) / MEASURED_OPS);
+        }
+        return best;
+    }
+
+    private void assertAllocationFree(Runnable operation) {
+        assertEquals(0.0, allocatedPerOp(operation), "bytes allocated per operation");
+    }
+
+    @Test
+    @Order(0)
+    void blockEncryptTest() {
+        CAST384 cipher = new CAST384();
+        cipher.initialise(keyA);
+        byte[] block = new byte[24];
+
+        assertAllocationFree(() -> cipher.encrypt(block));
+        assertAllocationFree(() -> cipher.decrypt(block));
+    }
+
+    @Test
+    @Order(1)
+    void bulkEncryptTest() {
+        CAST384 cipher = new CAST384();
+        cipher.initialise(keyA);
+        byte[] data = new byte[24 * 33];
+
+        assertAllocationFree(() -> cipher.encryptBlocks(data, 0, 33));
+        assertAllocationFree(() -> cipher.decryptBlocks(data, 0, 33));
+    }
+
+    @Test
+    @Order(2)
+    void ctrEncryptTest() {
+        CTRMode mode = new CTRMode();
+        mode.initialise(new CAST384(), keyA, nonceA);
+
+        // unaligned sizes exercise the leftover keystream as well as the bulk path
+        byte[] small = new byte[7];
+        byte[] block = new byte[24];
+        byte[] large = new byte[4096 + 5];
+
+        assertAllocationFree(() -> mode.encrypt(small));
+        assertAllocationFree(() -> mode.encrypt(block));
+        assertAllocationFree(() -> mode.encrypt(large));
+        assertAllocationFree(() -> mode.decrypt(large, 3, 1000, large, 3));
+    }
+
+    @Test
+    @Order(3)
+    void ctrRekeyTest() {
+        CTRMode mode = new CTRMode();
+        mode.initialise(new CAST384(), keyA, nonceA);
+        byte[] nonce = nonceA.clone();
+        byte[] counter = new byte[8];
+        byte[] data = new byte[100];
+
+        assertAllocationFree(() -> {
+            nonce[15]++;
+            mode.reset(nonce);
+            mode.encrypt(data);
+        });
+        assertAllocationFree(() -> {
+            counter[7]++;
+            mode.seek(counter);
+            mode.encrypt(data);
+        });
+    }
+
+    @Test
+    @Order(4)
+    void sessionTest() {
+        CTRMode mode = new CTRMode();
+        mode.initialise(new CAST384(), keyA, nonceA);
+        CTRSession session = mode.session();
+        byte[] data = new byte[1000];
+
+        assertAllocationFree(() -> session.xorAt(12345, data));
+    }
+
+    @Test
+    @Order(5)
+    void keyScheduleTest() {
+        // a key schedule is immutable once built, so that sessions and
+        // snapshots can share it, which makes each initialise allocate a
+        // new one: the two 72-word round key arrays plus small change
+        CAST384 cipher = new CAST384();
+        double perOp = allocatedPerOp(() -> cipher.initialise(keyA));
+        assertTrue(perOp <= 2 * (16 + 72 * 4) + 256, "bytes allocated per key schedule: " + perOp);
+    }
+}
@@ -0,0 +1,154 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.AuthenticatedCTRMode;
+import uk.ac.nottingham.cryptography.CASTCipher;
+import uk.ac.nottingham.cryptography.CTRMode;
+
+import javax.crypto.AEADBadTagException;
+import java.util.Arrays;
+import java.util.ServiceLoader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class AuthenticatedCTRTests {
+    private final CASTCipher cipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+    private final AuthenticatedCTRMode mode = new AuthenticatedCTRMode();
+
+    private static final byte[] keyA;
+
+    private static final byte[] nonceA;
+
+    private static final byte[] nonceB;
+
+    static {
+        keyA = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+        }
+
+        nonceA = new byte[16];
+        nonceB = new byte[16];
+
+        for (int i = 0; i < 16; i++) {
+            nonceA[i] = (byte) (i * 3 + 19);
+            nonceB[i] = (byte) (i * 17);
+        }
+    }
+
+    private static byte[] source(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (0x1b & (i * 3));
+        }
+        return data;
+    }
+
+    @Test
+    @Order(0)
+    void ciphertextIsCtrFromCounterTwoTest() {
+        byte[] expected = source(100);
+        CTRMode ctr = new CTRMode();
+        ctr.initialise(cipher, keyA, nonceA);
+        ctr.seek(new byte[] { 2 });
+        ctr.encrypt(expected);
+
+        byte[] data = source(100);
+        mode.initialise(cipher, keyA, nonceA);
+        mode.encrypt(data);
+        assertArrayEquals(expected, data);
+        assertEquals(AuthenticatedCTRMode.TAG_SIZE, mode.getTag().length);
+    }
+
+    @Test
+    @Order(1)
+    void roundTripTest() throws AEADBadTagException {
+        for (int length : new int[] { 0, 1, 5, 24, 100, 5000 }) {
+            byte[] plaintext = source(length);
+            byte[] data = plaintext.clone();
+
+            mode.initialise(cipher, keyA, nonceA);
+            mode.encrypt(data);
+            byte[] tag = mode.getTag();
+
+            mode.reset(nonceA);
+            mode.decrypt(data, tag);
+            assertArrayEquals(plaintext, data);
+        }
+    }
+
+    @Test
+    @Order(2)
+    void streamingMatchesOneShotTest() {
+        byte[] whole = source(301);
+        mode.initialise(cipher, keyA, nonceB);
+        mode.encrypt(whole);
+        byte[] expectedTag = mode.getTag();
+
+        byte[] plaintext = source(301);
+        byte[] streamed = new byte[301];
+        int[] pieces = { 3, 1, 24, 50, 7, 216 };
+        mode.reset(nonceB);
+        int offset = 0;
+        for (int piece : pieces) {
+            byte[] chunk = Arrays.copyOfRange(plaintext, offset, offset + piece);
+            mode.encrypt(chunk);
+            System.arraycopy(chunk, 0, streamed, offset, piece);
+            offset += piece;
+        }
+
+        assertArrayEquals(whole, streamed);
+        assertArrayEquals(expectedTag, mode.getTag());
+    }
+
+    @Test
+    @Order(3)
+    void tamperedCiphertextTest() {
+        byte[] data = source(77);
+        mode.initialise(cipher, keyA, nonceA);
+        mode.encrypt(data);
+        byte[] tag = mode.getTag();
+
+        data[40] ^= 1;
+        mode.reset(nonceA);
+        assertThrows(AEADBadTagException.class, () -> mode.decrypt(data, tag));
+        assertArrayEquals(new byte[77], data);
+    }
+
+    @Test
+    @Order(4)
+    void tagDependsOnNonceAndLengthTest() {
+        byte[] a = new byte[24];
+        byte[] b = new byte[25];
+        mode.initialise(cipher, keyA, nonceA);
+        mode.encrypt(a);
+        byte[] tagA = mode.getTag();
+
+        mode.reset(nonceA);
+        mode.encrypt(b);
+        byte[] tagB = mode.getTag();
+
+        mode.reset(nonceB);
+        mode.encrypt(new byte[24]);
+        byte[] tagC = mode.getTag();
+
+        assertFalse(Arrays.equals(tagA, tagB));
+        assertFalse(Arrays.equals(tagA, tagC));
+    }
+
+    @Test
+    @Order(5)
+    void misuseTest() {
+        mode.initialise(cipher, keyA, nonceA);
+        mode.getTag();
+        assertThrows(IllegalStateException.class, () -> mode.encrypt(new byte[1]));
+        assertThrows(UnsupportedOperationException.class, () -> mode.decrypt(new byte[1]));
+        assertThrows(UnsupportedOperationException.class, () -> mode.seek(new byte[] { 1 }));
+    }
+}
@@ -0,0 +1,137 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CASTCipher;
+import uk.ac.nottingham.cryptography.CBCMode;
+
+import java.util.ServiceLoader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class CBCTests {
+    private final CASTCipher cipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+    private final CBCMode mode = new CBCMode();
+
+    private static final byte[] keyA;
+
+    private static final byte[] ivA;
+
+    static {
+        keyA = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+        }
+
+        ivA = new byte[24];
+
+        for (int i = 0; i < 24; i++) {
+            ivA[i] = (byte) (i * 5 + 1);
+        }
+    }
+
+    private static byte[] source(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (0x1b & (i * 3));
+        }
+        return data;
+    }
+
+    // CBC built by hand from single block calls
+    private byte[] referenceEncrypt(byte[] plaintext) {
+        cipher.initialise(keyA);
+        byte[] out = plaintext.clone();
+        byte[] chain = ivA.clone();
+        byte[] block = new byte[24];
+        for (int offset = 0; offset < out.length; offset += 24) {
+            for (int j = 0; j < 24; j++) {
+                block[j] = (byte) (out[offset + j] ^ chain[j]);
+            }
+            cipher.encrypt(block);
+            System.arraycopy(block, 0, out, offset, 24);
+            System.arraycopy(block, 0, chain, 0, 24);
+        }
+        return out;
+    }
+
+    @Test
+    @Order(0)
+    void encryptMatchesReferenceTest() {
+        byte[] plaintext = source(24 * 10);
+        byte[] expected = referenceEncrypt(plaintext);
+
+        byte[] data = plaintext.clone();
+        mode.initialise(cipher, keyA, ivA);
+        mode.encrypt(data);
+        assertArrayEquals(expected, data);
+    }
+
+    @Test
+    @Order(1)
+    void chainingAcrossCallsTest() {
+        byte[] plaintext = source(24 * 5);
+        byte[] expected = referenceEncrypt(plaintext);
+
+        byte[] first = new byte[24 * 2];
+        byte[] second = new byte[24 * 3];
+        System.arraycopy(plaintext, 0, first, 0, first.length);
+        System.arraycopy(plaintext, first.length, second, 0, second.length);
+
+        mode.initialise(cipher, keyA, ivA);
+        mode.encrypt(first);
+        mode.encrypt(second);
+
+        byte[] actual = new byte[plaintext.length];
+        System.arraycopy(first, 0, actual, 0, first.length);
+        System.arraycopy(second, 0, actual, first.length, second.length);
+        assertArrayEquals(expected, actual);
+
+        mode.initialise(cipher, keyA, ivA);
+        mode.decrypt(first);
+        mode.decrypt(second);
+        assertArrayEquals(plaintext, concat(first, second));
+    }
+
+    @Test
+    @Order(2)
+    void sequentialDecryptTest() {
+        byte[] plaintext = source(24 * 130);
+        byte[] data = referenceEncrypt(plaintext);
+
+        mode.initialise(cipher, keyA, ivA);
+        mode.decrypt(data);
+        assertArrayEquals(plaintext, data);
+    }
+
+    @Test
+    @Order(3)
+    void parallelDecryptTest() {
+        byte[] plaintext = source(24 * 10007);
+        byte[] data = referenceEncrypt(plaintext);
+
+        mode.initialise(cipher, keyA, ivA);
+        mode.decrypt(data);
+        assertArrayEquals(plaintext, data);
+    }
+
+    @Test
+    @Order(4)
+    void invalidInputTest() {
+        assertThrows(IllegalArgumentException.class, () -> mode.initialise(cipher, keyA, new byte[16]));
+
+        mode.initialise(cipher, keyA, ivA);
+        assertThrows(IllegalArgumentException.class, () -> mode.encrypt(new byte[25]));
+        assertThrows(UnsupportedOperationException.class, () -> mode.seek(new byte[] { 1 }));
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] out = new byte[a.length + b.length];
+        System.arraycopy(a, 0, out, 0, a.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+}
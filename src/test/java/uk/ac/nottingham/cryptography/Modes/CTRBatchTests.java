@@ -0,0 +1,109 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CASTCipher;
+import uk.ac.nottingham.cryptography.CTRMode;
+
+import java.util.ServiceLoader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class CTRBatchTests {
+    private final CASTCipher cipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+    private final CTRMode mode = new CTRMode();
+    private final CTRMode reference = new CTRMode();
+
+    private static final byte[] keyA;
+
+    private static final int[] messageSizes = { 64, 3, 0, 24, 512, 100, 25, 1600, 47 };
+
+    static {
+        keyA = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+        }
+    }
+
+    private static byte[] nonce(int message) {
+        byte[] nonce = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            nonce[i] = (byte) (i * 3 + message * 29);
+        }
+        return nonce;
+    }
+
+    private static byte[][] messages() {
+        byte[][] messages = new byte[messageSizes.length][];
+        for (int m = 0; m < messageSizes.length; m++) {
+            messages[m] = new byte[messageSizes[m]];
+            for (int i = 0; i < messageSizes[m]; i++) {
+                messages[m][i] = (byte) (0x1b & (i + m));
+            }
+        }
+        return messages;
+    }
+
+    @Test
+    @Order(0)
+    void batchMatchesSeparateMessagesTest() {
+        byte[][] nonces = new byte[messageSizes.length][];
+        byte[][] batch = messages();
+        byte[][] expected = messages();
+
+        for (int m = 0; m < messageSizes.length; m++) {
+            nonces[m] = nonce(m);
+            reference.initialise(cipher, keyA, nonces[m]);
+            reference.encrypt(expected[m]);
+        }
+
+        mode.initialise(cipher, keyA, nonce(0));
+        mode.encryptBatch(nonces, batch);
+
+        for (int m = 0; m < messageSizes.length; m++) {
+            assertArrayEquals(expected[m], batch[m]);
+        }
+    }
+
+    @Test
+    @Order(1)
+    void batchRoundTripTest() {
+        byte[][] nonces = new byte[messageSizes.length][];
+        byte[][] data = messages();
+
+        for (int m = 0; m < messageSizes.length; m++) {
+            nonces[m] = nonce(m);
+        }
+
+        mode.initialise(cipher, keyA, nonce(0));
+        mode.encryptBatch(nonces, data);
+        mode.decryptBatch(nonces, data);
+
+        byte[][] original = messages();
+        for (int m = 0; m < messageSizes.length; m++) {
+            assertArrayEquals(original[m], data[m]);
+        }
+    }
+
+    @Test
+    @Order(2)
+    void batchKeepsStreamPositionTest() {
+        byte[] expected = new byte[40];
+        reference.initialise(cipher, keyA, nonce(1));
+        reference.encrypt(expected);
+
+        byte[] first = new byte[20];
+        byte[] second = new byte[20];
+        mode.initialise(cipher, keyA, nonce(1));
+        mode.encrypt(first);
+        mode.encryptBatch(new byte[][] { nonce(2), nonce(3) }, new byte[][] { new byte[30], new byte[5] });
+        mode.encrypt(second);
+
+        byte[] actual = new byte[40];
+        System.arraycopy(first, 0, actual, 0, 20);
+        System.arraycopy(second, 0, actual, 20, 20);
+        assertArrayEquals(expected, actual);
+    }
+}
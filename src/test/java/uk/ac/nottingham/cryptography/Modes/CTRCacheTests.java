@@ -0,0 +1,153 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CASTCipher;
+import uk.ac.nottingham.cryptography.CTRMode;
+import uk.ac.nottingham.cryptography.KeystreamCache;
+
+import java.util.ServiceLoader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class CTRCacheTests {
+    private final CASTCipher cipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+    private final CTRMode mode = new CTRMode();
+    private final CTRMode reference = new CTRMode();
+
+    private static final byte[] keyA;
+    private static final byte[] keyB;
+
+    private static final byte[] nonceA;
+
+    static {
+        keyA = new byte[48];
+        keyB = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+            keyB[i] = (byte) (i * 11);
+        }
+
+        nonceA = new byte[16];
+
+        for (int i = 0; i < 16; i++) {
+            nonceA[i] = (byte) (i * 3 + 19);
+        }
+    }
+
+    @Test
+    @Order(0)
+    void cachedReadsMatchUncachedTest() {
+        KeystreamCache cache = new KeystreamCache(24 * 64);
+        byte[] expected = new byte[240];
+        reference.initialise(cipher, keyA, nonceA);
+        reference.encrypt(expected);
+
+        mode.initialise(cipher, keyA, nonceA);
+        mode.setKeystreamCache(cache, 1);
+
+        for (int pass = 0; pass < 3; pass++) {
+            byte[] data = new byte[240];
+            mode.seek(new byte[] { 0 });
+            mode.encrypt(data);
+            assertArrayEquals(expected, data);
+        }
+
+        assertEquals(10, cache.getMisses());
+        assertEquals(20, cache.getHits());
+        assertEquals(10, cache.getSize());
+    }
+
+    @Test
+    @Order(1)
+    void boundedCapacityTest() {
+        KeystreamCache cache = new KeystreamCache(24 * 4);
+        byte[] expected = new byte[24 * 10];
+        reference.initialise(cipher, keyA, nonceA);
+        reference.encrypt(expected);
+
+        mode.initialise(cipher, keyA, nonceA);
+        mode.setKeystreamCache(cache, 1);
+
+        byte[] data = new byte[24 * 10];
+        mode.encrypt(data);
+        assertArrayEquals(expected, data);
+
+        assertEquals(4, cache.getSize());
+        assertEquals(6, cache.getEvictions());
+        assertEquals(96, cache.getCapacityBytes());
+    }
+
+    @Test
+    @Order(2)
+    void keyIdSeparatesEntriesTest() {
+        KeystreamCache cache = new KeystreamCache(24 * 64);
+
+        byte[] expected = new byte[48];
+        reference.initialise(cipher, keyB, nonceA);
+        reference.encrypt(expected);
+
+        mode.initialise(cipher, keyA, nonceA);
+        mode.setKeystreamCache(cache, 1);
+        mode.encrypt(new byte[48]);
+
+        mode.initialise(cipher, keyB, nonceA);
+        mode.setKeystreamCache(cache, 2);
+        byte[] data = new byte[48];
+        mode.encrypt(data);
+        assertArrayEquals(expected, data);
+        assertEquals(0, cache.getHits());
+
+        cache.invalidateKey(1);
+        assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    @Order(3)
+    void initialiseDetachesCacheTest() {
+        KeystreamCache cache = new KeystreamCache(24 * 64);
+
+        mode.initialise(cipher, keyA, nonceA);
+        mode.setKeystreamCache(cache, 1);
+        mode.encrypt(new byte[48]);
+
+        byte[] expected = new byte[48];
+        reference.initialise(cipher, keyB, nonceA);
+        reference.encrypt(expected);
+
+        mode.initialise(cipher, keyB, nonceA);
+        byte[] data = new byte[48];
+        mode.encrypt(data);
+        assertArrayEquals(expected, data);
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    @Order(4)
+    void partlyCachedBulkTest() {
+        KeystreamCache cache = new KeystreamCache(24 * 64);
+        byte[] expected = new byte[24 * 20 + 7];
+        reference.initialise(cipher, keyA, nonceA);
+        reference.encrypt(expected);
+
+        mode.initialise(cipher, keyA, nonceA);
+        mode.setKeystreamCache(cache, 1);
+
+        // cache blocks 5 to 8 only, then read across them in one call
+        mode.seek(new byte[] { 5 });
+        mode.encrypt(new byte[24 * 4]);
+        assertEquals(4, cache.getMisses());
+
+        mode.seek(new byte[] { 0 });
+        byte[] data = new byte[expected.length];
+        mode.encrypt(data);
+        assertArrayEquals(expected, data);
+
+        assertEquals(4, cache.getHits());
+        assertEquals(4 + 17, cache.getMisses());
+        assertEquals(21, cache.getSize());
+    }
+}
@@ -0,0 +1,139 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CASTCipher;
+import uk.ac.nottingham.cryptography.CTRDRBG;
+import uk.ac.nottingham.cryptography.CTRMode;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.ServiceLoader;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class CTRDRBGTests {
+    private final CASTCipher cipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+
+    private static final byte[] seedA;
+
+    static {
+        seedA = new byte[64];
+
+        for (int i = 0; i < 64; i++) {
+            seedA[i] = (byte) (i * 5 + 2);
+        }
+    }
+
+    @Test
+    @Order(0)
+    void outputIsCtrKeystreamTest() {
+        byte[] expected = new byte[500];
+        CTRMode ctr = new CTRMode();
+        ctr.initialise(cipher, Arrays.copyOf(seedA, 48), Arrays.copyOfRange(seedA, 48, 64));
+        ctr.encrypt(expected);
+
+        byte[] actual = new byte[500];
+        new CTRDRBG(seedA).nextBytes(actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    @Order(1)
+    void streamIsIndependentOfDrawSizesTest() {
+        // a short rekey interval makes both draws cross several rekeys
+        byte[] expected = new byte[2000];
+        new CTRDRBG(seedA, 100).nextBytes(expected);
+
+        CTRDRBG generator = new CTRDRBG(seedA, 100);
+        byte[] actual = new byte[2000];
+        int[] pieces = { 3, 500, 1, 24, 72, 8, 1392 };
+        int offset = 0;
+        for (int piece : pieces) {
+            byte[] chunk = new byte[piece];
+            if (piece == 8) {
+                long value = generator.nextLong();
+                for (int i = 0; i < 8; i++) {
+                    chunk[i] = (byte) (value >>> (56 - 8 * i));
+                }
+            } else {
+                generator.nextBytes(chunk);
+            }
+            System.arraycopy(chunk, 0, actual, offset, piece);
+            offset += piece;
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    @Order(2)
+    void rekeyChangesStreamTest() {
+        byte[] plain = new byte[300];
+        new CTRDRBG(seedA).nextBytes(plain);
+
+        byte[] rekeyed = new byte[300];
+        new CTRDRBG(seedA, 96).nextBytes(rekeyed);
+
+        assertArrayEquals(Arrays.copyOf(plain, 96), Arrays.copyOf(rekeyed, 96));
+        assertFalse(Arrays.equals(Arrays.copyOfRange(plain, 96, 300), Arrays.copyOfRange(rekeyed, 96, 300)));
+    }
+
+    @Test
+    @Order(3)
+    void reseedChangesStreamTest() {
+        CTRDRBG a = new CTRDRBG(seedA);
+        CTRDRBG b = new CTRDRBG(seedA);
+        b.reseed(new byte[] { 1 });
+
+        assertFalse(a.nextLong() == b.nextLong());
+    }
+
+    @Test
+    @Order(4)
+    void perThreadGeneratorsTest() throws InterruptedException {
+        AtomicReference<CTRDRBG> other = new AtomicReference<>();
+        Thread thread = new Thread(() -> other.set(CTRDRBG.current()));
+        thread.start();
+        thread.join();
+
+        assertNotSame(CTRDRBG.current(), other.get());
+        assertEquals(CTRDRBG.current(), CTRDRBG.current());
+    }
+
+    @Test
+    @Order(5)
+    void secureRandomFaceTest() {
+        SecureRandom random = CTRDRBG.secureRandom();
+        byte[] a = new byte[64];
+        byte[] b = new byte[64];
+        random.nextBytes(a);
+        random.nextBytes(b);
+
+        assertFalse(Arrays.equals(a, b));
+        assertEquals(16, random.generateSeed(16).length);
+        random.nextInt(10);
+    }
+
+    @Test
+    @Order(6)
+    void seedLeftIntactTest() {
+        byte[] seed = seedA.clone();
+        CTRDRBG first = new CTRDRBG(seed);
+        assertArrayEquals(seedA, seed);
+
+        byte[] a = new byte[100];
+        byte[] b = new byte[100];
+        first.nextBytes(a);
+        new CTRDRBG(seed).nextBytes(b);
+        assertArrayEquals(a, b);
+
+        byte[] zeroSeeded = new byte[100];
+        new CTRDRBG(new byte[CTRDRBG.SEED_SIZE]).nextBytes(zeroSeeded);
+        assertFalse(Arrays.equals(a, zeroSeeded));
+    }
+}
@@ -0,0 +1,96 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CASTCipher;
+import uk.ac.nottingham.cryptography.CTRMode;
+import uk.ac.nottingham.cryptography.HexUtils;
+
+import java.util.ServiceLoader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class CTRResetTests {
+    private final CASTCipher cipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+
+    private static final byte[] keyA;
+
+    private static final byte[] nonceA;
+
+    private static final byte[] nonceB;
+
+    static {
+        keyA = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+        }
+
+        nonceA = new byte[16];
+        nonceB = new byte[16];
+
+        for (int i = 0; i < 16; i++) {
+            nonceA[i] = (byte) (i * 3 + 19);
+            nonceB[i] = (byte) (i * 17);
+        }
+    }
+
+    @Test
+    @Order(0)
+    void resetNonceTest() {
+        CTRMode mode = new CTRMode();
+        byte[] source = new byte[24];
+        byte[] block = new byte[24];
+        for (int i = 0; i < 24; i++) {
+            source[i] = (byte) (0xCB & (i));
+        }
+
+        String[] expectedOutput = new String[] {
+                "5d57337f657881984dc008910a6e3276afe28361a8546253",
+                "251475ff539b142b866bc354650856bdc4fc018cee6207b3"
+        };
+
+        System.arraycopy(source,0,block,0,24);
+        mode.initialise(cipher, keyA, nonceA);
+        mode.encrypt(block);
+        assertArrayEquals(HexUtils.hexToBytes(expectedOutput[0]), block);
+
+        System.arraycopy(source,0,block,0,24);
+        mode.reset(nonceB);
+        mode.encrypt(block);
+        assertArrayEquals(HexUtils.hexToBytes(expectedOutput[1]), block);
+
+        System.arraycopy(source,0,block,0,24);
+        mode.reset(nonceA);
+        mode.encrypt(block);
+        assertArrayEquals(HexUtils.hexToBytes(expectedOutput[0]), block);
+    }
+
+    @Test
+    @Order(1)
+    void resetMidBlockTest() {
+        CTRMode mode = new CTRMode();
+        byte[] source = new byte[24];
+        byte[] block = new byte[24];
+        for (int i = 0; i < 24; i++) {
+            source[i] = (byte) (0xCB & (i));
+        }
+
+        mode.initialise(cipher, keyA, nonceA);
+        mode.encrypt(new byte[31]);
+
+        System.arraycopy(source,0,block,0,24);
+        mode.reset(nonceB);
+        mode.encrypt(block);
+        assertArrayEquals(HexUtils.hexToBytes("251475ff539b142b866bc354650856bdc4fc018cee6207b3"), block);
+    }
+
+    @Test
+    @Order(2)
+    void resetBeforeInitialiseTest() {
+        CTRMode mode = new CTRMode();
+        assertThrows(IllegalStateException.class, () -> mode.reset(nonceA));
+    }
+}
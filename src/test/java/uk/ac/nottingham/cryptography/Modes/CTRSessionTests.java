@@ -0,0 +1,114 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CASTCipher;
+import uk.ac.nottingham.cryptography.CTRMode;
+import uk.ac.nottingham.cryptography.CTRSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class CTRSessionTests {
+    private final CASTCipher cipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+
+    private static final byte[] keyA;
+    private static final byte[] keyB;
+
+    private static final byte[] nonceA;
+
+    static {
+        keyA = new byte[48];
+        keyB = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+            keyB[i] = (byte) (i * 11);
+        }
+
+        nonceA = new byte[16];
+
+        for (int i = 0; i < 16; i++) {
+            nonceA[i] = (byte) (i * 3 + 19);
+        }
+    }
+
+    private byte[] keystream(int length) {
+        CTRMode reference = new CTRMode();
+        byte[] data = new byte[length];
+        reference.initialise(cipher, keyA, nonceA);
+        reference.encrypt(data);
+        return data;
+    }
+
+    @Test
+    @Order(0)
+    void xorAtMatchesStreamTest() {
+        byte[] expected = keystream(4000);
+        CTRMode mode = new CTRMode();
+        mode.initialise(cipher, keyA, nonceA);
+        CTRSession session = mode.session();
+
+        int[][] ranges = { { 0, 24 }, { 5, 3 }, { 23, 2 }, { 48, 0 }, { 100, 1700 }, { 7, 3993 } };
+        for (int[] range : ranges) {
+            byte[] data = new byte[range[1]];
+            session.xorAt(range[0], data);
+
+            byte[] slice = new byte[range[1]];
+            System.arraycopy(expected, range[0], slice, 0, range[1]);
+            assertArrayEquals(slice, data);
+        }
+    }
+
+    @Test
+    @Order(1)
+    void sessionSurvivesRekeyTest() {
+        byte[] expected = keystream(96);
+        CTRMode mode = new CTRMode();
+        mode.initialise(cipher, keyA, nonceA);
+        CTRSession session = mode.session();
+
+        mode.initialise(cipher, keyB, nonceA);
+
+        byte[] data = new byte[96];
+        session.xorAt(0, data);
+        assertArrayEquals(expected, data);
+    }
+
+    @Test
+    @Order(2)
+    void concurrentDisjointRegionsTest() throws Exception {
+        int regionSize = 1000;
+        int regions = 32;
+        byte[] expected = keystream(regionSize * regions);
+
+        CTRMode mode = new CTRMode();
+        mode.initialise(cipher, keyA, nonceA);
+        CTRSession session = mode.session();
+
+        byte[] data = new byte[regionSize * regions];
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int r = 0; r < regions; r++) {
+                int region = r;
+                futures.add(pool.submit(() ->
+                        session.xorAt((long) region * regionSize, data, region * regionSize, regionSize)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        assertArrayEquals(expected, data);
+    }
+}
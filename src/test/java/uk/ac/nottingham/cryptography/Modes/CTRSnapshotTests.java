@@ -0,0 +1,163 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CASTCipher;
+import uk.ac.nottingham.cryptography.CTRMode;
+
+import java.util.ServiceLoader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class CTRSnapshotTests {
+    private final CASTCipher cipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+
+    private static final byte[] keyA;
+    private static final byte[] keyB;
+
+    private static final byte[] nonceA;
+
+    static {
+        keyA = new byte[48];
+        keyB = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+            keyB[i] = (byte) (i * 11);
+        }
+
+        nonceA = new byte[16];
+
+        for (int i = 0; i < 16; i++) {
+            nonceA[i] = (byte) (i * 3 + 19);
+        }
+    }
+
+    private byte[] keystream(int length) {
+        CTRMode reference = new CTRMode();
+        byte[] data = new byte[length];
+        reference.initialise(cipher, keyA, nonceA);
+        reference.encrypt(data);
+        return data;
+    }
+
+    private static byte[] slice(byte[] data, int from, int to) {
+        byte[] out = new byte[to - from];
+        System.arraycopy(data, from, out, 0, out.length);
+        return out;
+    }
+
+    @Test
+    @Order(0)
+    void snapshotRestoreTest() {
+        byte[] expected = keystream(100);
+        CTRMode mode = new CTRMode();
+
+        mode.initialise(cipher, keyA, nonceA);
+        mode.encrypt(new byte[37]);
+        CTRMode.State state = mode.snapshot();
+
+        byte[] first = new byte[50];
+        mode.encrypt(first);
+        assertArrayEquals(slice(expected, 37, 87), first);
+
+        mode.restore(state);
+        byte[] second = new byte[50];
+        mode.encrypt(second);
+        assertArrayEquals(slice(expected, 37, 87), second);
+    }
+
+    @Test
+    @Order(1)
+    void forkIsIndependentTest() {
+        byte[] expected = keystream(100);
+        CTRMode mode = new CTRMode();
+
+        mode.initialise(cipher, keyA, nonceA);
+        mode.encrypt(new byte[10]);
+        CTRMode fork = mode.fork();
+
+        // rekeying and advancing the parent must not disturb the fork
+        mode.initialise(cipher, keyB, nonceA);
+        mode.encrypt(new byte[30]);
+
+        byte[] data = new byte[60];
+        fork.encrypt(data);
+        assertArrayEquals(slice(expected, 10, 70), data);
+    }
+
+    @Test
+    @Order(2)
+    void serialisedStateTest() {
+        byte[] expected = keystream(100);
+        CTRMode mode = new CTRMode();
+
+        mode.initialise(cipher, keyA, nonceA);
+        mode.encrypt(new byte[53]);
+        byte[] saved = mode.snapshot().toBytes();
+        assertEquals(27, saved.length);
+
+        // resume in a fresh mode after the original cipher is gone
+        CASTCipher resumedCipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+        resumedCipher.initialise(keyA);
+        CTRMode resumed = new CTRMode();
+        resumed.restore(CTRMode.State.fromBytes(resumedCipher, saved));
+
+        byte[] data = new byte[47];
+        resumed.encrypt(data);
+        assertArrayEquals(slice(expected, 53, 100), data);
+    }
+
+    @Test
+    @Order(3)
+    void serialisedBlockBoundaryTest() {
+        byte[] expected = keystream(96);
+        CTRMode mode = new CTRMode();
+
+        mode.initialise(cipher, keyA, nonceA);
+        mode.encrypt(new byte[48]);
+        CTRMode.State state = CTRMode.State.fromBytes(cipher, mode.snapshot().toBytes());
+        assertEquals(2, state.getCounter());
+        assertEquals(24, state.getKeystreamIndex());
+
+        CTRMode resumed = new CTRMode();
+        resumed.restore(state);
+        byte[] data = new byte[48];
+        resumed.encrypt(data);
+        assertArrayEquals(slice(expected, 48, 96), data);
+    }
+
+    @Test
+    @Order(4)
+    void malformedStateTest() {
+        assertThrows(IllegalArgumentException.class, () -> CTRMode.State.fromBytes(cipher, new byte[] { 9, 16 }));
+        assertThrows(IllegalArgumentException.class, () -> CTRMode.State.fromBytes(cipher, new byte[] { 1, 16, 0 }));
+    }
+
+    @Test
+    @Order(5)
+    void restoredStateSurvivesRekeyTest() {
+        byte[] expected = keystream(100);
+        CTRMode mode = new CTRMode();
+
+        mode.initialise(cipher, keyA, nonceA);
+        mode.encrypt(new byte[29]);
+        byte[] saved = mode.snapshot().toBytes();
+
+        CASTCipher resumedCipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+        resumedCipher.initialise(keyA);
+        CTRMode.State state = CTRMode.State.fromBytes(resumedCipher, saved);
+
+        // rekeying the caller's cipher must not change the restored stream
+        resumedCipher.initialise(keyB);
+        CTRMode resumed = new CTRMode();
+        resumed.restore(state);
+
+        byte[] data = new byte[71];
+        resumed.encrypt(data);
+        assertArrayEquals(slice(expected, 29, 100), data);
+    }
+}
@@ -0,0 +1,335 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.ContainerReader;
+import uk.ac.nottingham.cryptography.ContainerWriter;
+
+import javax.crypto.AEADBadTagException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class ContainerTests {
+
+    private static final int CHUNK_SIZE = 24 * 40;
+
+    private static final byte[] keyA;
+
+    private static final byte[] keyB;
+
+    static {
+        keyA = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+        }
+
+        keyB = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyB[i] = (byte) (i * 11);
+        }
+    }
+
+    private Path dir;
+
+    @BeforeAll
+    void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("container");
+    }
+
+    @AfterAll
+    void deleteDirectory() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private static byte[] source(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (0x1b & (i * 3));
+        }
+        return data;
+    }
+
+    private Path write(String name, byte[] plaintext) throws IOException {
+        Path file = dir.resolve(name);
+        try (ContainerWriter writer = ContainerWriter.create(file, keyA, CHUNK_SIZE)) {
+            writer.write(plaintext);
+        }
+        return file;
+    }
+
+    @Test
+    @Order(0)
+    void streamRoundTripTest() throws Exception {
+        byte[] plaintext = source(CHUNK_SIZE * 5 + 100);
+        Path file = write("stream", plaintext);
+
+        try (ContainerReader reader = new ContainerReader(file, keyA);
+             InputStream in = reader.newInputStream()) {
+            assertEquals(6, reader.getChunkCount());
+            assertEquals(plaintext.length, reader.getLength());
+            assertArrayEquals(plaintext, in.readAllBytes());
+        }
+    }
+
+    @Test
+    @Order(1)
+    void ciphertextHidesPlaintextTest() throws Exception {
+        byte[] plaintext = source(CHUNK_SIZE * 2);
+        Path file = write("hidden", plaintext);
+
+        byte[] contents = Files.readAllBytes(file);
+        byte[] firstChunk = Arrays.copyOfRange(contents, 32, 32 + CHUNK_SIZE);
+        assertFalse(Arrays.equals(Arrays.copyOf(plaintext, CHUNK_SIZE), firstChunk));
+    }
+
+    @Test
+    @Order(2)
+    void randomAccessTest() throws Exception {
+        byte[] plaintext = source(CHUNK_SIZE * 7 + 5);
+        Path file = write("random", plaintext);
+
+        try (ContainerReader reader = new ContainerReader(file, keyA)) {
+            for (int chunk : new int[] { 7, 3, 0, 5 }) {
+                int start = chunk * CHUNK_SIZE;
+                int end = Math.min(plaintext.length, start + CHUNK_SIZE);
+                assertArrayEquals(Arrays.copyOfRange(plaintext, start, end), reader.readChunk(chunk));
+            }
+        }
+    }
+
+    @Test
+    @Order(3)
+    void parallelReadTest() throws Exception {
+        byte[] plaintext = source(CHUNK_SIZE * 64);
+        Path file = write("parallel", plaintext);
+
+        try (ContainerReader reader = new ContainerReader(file, keyA)) {
+            byte[] out = new byte[plaintext.length];
+            IntStream.range(0, reader.getChunkCount()).parallel().forEach(chunk -> {
+                try {
+                    reader.readChunk(chunk, out, chunk * CHUNK_SIZE);
+                } catch (IOException | AEADBadTagException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            assertArrayEquals(plaintext, out);
+        }
+    }
+
+    @Test
+    @Order(4)
+    void appendKeepsEarlierChunksTest() throws Exception {
+        byte[] first = source(CHUNK_SIZE * 2 + 10);
+        byte[] second = source(CHUNK_SIZE + 50);
+        Path file = write("append", first);
+
+        byte[] before = Files.readAllBytes(file);
+        int chunkBytes = first.length + 3 * 16;
+
+        try (ContainerWriter writer = ContainerWriter.append(file, keyA)) {
+            writer.write(second);
+        }
+
+        byte[] after = Files.readAllBytes(file);
+        assertArrayEquals(Arrays.copyOf(before, 32 + chunkBytes), Arrays.copyOf(after, 32 + chunkBytes));
+
+        try (ContainerReader reader = new ContainerReader(file, keyA);
+             InputStream in = reader.newInputStream()) {
+            assertEquals(5, reader.getChunkCount());
+            assertEquals(10, reader.getChunkLength(2));
+
+            byte[] expected = new byte[first.length + second.length];
+            System.arraycopy(first, 0, expected, 0, first.length);
+            System.arraycopy(second, 0, expected, first.length, second.length);
+            assertArrayEquals(expected, in.readAllBytes());
+        }
+    }
+
+    @Test
+    @Order(5)
+    void tamperedChunkTest() throws Exception {
+        Path file = write("tampered", source(CHUNK_SIZE * 3));
+
+        byte[] contents = Files.readAllBytes(file);
+        contents[32 + CHUNK_SIZE + 16 + 5] ^= 1; // inside chunk 1
+        Files.write(file, contents);
+
+        try (ContainerReader reader = new ContainerReader(file, keyA)) {
+            assertEquals(CHUNK_SIZE, reader.readChunk(0).length);
+            byte[] dest = new byte[CHUNK_SIZE];
+            assertThrows(AEADBadTagException.class, () -> reader.readChunk(1, dest, 0));
+            assertArrayEquals(new byte[CHUNK_SIZE], dest);
+            assertThrows(IOException.class, () -> reader.newInputStream().readAllBytes());
+        }
+    }
+
+    @Test
+    @Order(6)
+    void tamperedIndexTest() throws Exception {
+        Path file = write("index", source(CHUNK_SIZE * 3));
+
+        byte[] contents = Files.readAllBytes(file);
+        contents[contents.length - 48 - 36 + 9] ^= 1; // length of the last chunk
+        Files.write(file, contents);
+
+        assertThrows(AEADBadTagException.class, () -> new ContainerReader(file, keyA));
+    }
+
+    @Test
+    @Order(7)
+    void wrongKeyTest() throws Exception {
+        Path file = write("key", source(100));
+        assertThrows(AEADBadTagException.class, () -> new ContainerReader(file, keyB));
+    }
+
+    @Test
+    @Order(8)
+    void unclosedContainerTest() throws Exception {
+        Path file = dir.resolve("unclosed");
+        ContainerWriter writer = ContainerWriter.create(file, keyA, CHUNK_SIZE);
+        writer.write(source(CHUNK_SIZE * 2));
+
+        assertThrows(IOException.class, () -> new ContainerReader(file, keyA));
+        writer.close();
+        try (ContainerReader reader = new ContainerReader(file, keyA)) {
+            assertEquals(2, reader.getChunkCount());
+        }
+    }
+
+    @Test
+    @Order(9)
+    void emptyContainerTest() throws Exception {
+        Path file = write("empty", new byte[0]);
+        try (ContainerReader reader = new ContainerReader(file, keyA);
+             InputStream in = reader.newInputStream()) {
+            assertEquals(0, reader.getChunkCount());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    @Order(10)
+    void invalidChunkSizeTest() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ContainerWriter.create(dir.resolve("bad"), keyA, 100));
+    }
+
+    @Test
+    @Order(11)
+    void abortedAppendTest() throws Exception {
+        byte[] first = source(CHUNK_SIZE * 2 + 10);
+        byte[] second = source(CHUNK_SIZE + 70);
+        Path file = write("aborted", first);
+
+        // chunks reach the file, but the writer is abandoned before close
+        ContainerWriter abandoned = ContainerWriter.append(file, keyA);
+        abandoned.write(source(CHUNK_SIZE * 100 + 5)); // past one scan window
+        abandoned.flush();
+
+        try (ContainerReader reader = new ContainerReader(file, keyA);
+             InputStream in = reader.newInputStream()) {
+            assertEquals(3, reader.getChunkCount());
+            assertArrayEquals(first, in.readAllBytes());
+        }
+
+        try (ContainerWriter writer = ContainerWriter.append(file, keyA)) {
+            writer.write(second);
+        }
+
+        try (ContainerReader reader = new ContainerReader(file, keyA);
+             InputStream in = reader.newInputStream()) {
+            byte[] expected = new byte[first.length + second.length];
+            System.arraycopy(first, 0, expected, 0, first.length);
+            System.arraycopy(second, 0, expected, first.length, second.length);
+            assertEquals(5, reader.getChunkCount());
+            assertArrayEquals(expected, in.readAllBytes());
+        }
+    }
+
+    @Test
+    @Order(12)
+    void tornAppendFooterTest() throws Exception {
+        byte[] first = source(CHUNK_SIZE + 30);
+        Path file = write("torn", first);
+        try (ContainerWriter writer = ContainerWriter.append(file, keyA)) {
+            writer.write(source(CHUNK_SIZE * 2));
+        }
+
+        // lose the end of the new footer, as a crash while writing it would
+        byte[] contents = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(contents, contents.length - 5));
+
+        try (ContainerReader reader = new ContainerReader(file, keyA);
+             InputStream in = reader.newInputStream()) {
+            assertEquals(2, reader.getChunkCount());
+            assertArrayEquals(first, in.readAllBytes());
+        }
+    }
+
+    // adds every ciphertext block of the chunks one writer laid down from
+    // start, failing on any block seen before
+    private static void addBlocks(Set<ByteBuffer> blocks, byte[] contents, long start, int plaintextLength) {
+        int position = (int) start;
+        for (int remaining = plaintextLength; remaining > 0; remaining -= CHUNK_SIZE) {
+            int chunkLength = Math.min(CHUNK_SIZE, remaining);
+            for (int i = 0; i < chunkLength; i += 24) {
+                assertTrue(blocks.add(ByteBuffer.wrap(contents, position + i, 24)),
+                        "keystream at " + (position + i) + " was used before");
+            }
+            position += chunkLength + 16;
+        }
+    }
+
+    @Test
+    @Order(13)
+    void noCounterReuseTest() throws Exception {
+        // zero plaintext leaves the raw keystream in every chunk, so a
+        // counter used twice shows up as the same ciphertext block twice
+        int length = CHUNK_SIZE * 3 + 24;
+        Path file = write("reuse", new byte[length]);
+        long[] starts = new long[4];
+        starts[0] = 32;
+
+        starts[1] = Files.size(file);
+        ContainerWriter abandoned = ContainerWriter.append(file, keyA);
+        abandoned.write(new byte[length]);
+        abandoned.flush();
+
+        for (int i = 2; i < 4; i++) {
+            starts[i] = Files.size(file);
+            try (ContainerWriter writer = ContainerWriter.append(file, keyA)) {
+                writer.write(new byte[length]);
+            }
+        }
+
+        byte[] contents = Files.readAllBytes(file);
+        Set<ByteBuffer> blocks = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            // the abandoned writer never wrote out its last, partial chunk
+            addBlocks(blocks, contents, starts[i], i == 1 ? CHUNK_SIZE * 3 : length);
+        }
+
+        try (ContainerReader reader = new ContainerReader(file, keyA);
+             InputStream in = reader.newInputStream()) {
+            assertEquals(3 * 4, reader.getChunkCount());
+            assertArrayEquals(new byte[length * 3], in.readAllBytes());
+        }
+    }
+}
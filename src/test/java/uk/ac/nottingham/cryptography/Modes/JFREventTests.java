@@ -0,0 +1,127 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CAST384;
+import uk.ac.nottingham.cryptography.CTRMode;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class JFREventTests {
+
+    private static final String KEY_SCHEDULE = "uk.ac.nottingham.cryptography.KeySchedule";
+    private static final String BULK_CRYPT = "uk.ac.nottingham.cryptography.BulkCrypt";
+    private static final String CTR_SEEK = "uk.ac.nottingham.cryptography.CTRSeek";
+
+    private static final byte[] keyA;
+
+    private static final byte[] nonceA;
+
+    static {
+        keyA = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+        }
+
+        nonceA = new byte[16];
+
+        for (int i = 0; i < 16; i++) {
+            nonceA[i] = (byte) (i * 3 + 19);
+        }
+    }
+
+    private static void workload() {
+        CTRMode mode = new CTRMode();
+        mode.initialise(new CAST384(), keyA, nonceA);
+        mode.encrypt(new byte[24 * 10]);
+        mode.seek(new byte[] { 0, 5 });
+        mode.encrypt(new byte[24]);
+        mode.reset(nonceA);
+    }
+
+    private static List<RecordedEvent> record(String... names) throws Exception {
+        Path file = Files.createTempFile("crypto", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : names) {
+                recording.enable(name).withoutThreshold();
+            }
+            recording.start();
+            workload();
+            recording.stop();
+            recording.dump(file);
+        }
+
+        try {
+            return RecordingFile.readAllEvents(file).stream()
+                    .filter(e -> e.getEventType().getName().startsWith("uk.ac.nottingham.cryptography."))
+                    .collect(Collectors.toList());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @BeforeAll
+    void checkAvailable() {
+        Assumptions.assumeTrue(FlightRecorder.isAvailable());
+    }
+
+    @Test
+    @Order(0)
+    void disabledByDefaultTest() {
+        workload();
+        for (EventType type : FlightRecorder.getFlightRecorder().getEventTypes()) {
+            if (type.getName().startsWith("uk.ac.nottingham.cryptography.")) {
+                assertFalse(type.isEnabled(), type.getName());
+            }
+        }
+    }
+
+    @Test
+    @Order(1)
+    void noEventsUnlessEnabledTest() throws Exception {
+        assertEquals(0, record().size());
+    }
+
+    @Test
+    @Order(2)
+    void keyScheduleTest() throws Exception {
+        List<RecordedEvent> events = record(KEY_SCHEDULE);
+        assertEquals(1, events.size());
+        assertEquals(48, events.get(0).getInt("keyLength"));
+    }
+
+    @Test
+    @Order(3)
+    void bulkCryptTest() throws Exception {
+        List<RecordedEvent> events = record(BULK_CRYPT);
+        long bytes = 0;
+        for (RecordedEvent event : events) {
+            assertEquals("encrypt", event.getString("operation"));
+            bytes += event.getLong("bytes");
+        }
+        assertEquals(24 * 11, bytes);
+    }
+
+    @Test
+    @Order(4)
+    void ctrSeekTest() throws Exception {
+        List<RecordedEvent> events = record(CTR_SEEK);
+        assertEquals(3, events.size());
+        assertEquals("initialise", events.get(0).getString("kind"));
+        assertEquals("seek", events.get(1).getString("kind"));
+        assertEquals(5, events.get(1).getLong("counter"));
+        assertEquals("reset", events.get(2).getString("kind"));
+    }
+}
@@ -0,0 +1,253 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CAST384;
+import uk.ac.nottingham.cryptography.CTRMode;
+import uk.ac.nottingham.cryptography.HexUtils;
+import uk.ac.nottingham.cryptography.Main;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class MainTests {
+
+    private static final byte[] keyA;
+
+    private static final byte[] nonceA;
+
+    private static final String KEY;
+
+    private static final String NONCE;
+
+    static {
+        keyA = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+        }
+
+        nonceA = new byte[16];
+
+        for (int i = 0; i < 16; i++) {
+            nonceA[i] = (byte) (i * 3 + 19);
+        }
+
+        KEY = HexUtils.bytesToHex(keyA);
+        NONCE = HexUtils.bytesToHex(nonceA);
+    }
+
+    private Path dir;
+
+    @BeforeAll
+    void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("main");
+    }
+
+    @AfterAll
+    void deleteDirectory() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private static byte[] source(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (0x1b & (i * 3));
+        }
+        return data;
+    }
+
+    private static byte[] ctr(byte[] data) {
+        CTRMode mode = new CTRMode();
+        mode.initialise(new CAST384(), keyA, nonceA);
+        byte[] output = data.clone();
+        mode.encrypt(output);
+        return output;
+    }
+
+    private static final class Result {
+        int status;
+        byte[] out;
+        String err;
+    }
+
+    private static Result run(byte[] stdin, String... args) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        Result result = new Result();
+        result.status = Main.run(args, new ByteArrayInputStream(stdin), new PrintStream(out, true),
+                new PrintStream(err, true, StandardCharsets.UTF_8));
+        result.out = out.toByteArray();
+        result.err = err.toString(StandardCharsets.UTF_8);
+        return result;
+    }
+
+    private static Result run(String... args) {
+        return run(new byte[0], args);
+    }
+
+    @Test
+    @Order(0)
+    void streamRoundTripTest() {
+        byte[] plaintext = source(24 * 100 + 7);
+
+        // without --nonce the random nonce leads the output
+        Result encrypted = run(plaintext, "encrypt", "--key", KEY, "--chunk", "1K", "--quiet");
+        assertEquals(0, encrypted.status, encrypted.err);
+        assertEquals(16 + plaintext.length, encrypted.out.length);
+
+        Result decrypted = run(encrypted.out, "decrypt", "--key", KEY, "--chunk", "1K", "--quiet");
+        assertEquals(0, decrypted.status, decrypted.err);
+        assertArrayEquals(plaintext, decrypted.out);
+
+        // with --nonce the output is the bare CTR ciphertext
+        Result withNonce = run(plaintext, "encrypt", "-k", KEY, "-n", NONCE, "-q");
+        assertEquals(0, withNonce.status, withNonce.err);
+        assertArrayEquals(ctr(plaintext), withNonce.out);
+        assertArrayEquals(plaintext, run(withNonce.out, "decrypt", "-k", KEY, "-n", NONCE, "-q").out);
+    }
+
+    @Test
+    @Order(1)
+    void fileRoundTripTest() throws IOException {
+        byte[] plaintext = source(5000 * 24 + 11);
+        Path in = dir.resolve("plain");
+        Path encrypted = dir.resolve("encrypted");
+        Path decrypted = dir.resolve("decrypted");
+        Files.write(in, plaintext);
+
+        Result result = run("encrypt", "--key", KEY, "--in", in.toString(), "--out", encrypted.toString(),
+                "--threads", "3", "--chunk", "4k");
+        assertEquals(0, result.status, result.err);
+        assertEquals(0, result.out.length);
+        assertTrue(result.err.startsWith("encrypted " + plaintext.length + " bytes"), result.err);
+        assertEquals(16 + plaintext.length, Files.size(encrypted));
+
+        result = run("decrypt", "--key", KEY, "-i", encrypted.toString(), "-o", decrypted.toString(), "-q");
+        assertEquals(0, result.status, result.err);
+        assertArrayEquals(plaintext, Files.readAllBytes(decrypted));
+
+        result = run("encrypt", "--key", KEY, "--nonce", NONCE, "-i", in.toString(), "-o", encrypted.toString(),
+                "-t", "2", "-c", "1K", "-q");
+        assertEquals(0, result.status, result.err);
+        assertArrayEquals(ctr(plaintext), Files.readAllBytes(encrypted));
+    }
+
+    @Test
+    @Order(2)
+    void mappedRoundTripTest() throws IOException {
+        byte[] plaintext = source(3000 * 24 + 5);
+        Path in = dir.resolve("mapped-plain");
+        Path encrypted = dir.resolve("mapped-encrypted");
+        Path decrypted = dir.resolve("mapped-decrypted");
+        Files.write(in, plaintext);
+
+        Result result = run("encrypt", "--key", KEY, "--mmap", "-i", in.toString(), "-o", encrypted.toString(),
+                "--chunk", "2K", "-q");
+        assertEquals(0, result.status, result.err);
+        assertEquals(16 + plaintext.length, Files.size(encrypted));
+
+        // a mapped encryption reads back through the streaming path
+        Result streamed = run(Files.readAllBytes(encrypted), "decrypt", "--key", KEY, "-q");
+        assertArrayEquals(plaintext, streamed.out);
+
+        result = run("decrypt", "--key", KEY, "--mmap", "-i", encrypted.toString(), "-o", decrypted.toString(), "-q");
+        assertEquals(0, result.status, result.err);
+        assertArrayEquals(plaintext, Files.readAllBytes(decrypted));
+
+        result = run("encrypt", "--key", KEY, "--nonce", NONCE, "--mmap", "-i", in.toString(),
+                "-o", encrypted.toString(), "-q");
+        assertEquals(0, result.status, result.err);
+        assertArrayEquals(ctr(plaintext), Files.readAllBytes(encrypted));
+    }
+
+    @Test
+    @Order(3)
+    void keyFileTest() throws IOException {
+        byte[] plaintext = source(500);
+        Path keyFile = dir.resolve("key");
+        Files.write(keyFile, keyA);
+
+        Result result = run(plaintext, "encrypt", "--key-file", keyFile.toString(), "--nonce", NONCE, "-q");
+        assertEquals(0, result.status, result.err);
+        assertArrayEquals(ctr(plaintext), result.out);
+
+        Files.write(keyFile, Arrays.copyOf(keyA, 20));
+        assertEquals(2, run(plaintext, "encrypt", "--key-file", keyFile.toString()).status);
+    }
+
+    @Test
+    @Order(4)
+    void badOptionsTest() {
+        String[][] invocations = {
+                {},
+                { "scramble", "--key", KEY },
+                { "encrypt", "--key", KEY, "--fast" },
+                { "encrypt" },
+                { "encrypt", "--key" },
+                { "encrypt", "--key", "abc" },
+                { "encrypt", "--key", "zz" + KEY.substring(2) },
+                { "encrypt", "--key", KEY.substring(0, 40) },
+                { "encrypt", "--key", KEY, "--nonce", NONCE.substring(2) },
+                { "encrypt", "--key", KEY, "--threads", "0" },
+                { "encrypt", "--key", KEY, "--threads", "1025" },
+                { "encrypt", "--key", KEY, "--threads", "4.5" },
+                { "encrypt", "--key", KEY, "--threads", "99999999999" },
+                { "encrypt", "--key", KEY, "--chunk", "16" },
+                { "encrypt", "--key", KEY, "--chunk", "2G" },
+                { "encrypt", "--key", KEY, "--chunk", "M" },
+                { "encrypt", "--key", KEY, "--chunk", "-1K" },
+                { "encrypt", "--key", KEY, "--chunk", "9999999999999999G" },
+                { "encrypt", "--key", KEY, "--mmap" },
+                { "encrypt", "--key", KEY, "--mmap", "--in", "plain" },
+        };
+
+        for (String[] args : invocations) {
+            Result result = run(args);
+            String invocation = String.join(" ", args);
+            assertEquals(2, result.status, invocation);
+            assertEquals(0, result.out.length, invocation);
+            assertTrue(result.err.startsWith("error: "), invocation);
+            assertTrue(result.err.contains("usage: "), invocation);
+        }
+
+        // the largest thread count still parses
+        assertEquals(0, run(source(10), "encrypt", "--key", KEY, "--threads", "1024", "-q").status);
+    }
+
+    @Test
+    @Order(5)
+    void helpTest() {
+        Result result = run("--help");
+        assertEquals(0, result.status);
+        assertTrue(new String(result.out, StandardCharsets.UTF_8).startsWith("usage: "));
+        assertEquals("", result.err);
+    }
+
+    @Test
+    @Order(6)
+    void runFailureTest() throws IOException {
+        // too short to hold a nonce is a failed run, not a usage error
+        Result result = run(new byte[10], "decrypt", "--key", KEY, "-q");
+        assertEquals(1, result.status);
+        assertEquals("error: Input is too short to hold a nonce", result.err.trim());
+
+        result = run("encrypt", "--key", KEY, "--in", dir.resolve("missing").toString(), "-q");
+        assertEquals(1, result.status);
+        assertFalse(result.err.contains("usage: "), result.err);
+    }
+}
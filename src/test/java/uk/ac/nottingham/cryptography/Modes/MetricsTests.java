@@ -0,0 +1,229 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.*;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class MetricsTests {
+
+    private static final byte[] keyA;
+
+    private static final byte[] nonceA;
+
+    static {
+        keyA = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+        }
+
+        nonceA = new byte[16];
+
+        for (int i = 0; i < 16; i++) {
+            nonceA[i] = (byte) (i * 3 + 19);
+        }
+    }
+
+    private static final byte[] keyB;
+
+    static {
+        keyB = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyB[i] = (byte) (i * 11);
+        }
+    }
+
+    private static byte[] source(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (0x1b & (i * 3));
+        }
+        return data;
+    }
+
+    @Test
+    @Order(0)
+    void meteredModeMatchesPlainModeTest() {
+        byte[] plaintext = source(24 * 100 + 7);
+
+        byte[] expected = plaintext.clone();
+        CTRMode plain = new CTRMode();
+        plain.initialise(new CAST384(), keyA, nonceA);
+        plain.encrypt(expected);
+
+        byte[] actual = plaintext.clone();
+        CipherMode metered = new MeteredCipherMode(new CTRMode(), new CryptoMetrics());
+        metered.initialise(new CAST384(), keyA, nonceA);
+        metered.encrypt(actual);
+
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    @Order(1)
+    void countersTest() {
+        CryptoMetrics metrics = new CryptoMetrics();
+        CipherMode mode = new MeteredCipherMode(new CTRMode(), metrics);
+        mode.initialise(new CAST384(), keyA, nonceA);
+
+        mode.encrypt(source(24 * 10));
+        mode.encrypt(source(30));
+        mode.seek(new byte[] { 0, 0 });
+        mode.decrypt(source(48));
+
+        assertEquals(24 * 10 + 30, metrics.getBytesEncrypted());
+        assertEquals(48, metrics.getBytesDecrypted());
+        // CTR only ever runs the cipher forwards: 10 + 2 blocks, then 2 more after the seek
+        assertEquals(14, metrics.getBlocksEncrypted());
+        assertEquals(0, metrics.getBlocksDecrypted());
+        assertEquals(1, metrics.getRekeys());
+        assertEquals(1, metrics.getSeeks());
+        assertEquals(2, metrics.getEncryptLatency().getCount());
+        assertEquals(1, metrics.getDecryptLatency().getCount());
+        assertEquals(1, metrics.getRekeyLatency().getCount());
+    }
+
+    @Test
+    @Order(2)
+    void keystreamCacheTest() {
+        CryptoMetrics metrics = new CryptoMetrics();
+        KeystreamCache cache = new KeystreamCache(1 << 16);
+        metrics.track(cache);
+
+        CTRMode mode = new CTRMode();
+        mode.initialise(new CAST384(), keyA, nonceA);
+        mode.setKeystreamCache(cache, 1);
+        mode.encrypt(source(24 * 4));
+        mode.reset(nonceA);
+        mode.encrypt(source(24 * 4));
+
+        assertEquals(cache.getHits(), metrics.getKeystreamCacheHits());
+        assertEquals(cache.getMisses(), metrics.getKeystreamCacheMisses());
+        assertTrue(metrics.getKeystreamCacheHits() > 0);
+    }
+
+    @Test
+    @Order(3)
+    void histogramPercentileTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(0.99));
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_500.0, histogram.getMean(), 1e-9);
+
+        // buckets are within 12.5% of the true value
+        assertEquals(500_000, histogram.getPercentile(0.5), 500_000 * 0.125);
+        assertEquals(990_000, histogram.getPercentile(0.99), 990_000 * 0.125);
+        assertEquals(1_000_000, histogram.getPercentile(1.0));
+        assertTrue(histogram.getPercentile(0.5) >= 500_000);
+
+        assertThrows(IllegalArgumentException.class, () -> histogram.getPercentile(1.5));
+    }
+
+    @Test
+    @Order(4)
+    void smallValuesExactTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 8; i++) {
+            histogram.record(i);
+        }
+        assertEquals(3, histogram.getPercentile(0.5));
+        assertEquals(7, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    @Order(5)
+    void mbeanTest() throws Exception {
+        CryptoMetrics metrics = new CryptoMetrics();
+        ObjectName name = metrics.register("metrics-test");
+        try {
+            CipherMode mode = new MeteredCipherMode(new CTRMode(), metrics);
+            mode.initialise(new CAST384(), keyA, nonceA);
+            mode.encrypt(source(24 * 3));
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(72L, server.getAttribute(name, "BytesEncrypted"));
+            assertEquals(1L, server.getAttribute(name, "Rekeys"));
+
+            CompositeData latency = (CompositeData) server.getAttribute(name, "EncryptLatency");
+            assertEquals(1L, latency.get("count"));
+            assertTrue((Long) latency.get("p99Nanos") > 0);
+
+            // registering again under the same name replaces the old bean
+            new CryptoMetrics().register("metrics-test");
+            assertEquals(0L, server.getAttribute(name, "BytesEncrypted"));
+        } finally {
+            CryptoMetrics.unregister("metrics-test");
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    @Order(6)
+    void ctrEntryPointsTest() {
+        CryptoMetrics metrics = new CryptoMetrics();
+        MeteredCipherMode mode = new MeteredCipherMode(new CTRMode(), metrics);
+        mode.initialise(new CAST384(), keyA, nonceA);
+
+        byte[] output = new byte[24 * 5];
+        mode.encrypt(source(24 * 5 + 3), 3, 24 * 5, output, 0);
+        mode.reset(nonceA);
+        mode.decrypt(output, 0, 24 * 2, output, 0);
+        mode.encryptBatch(new byte[][] { nonceA, nonceA }, new byte[][] { source(24), source(30) });
+        mode.decryptBatch(new byte[][] { nonceA }, new byte[][] { source(24) });
+
+        assertEquals(24 * 5 + 24 + 30, metrics.getBytesEncrypted());
+        assertEquals(24 * 2 + 24, metrics.getBytesDecrypted());
+        // 5 blocks, 2 after the reset, then 1 + 2 and 1 for the batches
+        assertEquals(11, metrics.getBlocksEncrypted());
+        assertEquals(2, metrics.getRekeys());
+        assertEquals(2, metrics.getRekeyLatency().getCount());
+        assertEquals(2, metrics.getEncryptLatency().getCount());
+        assertEquals(2, metrics.getDecryptLatency().getCount());
+
+        MeteredCipherMode cbc = new MeteredCipherMode(new CBCMode(), metrics);
+        assertThrows(UnsupportedOperationException.class, () -> cbc.reset(nonceA));
+    }
+
+    @Test
+    @Order(7)
+    void meteredSnapshotSurvivesRekeyTest() {
+        byte[] plaintext = source(24 * 4 + 5);
+
+        byte[] expected = plaintext.clone();
+        CTRMode plain = new CTRMode();
+        plain.initialise(new CAST384(), keyA, nonceA);
+        plain.encrypt(expected);
+
+        CryptoMetrics metrics = new CryptoMetrics();
+        MeteredCipherMode mode = new MeteredCipherMode(new CTRMode(), metrics);
+        mode.initialise(new CAST384(), keyA, nonceA);
+        CTRMode ctr = (CTRMode) mode.getDelegate();
+        CTRMode.State start = ctr.snapshot();
+
+        // rekeying the same cipher must not reach the snapshot's schedule
+        mode.initialise(mode.getCipher(), keyB, nonceA);
+        ctr.restore(start);
+
+        long blocks = metrics.getBlocksEncrypted();
+        byte[] actual = plaintext.clone();
+        mode.encrypt(actual);
+
+        assertArrayEquals(expected, actual);
+        assertEquals(blocks + 5, metrics.getBlocksEncrypted());
+    }
+}
@@ -0,0 +1,114 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.NonceAllocator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class NonceAllocatorTests {
+
+    private static final byte[] prefixA = { 1, 2, 3, 4, 5, 6, 7, 8 };
+
+    private static long counterOf(byte[] nonce) {
+        long value = 0;
+        for (int i = 8; i < 16; i++) {
+            value = (value << 8) | (nonce[i] & 0xFF);
+        }
+        return value;
+    }
+
+    @Test
+    @Order(0)
+    void prefixAndCounterTest() {
+        NonceAllocator allocator = new NonceAllocator(prefixA);
+        byte[] first = allocator.next();
+        byte[] second = allocator.next();
+
+        assertEquals(16, first.length);
+        assertArrayEquals(prefixA, Arrays.copyOf(first, 8));
+        assertEquals(0, counterOf(first));
+        assertEquals(1, counterOf(second));
+    }
+
+    @Test
+    @Order(1)
+    void concurrentNoncesAreUniqueTest() throws Exception {
+        NonceAllocator allocator = new NonceAllocator(prefixA, null, 100);
+        Set<Long> seen = ConcurrentHashMap.newKeySet();
+        int perThread = 5000;
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(pool.submit(() -> {
+                    byte[] nonce = new byte[16];
+                    for (int i = 0; i < perThread; i++) {
+                        allocator.next(nonce, 0);
+                        assertTrue(seen.add(counterOf(nonce)));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(8 * perThread, seen.size());
+    }
+
+    @Test
+    @Order(2)
+    void restartResumesAboveHighWaterTest() throws IOException {
+        Path dir = Files.createTempDirectory("nonces");
+        Path file = dir.resolve("highwater");
+        try {
+            NonceAllocator before = new NonceAllocator(prefixA, file, 16);
+            Set<Long> used = new HashSet<>();
+            long highest = 0;
+            for (int i = 0; i < 1000; i++) {
+                long value = counterOf(before.next());
+                used.add(value);
+                highest = Math.max(highest, value);
+            }
+            assertTrue(Files.exists(file));
+            assertTrue(before.getPersistedLimit() > highest);
+
+            // a restart, as if after a crash, never goes back
+            NonceAllocator after = new NonceAllocator(prefixA, file, 16);
+            long resumed = counterOf(after.next());
+            assertTrue(resumed > highest);
+            assertEquals(before.getPersistedLimit(), resumed);
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    @Order(3)
+    void invalidArgumentsTest() {
+        assertThrows(IllegalArgumentException.class, () -> new NonceAllocator(new byte[4]));
+        assertThrows(IllegalArgumentException.class, () -> new NonceAllocator(prefixA, null, 0));
+    }
+}
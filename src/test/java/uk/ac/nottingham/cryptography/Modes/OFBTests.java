@@ -0,0 +1,177 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CASTCipher;
+import uk.ac.nottingham.cryptography.OFBMode;
+
+import java.util.ServiceLoader;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class OFBTests {
+    private final CASTCipher cipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+
+    private static final byte[] keyA;
+
+    private static final byte[] ivA;
+
+    static {
+        keyA = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+        }
+
+        ivA = new byte[24];
+
+        for (int i = 0; i < 24; i++) {
+            ivA[i] = (byte) (i * 5 + 1);
+        }
+    }
+
+    // OFB keystream built by hand from single block calls
+    private byte[] referenceKeystream(int length) {
+        cipher.initialise(keyA);
+        byte[] out = new byte[length];
+        byte[] block = ivA.clone();
+        for (int offset = 0; offset < length; offset += 24) {
+            cipher.encrypt(block);
+            System.arraycopy(block, 0, out, offset, Math.min(24, length - offset));
+        }
+        return out;
+    }
+
+    private static byte[] slice(byte[] data, int from, int to) {
+        byte[] out = new byte[to - from];
+        System.arraycopy(data, from, out, 0, out.length);
+        return out;
+    }
+
+    @Test
+    @Order(0)
+    void onDemandKeystreamTest() {
+        byte[] expected = referenceKeystream(250);
+        OFBMode mode = new OFBMode();
+
+        mode.initialise(cipher, keyA, ivA);
+        byte[] first = new byte[7];
+        byte[] second = new byte[243];
+        mode.encrypt(first);
+        mode.encrypt(second);
+
+        assertArrayEquals(slice(expected, 0, 7), first);
+        assertArrayEquals(slice(expected, 7, 250), second);
+        assertEquals(17, mode.getPrecomputedBytes());
+        assertEquals(233, mode.getOnDemandBytes());
+    }
+
+    @Test
+    @Order(1)
+    void precomputedKeystreamTest() {
+        byte[] expected = referenceKeystream(600);
+        OFBMode mode = new OFBMode(500);
+
+        mode.initialise(cipher, keyA, ivA);
+        mode.precompute();
+        assertEquals(504, mode.getBufferedBytes());
+
+        byte[] first = new byte[300];
+        mode.encrypt(first);
+        assertArrayEquals(slice(expected, 0, 300), first);
+        assertEquals(1.0, mode.getPrecomputedHitRatio());
+
+        // refill around the ring's wrap point
+        mode.precompute();
+        byte[] second = new byte[300];
+        mode.encrypt(second);
+        assertArrayEquals(slice(expected, 300, 600), second);
+        assertEquals(1.0, mode.getPrecomputedHitRatio());
+    }
+
+    @Test
+    @Order(2)
+    void backgroundRefillTest() {
+        byte[] expected = referenceKeystream(2400);
+        OFBMode mode = new OFBMode(480, Runnable::run);
+
+        mode.initialise(cipher, keyA, ivA);
+        assertEquals(480, mode.getBufferedBytes());
+
+        byte[] data = new byte[2400];
+        for (int offset = 0; offset < data.length; offset += 200) {
+            byte[] chunk = new byte[200];
+            mode.encrypt(chunk);
+            System.arraycopy(chunk, 0, data, offset, 200);
+        }
+
+        assertArrayEquals(expected, data);
+        assertEquals(1.0, mode.getPrecomputedHitRatio());
+    }
+
+    @Test
+    @Order(3)
+    void roundTripTest() {
+        byte[] plaintext = new byte[100];
+        for (int i = 0; i < plaintext.length; i++) {
+            plaintext[i] = (byte) (0x1b & i);
+        }
+        byte[] data = plaintext.clone();
+        OFBMode mode = new OFBMode(96);
+
+        mode.initialise(cipher, keyA, ivA);
+        mode.encrypt(data);
+        mode.initialise(cipher, keyA, ivA);
+        mode.precompute();
+        mode.decrypt(data);
+        assertArrayEquals(plaintext, data);
+    }
+
+    @Test
+    @Order(4)
+    void invalidInputTest() {
+        OFBMode mode = new OFBMode();
+        assertThrows(IllegalArgumentException.class, () -> mode.initialise(cipher, keyA, new byte[16]));
+        assertThrows(IllegalArgumentException.class, () -> new OFBMode(-1));
+        assertThrows(UnsupportedOperationException.class, () -> mode.seek(new byte[] { 1 }));
+        assertThrows(IllegalStateException.class, mode::precompute);
+    }
+
+    @Test
+    @Order(5)
+    void rejectedRefillTest() {
+        // rejects the first two refills, then runs the rest inline
+        AtomicInteger calls = new AtomicInteger();
+        Executor flaky = task -> {
+            if (calls.incrementAndGet() <= 2) {
+                throw new RejectedExecutionException();
+            }
+            task.run();
+        };
+
+        byte[] expected = referenceKeystream(2400);
+        OFBMode mode = new OFBMode(480, flaky);
+
+        mode.initialise(cipher, keyA, ivA);
+        assertEquals(480, mode.getBufferedBytes());
+
+        byte[] data = new byte[2400];
+        for (int offset = 0; offset < data.length; offset += 200) {
+            byte[] chunk = new byte[200];
+            mode.encrypt(chunk);
+            System.arraycopy(chunk, 0, data, offset, 200);
+        }
+
+        assertArrayEquals(expected, data);
+        assertEquals(1.0, mode.getPrecomputedHitRatio());
+        assertEquals(480, mode.getBufferedBytes());
+        assertTrue(calls.get() > 2);
+    }
+}
@@ -0,0 +1,178 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CASTCipher;
+import uk.ac.nottingham.cryptography.PMAC;
+
+import java.util.Arrays;
+import java.util.ServiceLoader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class PMACTests {
+    private final CASTCipher cipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+    private final PMAC mac = new PMAC();
+
+    private static final byte[] keyA;
+
+    static {
+        keyA = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+        }
+    }
+
+    private static byte[] source(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 7 + 1);
+        }
+        return data;
+    }
+
+    // PMAC1 written out block by block, with offsets from the ntz recurrence
+    private byte[] referenceTag(byte[] message) {
+        cipher.initialise(keyA);
+        byte[] l = new byte[24];
+        cipher.encrypt(l);
+
+        int blocks = Math.max(1, (message.length + 23) / 24);
+        byte[] sigma = new byte[24];
+        byte[] delta = new byte[24];
+        for (int i = 1; i < blocks; i++) {
+            byte[] mask = l.clone();
+            for (int j = 0; j < Integer.numberOfTrailingZeros(i); j++) {
+                mask = times(mask);
+            }
+            xor(delta, mask);
+
+            byte[] block = Arrays.copyOfRange(message, (i - 1) * 24, i * 24);
+            xor(block, delta);
+            cipher.encrypt(block);
+            xor(sigma, block);
+        }
+
+        int lastStart = (blocks - 1) * 24;
+        byte[] last = new byte[24];
+        System.arraycopy(message, lastStart, last, 0, message.length - lastStart);
+        if (message.length - lastStart == 24) {
+            // full final block is masked with L·x^-1
+            xor(last, solveHalf(l));
+        } else {
+            last[message.length - lastStart] = (byte) 0x80;
+        }
+        xor(last, sigma);
+        cipher.encrypt(last);
+        return last;
+    }
+
+    // y with y·x = l: shift right, folding the reduction back in when l is odd
+    private static byte[] solveHalf(byte[] l) {
+        byte[] y = l.clone();
+        boolean odd = (y[23] & 1) != 0;
+        if (odd) {
+            y[23] ^= (byte) 0x87;
+        }
+        for (int b = 23; b > 0; b--) {
+            y[b] = (byte) (((y[b] & 0xFF) >>> 1) | ((y[b - 1] & 1) << 7));
+        }
+        y[0] = (byte) (((y[0] & 0xFF) >>> 1) | (odd ? 0x80 : 0));
+        assertArrayEquals(l, times(y));
+        return y;
+    }
+
+    private static byte[] times(byte[] a) {
+        byte[] out = new byte[24];
+        for (int b = 0; b < 24; b++) {
+            out[b] = (byte) ((a[b] << 1) | (b < 23 ? (a[b + 1] & 0xFF) >>> 7 : 0));
+        }
+        if ((a[0] & 0x80) != 0) {
+            out[23] ^= (byte) 0x87;
+        }
+        return out;
+    }
+
+    private static void xor(byte[] target, byte[] value) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] ^= value[i];
+        }
+    }
+
+    @Test
+    @Order(0)
+    void matchesReferenceTest() {
+        mac.initialise(cipher, keyA);
+        for (int length : new int[] { 0, 1, 23, 24, 25, 48, 100, 24 * 9 }) {
+            byte[] message = source(length);
+            mac.update(message);
+            byte[] tag = mac.doFinal();
+            assertArrayEquals(referenceTag(message), tag);
+            mac.initialise(cipher, keyA);
+        }
+    }
+
+    @Test
+    @Order(1)
+    void incrementalUpdatesTest() {
+        byte[] message = source(1000);
+        mac.initialise(cipher, keyA);
+        mac.update(message);
+        byte[] expected = mac.doFinal();
+
+        int[] pieces = { 1, 23, 24, 0, 25, 300, 3, 624 };
+        int offset = 0;
+        for (int piece : pieces) {
+            mac.update(message, offset, piece);
+            offset += piece;
+        }
+        assertArrayEquals(expected, mac.doFinal());
+    }
+
+    @Test
+    @Order(2)
+    void parallelUpdateTest() {
+        byte[] message = source(24 * 20000 + 5);
+
+        mac.initialise(cipher, keyA);
+        for (int offset = 0; offset < message.length; offset += 1000) {
+            mac.update(message, offset, Math.min(1000, message.length - offset));
+        }
+        byte[] expected = mac.doFinal();
+
+        mac.update(message);
+        assertArrayEquals(expected, mac.doFinal());
+    }
+
+    @Test
+    @Order(3)
+    void paddingIsUnambiguousTest() {
+        byte[] full = source(24);
+        byte[] padded = Arrays.copyOf(source(24), 23);
+
+        mac.initialise(cipher, keyA);
+        mac.update(full);
+        byte[] a = mac.doFinal();
+
+        full[23] = (byte) 0x80;
+        mac.update(full);
+        byte[] b = mac.doFinal();
+
+        mac.update(padded);
+        byte[] c = mac.doFinal();
+
+        assertFalse(Arrays.equals(a, b));
+        assertFalse(Arrays.equals(b, c));
+    }
+
+    @Test
+    @Order(4)
+    void uninitialisedTest() {
+        PMAC fresh = new PMAC();
+        assertThrows(IllegalStateException.class, () -> fresh.update(new byte[1]));
+    }
+}
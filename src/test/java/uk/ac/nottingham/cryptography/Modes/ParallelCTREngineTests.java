@@ -0,0 +1,129 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CAST384;
+import uk.ac.nottingham.cryptography.CTRMode;
+import uk.ac.nottingham.cryptography.CTRSession;
+import uk.ac.nottingham.cryptography.ParallelCTREngine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class ParallelCTREngineTests {
+
+    private static final byte[] keyA;
+
+    private static final byte[] nonceA;
+
+    static {
+        keyA = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+        }
+
+        nonceA = new byte[16];
+
+        for (int i = 0; i < 16; i++) {
+            nonceA[i] = (byte) (i * 3 + 19);
+        }
+    }
+
+    private static byte[] source(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (0x1b & (i * 3));
+        }
+        return data;
+    }
+
+    private static byte[] reference(byte[] plaintext) {
+        CTRMode mode = new CTRMode();
+        byte[] data = plaintext.clone();
+        mode.initialise(new CAST384(), keyA, nonceA);
+        mode.encrypt(data);
+        return data;
+    }
+
+    private static ParallelCTREngine engine(int threads, int chunkSize) {
+        CAST384 cipher = new CAST384();
+        cipher.initialise(keyA);
+        return new ParallelCTREngine(new CTRSession(cipher, nonceA), threads, chunkSize);
+    }
+
+    @Test
+    @Order(0)
+    void streamMatchesCTRModeTest() throws Exception {
+        // many more chunks than buffers, with a partial last chunk
+        byte[] plaintext = source(24 * 1000 + 7);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (ParallelCTREngine engine = engine(3, 24 * 10)) {
+            long count = engine.transform(new ByteArrayInputStream(plaintext), out, 0);
+            assertEquals(plaintext.length, count);
+        }
+        assertArrayEquals(reference(plaintext), out.toByteArray());
+    }
+
+    @Test
+    @Order(1)
+    void streamOffsetTest() throws Exception {
+        byte[] plaintext = source(5000);
+        byte[] expected = reference(plaintext);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (ParallelCTREngine engine = engine(2, 1000)) {
+            engine.transform(new ByteArrayInputStream(plaintext, 1234, 5000 - 1234), out, 1234);
+        }
+
+        byte[] tail = new byte[5000 - 1234];
+        System.arraycopy(expected, 1234, tail, 0, tail.length);
+        assertArrayEquals(tail, out.toByteArray());
+    }
+
+    @Test
+    @Order(2)
+    void emptyStreamTest() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ParallelCTREngine engine = engine(2, 240)) {
+            assertEquals(0, engine.transform(new ByteArrayInputStream(new byte[0]), out, 0));
+        }
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    @Order(3)
+    void mappedMatchesCTRModeTest() throws Exception {
+        byte[] plaintext = source(24 * 777 + 5);
+        Path dir = Files.createTempDirectory("ctr-engine");
+        Path input = dir.resolve("in");
+        Path output = dir.resolve("out");
+
+        // a header ahead of the data on both sides
+        byte[] withHeader = new byte[plaintext.length + 16];
+        System.arraycopy(plaintext, 0, withHeader, 16, plaintext.length);
+        Files.write(input, withHeader);
+        Files.write(output, new byte[8]);
+
+        try (ParallelCTREngine engine = engine(4, 24 * 50)) {
+            assertEquals(plaintext.length, engine.transform(input, 16, output, 8));
+        }
+
+        byte[] written = Files.readAllBytes(output);
+        assertEquals(plaintext.length + 8, written.length);
+        byte[] data = new byte[plaintext.length];
+        System.arraycopy(written, 8, data, 0, data.length);
+        assertArrayEquals(reference(plaintext), data);
+
+        Files.delete(input);
+        Files.delete(output);
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,301 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CASTCipher;
+import uk.ac.nottingham.cryptography.CASTProvider;
+import uk.ac.nottingham.cryptography.CBCMode;
+import uk.ac.nottingham.cryptography.CTRMode;
+
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.util.ServiceLoader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class ProviderTests {
+    private final CASTCipher cipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+    private final Provider provider = new CASTProvider();
+
+    private static final byte[] keyA;
+
+    private static final byte[] nonceA;
+
+    private static final byte[] ivA;
+
+    static {
+        keyA = new byte[48];
+
+        for (int i = 0; i < 48; i++) {
+            keyA[i] = (byte) (i + 3);
+        }
+
+        nonceA = new byte[16];
+
+        for (int i = 0; i < 16; i++) {
+            nonceA[i] = (byte) (i * 3 + 19);
+        }
+
+        ivA = new byte[24];
+
+        for (int i = 0; i < 24; i++) {
+            ivA[i] = (byte) (i * 5 + 1);
+        }
+    }
+
+    private static byte[] source(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (0x1b & (i * 3));
+        }
+        return data;
+    }
+
+    private Cipher ctr(int opmode) throws Exception {
+        Cipher c = Cipher.getInstance("CAST384/CTR/NoPadding", provider);
+        c.init(opmode, new SecretKeySpec(keyA, "CAST384"), new IvParameterSpec(nonceA));
+        return c;
+    }
+
+    private byte[] referenceCTR(byte[] plaintext) {
+        CTRMode mode = new CTRMode();
+        byte[] data = plaintext.clone();
+        mode.initialise(cipher, keyA, nonceA);
+        mode.encrypt(data);
+        return data;
+    }
+
+    @Test
+    @Order(0)
+    void ctrMatchesModeTest() throws Exception {
+        byte[] plaintext = source(1000);
+        assertArrayEquals(referenceCTR(plaintext), ctr(Cipher.ENCRYPT_MODE).doFinal(plaintext));
+    }
+
+    @Test
+    @Order(1)
+    void ctrUpdatesMatchOneShotTest() throws Exception {
+        byte[] plaintext = source(1000);
+        byte[] expected = referenceCTR(plaintext);
+
+        Cipher c = ctr(Cipher.ENCRYPT_MODE);
+        byte[] out = new byte[plaintext.length];
+        int written = 0;
+        int[] pieces = { 1, 7, 24, 100, 500, 368 };
+        int offset = 0;
+        for (int piece : pieces) {
+            written += c.update(plaintext, offset, piece, out, written);
+            offset += piece;
+        }
+        written += c.doFinal(out, written);
+
+        assertEquals(plaintext.length, written);
+        assertArrayEquals(expected, out);
+    }
+
+    @Test
+    @Order(2)
+    void ctrDoFinalRestartsTest() throws Exception {
+        byte[] plaintext = source(300);
+        Cipher c = ctr(Cipher.ENCRYPT_MODE);
+        byte[] first = c.doFinal(plaintext);
+        byte[] second = c.doFinal(plaintext);
+        assertArrayEquals(first, second);
+    }
+
+    @Test
+    @Order(3)
+    void ctrInPlaceTest() throws Exception {
+        byte[] plaintext = source(777);
+        byte[] data = plaintext.clone();
+        ctr(Cipher.ENCRYPT_MODE).doFinal(data, 0, data.length, data, 0);
+        assertArrayEquals(referenceCTR(plaintext), data);
+
+        ctr(Cipher.DECRYPT_MODE).doFinal(data, 0, data.length, data, 0);
+        assertArrayEquals(plaintext, data);
+    }
+
+    @Test
+    @Order(4)
+    void ctrOverlappingShiftTest() throws Exception {
+        byte[] plaintext = source(500);
+        byte[] data = new byte[plaintext.length + 10];
+        System.arraycopy(plaintext, 0, data, 0, plaintext.length);
+
+        // output ten bytes ahead of the input in the same array
+        ctr(Cipher.ENCRYPT_MODE).doFinal(data, 0, plaintext.length, data, 10);
+
+        byte[] out = new byte[plaintext.length];
+        System.arraycopy(data, 10, out, 0, out.length);
+        assertArrayEquals(referenceCTR(plaintext), out);
+    }
+
+    @Test
+    @Order(5)
+    void heapByteBufferTest() throws Exception {
+        byte[] plaintext = source(1000);
+        ByteBuffer input = ByteBuffer.wrap(plaintext);
+        ByteBuffer output = ByteBuffer.allocate(plaintext.length);
+
+        ctr(Cipher.ENCRYPT_MODE).doFinal(input, output);
+
+        assertEquals(0, input.remaining());
+        assertEquals(0, output.remaining());
+        assertArrayEquals(referenceCTR(plaintext), output.array());
+    }
+
+    @Test
+    @Order(6)
+    void directByteBufferTest() throws Exception {
+        byte[] plaintext = source(50000);
+        ByteBuffer input = ByteBuffer.allocateDirect(plaintext.length);
+        input.put(plaintext).flip();
+        ByteBuffer output = ByteBuffer.allocateDirect(plaintext.length);
+
+        ctr(Cipher.ENCRYPT_MODE).doFinal(input, output);
+
+        byte[] out = new byte[plaintext.length];
+        output.flip().get(out);
+        assertArrayEquals(referenceCTR(plaintext), out);
+    }
+
+    @Test
+    @Order(7)
+    void shortBufferTest() throws Exception {
+        Cipher c = ctr(Cipher.ENCRYPT_MODE);
+        assertThrows(ShortBufferException.class, () -> c.update(new byte[48], 0, 48, new byte[47], 0));
+    }
+
+    @Test
+    @Order(8)
+    void cbcMatchesModeTest() throws Exception {
+        byte[] plaintext = source(24 * 20);
+        CBCMode mode = new CBCMode();
+        byte[] expected = plaintext.clone();
+        mode.initialise(cipher, keyA, ivA);
+        mode.encrypt(expected);
+
+        Cipher c = Cipher.getInstance("CAST384/CBC/NoPadding", provider);
+        c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyA, "CAST384"), new IvParameterSpec(ivA));
+
+        // uneven pieces are held back until a whole block is available
+        byte[] out = new byte[plaintext.length];
+        int written = c.update(plaintext, 0, 30, out, 0);
+        assertEquals(24, written);
+        written += c.update(plaintext, 30, 100, out, written);
+        written += c.doFinal(plaintext, 130, plaintext.length - 130, out, written);
+
+        assertEquals(plaintext.length, written);
+        assertArrayEquals(expected, out);
+    }
+
+    @Test
+    @Order(9)
+    void cbcInPlaceWithHeldBackBlockTest() throws Exception {
+        byte[] plaintext = source(24 * 20);
+        Cipher enc = Cipher.getInstance("CAST384/CBC/NoPadding", provider);
+        enc.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyA, "CAST384"), new IvParameterSpec(ivA));
+        byte[] expected = enc.doFinal(plaintext);
+
+        Cipher c = Cipher.getInstance("CAST384/CBC/NoPadding", provider);
+        c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyA, "CAST384"), new IvParameterSpec(ivA));
+        byte[] data = plaintext.clone();
+        int written = c.update(data, 0, 10, data, 0);
+        written += c.doFinal(data, 10, data.length - 10, data, written);
+
+        assertEquals(plaintext.length, written);
+        assertArrayEquals(expected, data);
+    }
+
+    @Test
+    @Order(10)
+    void cbcRoundTripTest() throws Exception {
+        byte[] plaintext = source(24 * 5000);
+        Cipher enc = Cipher.getInstance("CAST384/CBC/NoPadding", provider);
+        enc.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyA, "CAST384"), new IvParameterSpec(ivA));
+        byte[] ciphertext = enc.doFinal(plaintext);
+
+        Cipher dec = Cipher.getInstance("CAST384/CBC/NoPadding", provider);
+        dec.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyA, "CAST384"), new IvParameterSpec(ivA));
+        assertArrayEquals(plaintext, dec.doFinal(ciphertext));
+    }
+
+    @Test
+    @Order(11)
+    void cbcPartialBlockTest() throws Exception {
+        Cipher c = Cipher.getInstance("CAST384/CBC/NoPadding", provider);
+        c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyA, "CAST384"), new IvParameterSpec(ivA));
+        assertThrows(IllegalBlockSizeException.class, () -> c.doFinal(new byte[25]));
+
+        // the failed call leaves the cipher ready for a new message
+        assertEquals(48, c.doFinal(new byte[48]).length);
+    }
+
+    @Test
+    @Order(12)
+    void ofbRoundTripTest() throws Exception {
+        byte[] plaintext = source(1001);
+        Cipher enc = Cipher.getInstance("CAST384/OFB/NoPadding", provider);
+        enc.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyA, "CAST384"), new IvParameterSpec(ivA));
+        byte[] ciphertext = enc.doFinal(plaintext);
+
+        Cipher dec = Cipher.getInstance("CAST384/OFB/NoPadding", provider);
+        dec.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyA, "CAST384"), new IvParameterSpec(ivA));
+        assertArrayEquals(plaintext, dec.doFinal(ciphertext));
+    }
+
+    @Test
+    @Order(13)
+    void generatedIvTest() throws Exception {
+        Cipher c = Cipher.getInstance("CAST384/CTR/NoPadding", provider);
+        c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyA, "CAST384"));
+        assertEquals(16, c.getIV().length);
+
+        Cipher d = Cipher.getInstance("CAST384/CTR/NoPadding", provider);
+        assertThrows(InvalidKeyException.class,
+                () -> d.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyA, "CAST384")));
+    }
+
+    @Test
+    @Order(14)
+    void invalidKeyTest() throws Exception {
+        Cipher c = Cipher.getInstance("CAST384/CTR/NoPadding", provider);
+        assertThrows(InvalidKeyException.class,
+                () -> c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[20], "CAST384"),
+                        new IvParameterSpec(nonceA)));
+    }
+
+    @Test
+    @Order(15)
+    void secureRandomTest() throws Exception {
+        SecureRandom random = SecureRandom.getInstance("CAST384-CTR-DRBG", provider);
+        byte[] a = new byte[64];
+        byte[] b = new byte[64];
+        random.nextBytes(a);
+        random.nextBytes(b);
+        assertFalse(java.util.Arrays.equals(a, b));
+    }
+
+    @Test
+    @Order(16)
+    void wrapModesRejectedTest() throws Exception {
+        Cipher c = Cipher.getInstance("CAST384/CTR/NoPadding", provider);
+        SecretKeySpec key = new SecretKeySpec(keyA, "CAST384");
+        assertThrows(InvalidParameterException.class, () -> c.init(Cipher.WRAP_MODE, key, new IvParameterSpec(nonceA)));
+        assertThrows(InvalidParameterException.class, () -> c.init(Cipher.UNWRAP_MODE, key, new IvParameterSpec(nonceA)));
+        assertThrows(InvalidParameterException.class, () -> c.init(Cipher.WRAP_MODE, key));
+
+        // a refused init leaves the cipher usable
+        c.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(nonceA));
+        assertArrayEquals(referenceCTR(new byte[40]), c.doFinal(new byte[40]));
+    }
+}
@@ -0,0 +1,131 @@
+package uk.ac.nottingham.cryptography.Modes;
+
+import org.junit.jupiter.api.*;
+import uk.ac.nottingham.cryptography.CASTCipher;
+import uk.ac.nottingham.cryptography.XTSMode;
+
+import java.util.Arrays;
+import java.util.ServiceLoader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class XTSTests {
+    private final CASTCipher cipher = ServiceLoader.load(CASTCipher.class).findFirst().orElseThrow();
+
+    private static final byte[] keyA;
+
+    static {
+        keyA = new byte[96];
+
+        for (int i = 0; i < 96; i++) {
+            keyA[i] = (byte) (i * 7 + 3);
+        }
+    }
+
+    private static byte[] source(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (0x1b & (i * 3));
+        }
+        return data;
+    }
+
+    private static byte[] slice(byte[] data, int from, int to) {
+        return Arrays.copyOfRange(data, from, to);
+    }
+
+    @Test
+    @Order(0)
+    void roundTripTest() {
+        // 4096 leaves a 16 byte tail, 48 none, 30 a 6 byte tail
+        for (int sectorSize : new int[] { 4096, 48, 30, 24 }) {
+            XTSMode mode = new XTSMode(sectorSize);
+            byte[] plaintext = source(sectorSize * 3);
+            byte[] data = plaintext.clone();
+
+            mode.initialise(cipher, keyA, new byte[] { 5 });
+            mode.encrypt(data);
+            assertFalse(Arrays.equals(plaintext, data));
+
+            mode.seek(new byte[] { 5 });
+            mode.decrypt(data);
+            assertArrayEquals(plaintext, data);
+        }
+    }
+
+    @Test
+    @Order(1)
+    void sectorsAreIndependentTest() {
+        XTSMode mode = new XTSMode(4096);
+        byte[] data = new byte[4096 * 3];
+
+        mode.initialise(cipher, keyA, new byte[] { 0 });
+        mode.encrypt(data);
+
+        // same plaintext in each sector, different ciphertext per sector
+        assertFalse(Arrays.equals(slice(data, 0, 4096), slice(data, 4096, 8192)));
+
+        // any sector can be decrypted on its own
+        byte[] middle = slice(data, 4096, 8192);
+        mode.decryptSector(1, middle, 0);
+        assertArrayEquals(new byte[4096], middle);
+    }
+
+    @Test
+    @Order(2)
+    void tailChangesWholeLastBlocksTest() {
+        XTSMode mode = new XTSMode(30);
+        byte[] a = source(30);
+        byte[] b = source(30);
+        b[29] ^= 1;
+
+        mode.initialise(cipher, keyA, new byte[] { 0 });
+        mode.encryptSector(9, a, 0);
+        mode.encryptSector(9, b, 0);
+
+        // a change in the stolen tail reaches the block it was stolen into
+        assertFalse(Arrays.equals(slice(a, 0, 24), slice(b, 0, 24)));
+    }
+
+    @Test
+    @Order(3)
+    void parallelSectorsTest() {
+        XTSMode mode = new XTSMode(4096);
+        mode.initialise(cipher, keyA, new byte[] { 0 });
+
+        int sectors = 64;
+        byte[] plaintext = source(4096 * sectors);
+        byte[] expected = plaintext.clone();
+        for (int s = 0; s < sectors; s++) {
+            mode.encryptSector(1000 + s, expected, s * 4096);
+        }
+
+        byte[] data = plaintext.clone();
+        mode.encryptSectors(1000, data, 0, sectors);
+        assertArrayEquals(expected, data);
+
+        mode.decryptSectors(1000, data, 0, sectors);
+        assertArrayEquals(plaintext, data);
+    }
+
+    @Test
+    @Order(4)
+    void invalidInputTest() {
+        XTSMode mode = new XTSMode(4096);
+        assertThrows(IllegalArgumentException.class, () -> new XTSMode(23));
+        assertThrows(IllegalArgumentException.class, () -> mode.initialise(cipher, new byte[48], new byte[] { 0 }));
+
+        assertThrows(IllegalArgumentException.class, () -> mode.initialise(cipher, keyA, new byte[9]));
+
+        mode.initialise(cipher, keyA, new byte[] { 0 });
+        assertThrows(IllegalArgumentException.class, () -> mode.encrypt(new byte[4095]));
+        assertThrows(IllegalArgumentException.class, () -> mode.encryptSectors(0, new byte[4096], 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> mode.seek(new byte[0]));
+        assertThrows(IllegalArgumentException.class, () -> mode.seek(new byte[] { 1, 0, 0, 0, 0, 0, 0, 0, 5 }));
+        mode.seek(new byte[] { 1, 0, 0, 0, 0, 0, 0, 5 });
+    }
+}